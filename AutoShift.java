@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+// Turns key presses and releases into game inputs, with delayed auto-shift (DAS) and an auto-repeat rate
+// (ARR) timed on System.nanoTime() instead of the operating system's key repeat, whose delay and rate
+// depend on the platform and desktop settings and jitter by tens of milliseconds.
+// A press applies its input at once. Holding left or right repeats it after the DAS delay, every ARR
+// from then on, or with an ARR of 0 as far as the piece goes (and again whenever it could go further).
+// Holding down repeats at the soft drop rate. Rotate, drop and hold fire once per press.
+// Everything is driven by the thread that owns the engine: press() and release() in the order the keys
+// arrived, with their arrival times, and poll() to fire the repeats that have come due by a given time.
+// Repeats are applied at their scheduled times relative to the presses and releases around them.
+public final class AutoShift {
+
+    // Applies one input to the game; false if it had no effect
+    public interface Sink {
+        boolean apply(GameEngine.Input input);
+    }
+
+    public static final int DEFAULT_DAS_MILLIS = 170;
+    public static final int DEFAULT_ARR_MILLIS = 50;
+    // Time between soft drop repeats while down is held
+    private static final long SOFT_DROP_NANOS = 1_000_000_000L / 30;
+    // A release followed this soon by a press of the same key is the X11 auto-repeat, not the player
+    private static final long AUTOREPEAT_GAP_NANOS = 2_000_000L;
+
+    private static final int LEFT = GameEngine.Input.LEFT.ordinal();
+    private static final int RIGHT = GameEngine.Input.RIGHT.ordinal();
+    private static final int DOWN = GameEngine.Input.DOWN.ordinal();
+    private static final GameEngine.Input[] INPUTS = GameEngine.Input.values();
+
+    private final Sink sink;
+    private final long dasNanos;
+    private final long arrNanos;
+
+    private final boolean[] held = new boolean[INPUTS.length];
+    // The direction being shifted (LEFT or RIGHT, the last one pressed) or -1, and when it next moves
+    private int shift = -1;
+    private long nextShift;
+    private long nextDrop;
+
+    // The last release, kept in case it turns out to be auto-repeat: the key, when, and what it stopped
+    private int released = -1;
+    private long releasedAt;
+    private int releasedShift;
+    private long releasedNext;
+
+    public AutoShift(Sink sink, int dasMillis, int arrMillis) {
+        this.sink = sink;
+        this.dasNanos = dasMillis * 1_000_000L;
+        this.arrNanos = arrMillis * 1_000_000L;
+    }
+
+    public void press(GameEngine.Input input, long nanos) {
+        int key = input.ordinal();
+        // Windows and macOS repeat a held key as more presses
+        if (held[key]) {
+            return;
+        }
+        poll(nanos);
+        held[key] = true;
+        if (key == released && nanos - releasedAt <= AUTOREPEAT_GAP_NANOS) {
+            // X11 repeats it as a release and a press; carry on as if the key had stayed down
+            released = -1;
+            if (key == DOWN) {
+                nextDrop = releasedNext;
+            } else if (releasedShift >= 0) {
+                shift = releasedShift;
+                nextShift = releasedNext;
+            }
+        } else {
+            sink.apply(input);
+            if (key == LEFT || key == RIGHT) {
+                shift = key;
+                nextShift = nanos + dasNanos;
+            } else if (key == DOWN) {
+                nextDrop = nanos + SOFT_DROP_NANOS;
+            }
+        }
+        // Repeats already due: at once with a DAS of 0, or ones that fell in an X11 repeat's gap
+        poll(nanos);
+    }
+
+    public void release(GameEngine.Input input, long nanos) {
+        int key = input.ordinal();
+        if (!held[key]) {
+            return;
+        }
+        poll(nanos);
+        held[key] = false;
+        released = key;
+        releasedAt = nanos;
+        releasedShift = shift;
+        releasedNext = key == DOWN ? nextDrop : nextShift;
+
+        // Letting go of one direction while the other is held shifts that way again, after a fresh DAS
+        if (key == shift) {
+            int other = key == LEFT ? RIGHT : LEFT;
+            shift = held[other] ? other : -1;
+            nextShift = nanos + dasNanos;
+        }
+    }
+
+    // Forget every held key, e.g. on pause or when the window loses focus
+    public void releaseAll() {
+        Arrays.fill(held, false);
+        shift = -1;
+        released = -1;
+    }
+
+    // Fire the repeats due by the given time, in the order they fall due
+    public void poll(long nanos) {
+        while (true) {
+            boolean shiftDue = shift >= 0 && nextShift - nanos <= 0;
+            boolean dropDue = held[DOWN] && nextDrop - nanos <= 0;
+            if (shiftDue && (!dropDue || nextShift - nextDrop <= 0)) {
+                if (arrNanos == 0) {
+                    // Instant: all the way, then try again at the next poll in case the way opens up
+                    while (sink.apply(INPUTS[shift])) {
+                        // Shift until blocked
+                    }
+                    nextShift = nanos + 1;
+                } else {
+                    sink.apply(INPUTS[shift]);
+                    nextShift += arrNanos;
+                }
+            } else if (dropDue) {
+                sink.apply(GameEngine.Input.DOWN);
+                nextDrop += SOFT_DROP_NANOS;
+            } else {
+                return;
+            }
+        }
+    }
+}
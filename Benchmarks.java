@@ -0,0 +1,436 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntSupplier;
+
+// Micro-benchmarks for the gameplay and rendering hot paths, with no dependencies beyond the JDK.
+// Each benchmark reports time and bytes allocated per operation (from the per-thread allocation counter).
+// Usage: java Tetris --bench [--filter NAME] [--save FILE] [--check FILE] [--tolerance 1.25]
+public final class Benchmarks {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURE_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 200_000_000L;
+
+    // Consumes benchmark results so the JIT cannot discard the work
+    static volatile int sink;
+
+    private Benchmarks() {}
+
+    static final class Result {
+        final String name;
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(String name, double nanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    public static void run(String[] args) throws IOException {
+        String filter = null;
+        String saveFile = null;
+        String checkFile = null;
+        double tolerance = 1.25;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--save":
+                    saveFile = args[++i];
+                    break;
+                case "--check":
+                    checkFile = args[++i];
+                    break;
+                case "--tolerance":
+                    tolerance = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        System.setProperty("java.awt.headless", "true");
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, IntSupplier> benchmark : benchmarks().entrySet()) {
+            if (filter != null && !benchmark.getKey().contains(filter)) {
+                continue;
+            }
+            Result result = measure(benchmark.getKey(), benchmark.getValue());
+            System.out.printf("%-28s %12.1f ns/op %10.1f B/op%n",
+                    result.name, result.nanosPerOp, result.bytesPerOp);
+            results.add(result);
+        }
+
+        if (saveFile != null) {
+            StringBuilder out = new StringBuilder();
+            for (Result result : results) {
+                out.append(result.name).append(' ')
+                        .append(result.nanosPerOp).append(' ')
+                        .append(result.bytesPerOp).append('\n');
+            }
+            Files.write(Paths.get(saveFile), out.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        if (checkFile != null && !check(results, checkFile, tolerance)) {
+            System.exit(1);
+        }
+    }
+
+    // Benchmarks in run order; each call performs one operation and returns something to sink
+    private static Map<String, IntSupplier> benchmarks() throws IOException {
+        Map<String, IntSupplier> benchmarks = new LinkedHashMap<>();
+
+        Board stack = stackFixture(new Random(42), 8);
+        int[] probe = {0};
+        benchmarks.put("canMove", () -> {
+            int x = probe[0]++ & 7;
+            Tetromino piece = Tetromino.TYPES[x % 7];
+            return stack.canPlace(piece, x & 3, x, 12) ? 1 : 0;
+        });
+
+        // Landing row straight from the column heights, as an uncached ghost or hard drop needs it
+        benchmarks.put("dropRow", () -> {
+            int x = probe[0]++ % 7;
+            return stack.dropRow(Tetromino.TYPES[x], x & 3, x, 0);
+        });
+
+        Board scratch = new Board();
+        benchmarks.put("copyFrom", () -> {
+            scratch.copyFrom(stack);
+            return scratch.getColumnTop(0);
+        });
+
+        for (int lines = 1; lines <= 4; lines++) {
+            Board fixture = clearFixture(new Random(lines), lines);
+            benchmarks.put("clearLines/" + lines, () -> {
+                scratch.copyFrom(fixture);
+                return scratch.clearLines();
+            });
+        }
+
+        // A quad clear on the bottom rows, the common case the ring buffer is built for
+        Board quad = stackFixture(new Random(4), 10);
+        for (int row = Board.DEFAULT_HEIGHT - 4; row < Board.DEFAULT_HEIGHT; row++) {
+            quad.fillRow(row, -1, Tetromino.I.colorId);
+        }
+        benchmarks.put("clearLines/bottom4", () -> {
+            scratch.copyFrom(quad);
+            return scratch.clearLines();
+        });
+
+        benchmarks.put("addGarbage", () -> {
+            scratch.copyFrom(stack);
+            return scratch.addGarbage(0, Tetromino.I.colorId) ? 1 : 0;
+        });
+
+        // Drops at the spawn column until the stack tops out, then starts over
+        GameEngine dropEngine = new GameEngine(3);
+        benchmarks.put("hardDrop", () -> {
+            dropEngine.hardDrop();
+            if (dropEngine.isGameOver()) {
+                dropEngine.reset();
+            }
+            return dropEngine.getScore();
+        });
+
+        // Choosing a placement over every rotation and column, for the current and the hold piece
+        GameEngine botEngine = new GameEngine(4);
+        botEngine.getBoard().copyFrom(stack);
+        HeuristicBot bot = new HeuristicBot();
+        benchmarks.put("chooseMove", () -> bot.chooseMove(botEngine));
+
+        // A full bot turn (choose, then play the inputs), restarting whenever the game ends
+        GameEngine autopilotEngine = new GameEngine(4);
+        benchmarks.put("botPlay", () -> {
+            if (!bot.play(autopilotEngine)) {
+                autopilotEngine.reset();
+            }
+            return autopilotEngine.getScore();
+        });
+
+        // Lookahead searches from scratch: the table is emptied first so every position is searched again
+        for (int depth = 2; depth <= 3; depth++) {
+            TranspositionTable table = new TranspositionTable(1 << 14, 64);
+            LookaheadBot lookahead = new LookaheadBot(HeuristicBot.Weights.DEFAULT, depth,
+                    ForkJoinPool.commonPool(), table);
+            benchmarks.put("lookahead/" + depth, () -> {
+                table.clear();
+                return lookahead.chooseMove(botEngine);
+            });
+        }
+
+        // One batch step of random actions: 256 games on the calling thread alone, then 1024 sharded
+        // across every core, writing observations into a direct buffer
+        VectorEnv env = new VectorEnv(256, 8, Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT,
+                GameEngine.DEFAULT_PREVIEW, 1);
+        int[] envActions = randomActions(new Random(8), env);
+        byte[] envObservations = new byte[env.getCount() * env.getObservationSize()];
+        float[] envRewards = new float[env.getCount()];
+        boolean[] envDones = new boolean[env.getCount()];
+        env.reset(envObservations);
+        benchmarks.put("vectorEnv/256", () -> {
+            env.step(envActions, envObservations, envRewards, envDones);
+            return envObservations[0];
+        });
+
+        VectorEnv shardedEnv = new VectorEnv(1024, 9);
+        int[] shardedActions = randomActions(new Random(9), shardedEnv);
+        ByteBuffer shardedObservations = ByteBuffer.allocateDirect(
+                shardedEnv.getCount() * shardedEnv.getObservationSize());
+        float[] shardedRewards = new float[shardedEnv.getCount()];
+        boolean[] shardedDones = new boolean[shardedEnv.getCount()];
+        shardedEnv.reset(shardedObservations);
+        benchmarks.put("vectorEnv/1024", () -> {
+            shardedEnv.step(shardedActions, shardedObservations, shardedRewards, shardedDones);
+            return shardedObservations.get(0);
+        });
+
+        // Move generation: every distinct lock position three pieces deep on the stack fixture
+        Perft perft = new Perft(new Tetromino[] {Tetromino.T, Tetromino.S, Tetromino.L},
+                Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+        benchmarks.put("perft/3", () -> (int) perft.count(stack, 3));
+
+        // Perfect clear of a 4x4 well beside a 6-wide stack, searched from scratch each time
+        Board well = new Board();
+        for (int row = Board.DEFAULT_HEIGHT - 4; row < Board.DEFAULT_HEIGHT; row++) {
+            for (int col = 0; col < 6; col++) {
+                well.setCell(col, row, Tetromino.I.colorId);
+            }
+        }
+        Solver solver = new Solver(new Tetromino[] {Tetromino.L, Tetromino.J, Tetromino.S, Tetromino.Z}, null, 0,
+                ForkJoinPool.commonPool(), new TranspositionTable(1 << 16, 64));
+        benchmarks.put("solve/pc4", () -> {
+            solver.getFailures().clear();
+            return solver.solve(well).size();
+        });
+
+        // Replay seeking: a 2000-piece bot game with gravity, recorded to a temporary file, then jumps
+        // back and forth across it as scrubbing would
+        Path replayFile = Files.createTempFile("bench", ".replay");
+        replayFile.toFile().deleteOnExit();
+        GameEngine recorded = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, 11), 5,
+                Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+        try (ReplayRecorder recorder = new ReplayRecorder(replayFile, recorded, 11, PieceGenerator.Mode.BAG)) {
+            recorded.setListener(recorder.recording(new GameEngine.Listener() {}));
+            HeuristicBot recordingBot = new HeuristicBot(HeuristicBot.Weights.DEFAULT);
+            while (!recorded.isGameOver() && recorded.getPiecesPlaced() < 2000) {
+                recorded.step();
+                recorded.step();
+                recordingBot.play(recorded);
+            }
+        }
+        Replay replay = Replay.open(replayFile);
+        Replay.Cursor replayCursor = replay.cursor();
+        long replayEvents = replay.getEventCount();
+        long[] seekTarget = {0};
+        benchmarks.put("replay/seek", () -> {
+            seekTarget[0] = (seekTarget[0] + replayEvents * 3 / 7) % replayEvents;
+            replayCursor.seekEvent(seekTarget[0]);
+            return replayCursor.getEngine().getScore();
+        });
+
+        // Publishing with an unchanged stack: the board arrays are shared with the previous snapshot
+        GameEngine renderEngine = new GameEngine(5);
+        renderEngine.getBoard().copyFrom(stack);
+        StatePublisher publisher = new StatePublisher(renderEngine);
+        benchmarks.put("publish", () -> publisher.publish().getGhostY());
+
+        Tetris.GamePanel panel = new Tetris.GamePanel(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT, Tetris.BLOCK_SIZE);
+        panel.setSize(panel.getPreferredSize());
+        GameSnapshot snapshot = publisher.get();
+        panel.show(snapshot);
+        BufferedImage image = new BufferedImage(panel.getWidth(), panel.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        benchmarks.put("drawGhostPiece", () -> {
+            panel.renderer.drawGhostPiece(g2d, snapshot, Tetris.BORDER_WIDTH, Tetris.BORDER_WIDTH);
+            return image.getRGB(0, 0);
+        });
+        benchmarks.put("paintComponent", () -> {
+            panel.paintComponent(g2d);
+            return image.getRGB(0, 0);
+        });
+        
+        // What a single move costs: Swing coalesces the piece and ghost footprints into one
+        // dirty rectangle, spanning from the spawn rows down to the top of the stack
+        Graphics2D moveClip = image.createGraphics();
+        moveClip.clipRect(Tetris.BORDER_WIDTH + 3 * Tetris.BLOCK_SIZE, Tetris.BORDER_WIDTH,
+                4 * Tetris.BLOCK_SIZE, 12 * Tetris.BLOCK_SIZE);
+        benchmarks.put("paintMove", () -> {
+            panel.paintComponent(moveClip);
+            return image.getRGB(0, 0);
+        });
+
+        // Stress size: a 100x400 board shown 80 rows at a time in 12 px cells
+        Board wide = new Board(100, 400);
+        Board wideFixture = clearFixture(new Board(100, 400), new Random(6), 4);
+        benchmarks.put("clearLines/100x400", () -> {
+            wide.copyFrom(wideFixture);
+            return wide.clearLines();
+        });
+
+        GameEngine wideEngine = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, 7),
+                GameEngine.DEFAULT_PREVIEW, 100, 400);
+        wideEngine.getBoard().copyFrom(stackFixture(new Board(100, 400), new Random(7), 120));
+        benchmarks.put("hardDrop/100x400", () -> {
+            wideEngine.hardDrop();
+            if (wideEngine.isGameOver()) {
+                wideEngine.reset();
+            }
+            return wideEngine.getScore();
+        });
+
+        Tetris.GamePanel widePanel = new Tetris.GamePanel(100, 80, 12);
+        widePanel.setSize(widePanel.getPreferredSize());
+        widePanel.show(new StatePublisher(wideEngine).get());
+        BufferedImage wideImage = new BufferedImage(widePanel.getWidth(), widePanel.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D wideG2d = wideImage.createGraphics();
+        benchmarks.put("paintComponent/100x400", () -> {
+            widePanel.paintComponent(wideG2d);
+            return wideImage.getRGB(0, 0);
+        });
+
+        return benchmarks;
+    }
+
+    // A random action for every game in the batch, mostly moves with a drop in every few
+    static int[] randomActions(Random random, VectorEnv env) {
+        int[] actions = new int[env.getCount()];
+        for (int i = 0; i < actions.length; i++) {
+            actions[i] = random.nextInt(env.getActionCount());
+        }
+        return actions;
+    }
+
+    // Random stack of the given height on a default-size board, with a single hole in every row
+    static Board stackFixture(Random random, int height) {
+        return stackFixture(new Board(), random, height);
+    }
+
+    static Board stackFixture(Board board, Random random, int height) {
+        for (int row = board.getHeight() - height; row < board.getHeight(); row++) {
+            board.fillRow(row, random.nextInt(board.getWidth()), Tetromino.TYPES[random.nextInt(7)].colorId);
+        }
+        return board;
+    }
+
+    // Stack with the given number of full rows spread through its lower half
+    static Board clearFixture(Random random, int lines) {
+        return clearFixture(new Board(), random, lines);
+    }
+
+    static Board clearFixture(Board board, Random random, int lines) {
+        stackFixture(board, random, board.getHeight() / 2);
+        for (int i = 0; i < lines; i++) {
+            board.fillRow(board.getHeight() - 1 - 2 * i, -1, Tetromino.I.colorId);
+        }
+        return board;
+    }
+
+    private static Result measure(String name, IntSupplier op) {
+        int batch = calibrate(op);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(op, batch);
+        }
+
+        double nanos = 0;
+        double bytes = 0;
+        long ops = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long[] iteration = runIteration(op, batch);
+            ops += iteration[0];
+            nanos += iteration[1];
+            bytes += iteration[2];
+        }
+        return new Result(name, nanos / ops, bytes < 0 ? Double.NaN : bytes / ops);
+    }
+
+    // Operations per millisecond, so the clock is read about once per millisecond while measuring
+    private static int calibrate(IntSupplier op) {
+        int acc = 0;
+        long ops = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < 10_000_000L) {
+            acc += op.getAsInt();
+            ops++;
+        }
+        sink = acc;
+        return (int) Math.max(1, ops / 10);
+    }
+
+    // Runs the operation in batches for one iteration: {ops, elapsed nanos, allocated bytes}
+    private static long[] runIteration(IntSupplier op, int batch) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = start + ITERATION_NANOS;
+        long ops = 0;
+        int acc = 0;
+        long now;
+        do {
+            for (int i = 0; i < batch; i++) {
+                acc += op.getAsInt();
+            }
+            ops += batch;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long allocatedAfter = allocatedBytes();
+        sink = acc;
+        return new long[] {ops, now - start, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore};
+    }
+
+    // Bytes allocated so far by this thread, or -1 if the JVM can't tell
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    // Compare against a saved baseline; false if any benchmark got slower or allocates more
+    private static boolean check(List<Result> results, String baselineFile, double tolerance) throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(Paths.get(baselineFile), StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            if (parts.length == 3) {
+                baseline.put(parts[0], new double[] {Double.parseDouble(parts[1]), Double.parseDouble(parts[2])});
+            }
+        }
+
+        boolean passed = true;
+        for (Result result : results) {
+            double[] expected = baseline.get(result.name);
+            if (expected == null) {
+                continue;
+            }
+            if (result.nanosPerOp > expected[0] * tolerance) {
+                System.out.printf("REGRESSION %s: %.1f ns/op (baseline %.1f)%n", result.name, result.nanosPerOp, expected[0]);
+                passed = false;
+            }
+            // Allow for the harness's own bookkeeping when comparing allocations
+            if (result.bytesPerOp > expected[1] * tolerance + 1.0) {
+                System.out.printf("REGRESSION %s: %.1f B/op (baseline %.1f)%n", result.name, result.bytesPerOp, expected[1]);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+}
@@ -0,0 +1,525 @@
+import java.util.Arrays;
+
+// Bitboard: one occupancy mask per row, plus a colour plane that only the renderer reads.
+// Rows wider than 64 columns span several 64-bit words.
+// Rows live in a ring: logical row r (0 = top) is stored at physical row (head + r) mod height, so
+// pushing garbage in from the bottom moves the ring's origin instead of every row. Clearing k lines
+// still copies rows, but only those on the shorter side of the cleared ones: min(rows above, rows
+// below) copies plus k rows emptied, which is O(k) only when the clears are at the bottom of the stack
+// (the usual case) and up to half the stack for clears in its middle.
+public final class Board {
+    public static final int DEFAULT_WIDTH = 10;
+    public static final int DEFAULT_HEIGHT = 20;
+
+    private final int width;
+    private final int height;
+    // 64-bit words per row, and the mask of the columns used in a row's last word
+    private final int words;
+    private final long lastWord;
+
+    // Indexed by physical row: words of row p at p * words, colours of row p at p * width
+    private final long[] rows;
+    private final byte[] colors;
+    private int head;
+
+    // Topmost filled row of each column (height if the column is empty), filled cells in each column
+    // and filled cells in each physical row, all kept up to date as the stack changes
+    private final int[] tops;
+    private final int[] filled;
+    private final int[] rowCounts;
+    // Columns not yet found while recomputing tops, one bit per column
+    private final long[] missing;
+
+    // Zobrist hash of the stack: the XOR of a fixed pseudo-random key for every filled (col, row).
+    // Moving rows changes most keys, so clears and garbage only mark it stale and getHash recomputes
+    // it; games that never ask for it (only the lookahead search does) never pay for that.
+    private long hash;
+    private boolean hashStale;
+
+    // Bumped on every change to the stack, so snapshots can tell when they need a fresh copy
+    private long version;
+
+    public Board() {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    public Board(int width, int height) {
+        if (width < 4 || height < 4) {
+            throw new IllegalArgumentException("board must be at least 4x4: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.words = (width + 63) >>> 6;
+        this.lastWord = (width & 63) == 0 ? -1L : (1L << (width & 63)) - 1;
+        this.rows = new long[height * words];
+        this.colors = new byte[height * width];
+        this.tops = new int[width];
+        this.filled = new int[width];
+        this.rowCounts = new int[height];
+        this.missing = new long[words];
+        Arrays.fill(tops, height);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void clear() {
+        Arrays.fill(rows, 0);
+        Arrays.fill(colors, (byte) 0);
+        Arrays.fill(tops, height);
+        Arrays.fill(filled, 0);
+        Arrays.fill(rowCounts, 0);
+        head = 0;
+        hash = 0;
+        hashStale = false;
+        version++;
+    }
+
+    // Physical index of a logical row
+    private int physical(int row) {
+        int p = head + row;
+        return p >= height ? p - height : p;
+    }
+
+    public boolean canPlace(Tetromino piece, int rotation, int x, int y) {
+        if (words > 1) {
+            return canPlaceWide(piece, rotation, x, y);
+        }
+        for (int i = 0; i < 4; i++) {
+            int bits = piece.rowBits(rotation, i);
+            if (bits == 0) {
+                continue;
+            }
+
+            // Check bounds
+            int newY = y + i;
+            long mask = shiftRow(bits, x);
+            if (mask == 0 || newY >= height) {
+                return false;
+            }
+
+            // Check collision with placed pieces (only if inside the board)
+            if (newY >= 0 && (rows[physical(newY)] & mask) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Move a piece row's bits to column x, or 0 if any cell falls outside a single-word row
+    // (a 64-column row uses the sign bit, so no negative value can mark a miss)
+    private long shiftRow(int bits, int x) {
+        if (x >= 0) {
+            return x + 31 - Integer.numberOfLeadingZeros(bits) < width ? (long) bits << x : 0;
+        }
+        if (x <= -4 || (bits & ((1 << -x) - 1)) != 0) {
+            return 0;
+        }
+        return bits >>> -x;
+    }
+
+    // canPlace for rows of more than one word, where a piece row may straddle two of them
+    private boolean canPlaceWide(Tetromino piece, int rotation, int x, int y) {
+        for (int i = 0; i < 4; i++) {
+            int bits = piece.rowBits(rotation, i);
+            if (bits == 0) {
+                continue;
+            }
+
+            // Check bounds against the leftmost and rightmost cells of the piece row
+            int newY = y + i;
+            int low = Integer.numberOfTrailingZeros(bits);
+            int left = x + low;
+            if (left < 0 || x + 31 - Integer.numberOfLeadingZeros(bits) >= width || newY >= height) {
+                return false;
+            }
+
+            // Check collision with placed pieces (only if inside the board). The piece row covers at
+            // most four columns, so it spills into the next word only near the end of one.
+            if (newY >= 0) {
+                int base = physical(newY) * words + (left >>> 6);
+                long mask = (long) (bits >>> low);
+                int offset = left & 63;
+                if ((rows[base] & (mask << offset)) != 0) {
+                    return false;
+                }
+                if (offset > 60) {
+                    long spill = mask >>> (64 - offset);
+                    if (spill != 0 && (rows[base + 1] & spill) != 0) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // Row a piece dropped straight down from y comes to rest on. While the piece is above the stack in
+    // every column it covers, the column heights give the answer directly; under an overhang it falls
+    // back to probing row by row.
+    public int dropRow(Tetromino piece, int rotation, int x, int y) {
+        int landing = height;
+        for (int j = 0; j < 4; j++) {
+            int bottom = piece.columnBottom(rotation, j);
+            if (bottom < 0) {
+                continue;
+            }
+            int top = tops[x + j];
+            if (y + bottom >= top) {
+                landing = -1;
+                break;
+            }
+            landing = Math.min(landing, top - 1 - bottom);
+        }
+        if (landing >= 0) {
+            return landing;
+        }
+
+        int row = y;
+        while (canPlace(piece, rotation, x, row + 1)) {
+            row++;
+        }
+        return row;
+    }
+
+    // Lock a piece into the stack; false if any of its cells is above the top of the board
+    public boolean place(Tetromino piece, int rotation, int x, int y) {
+        for (int i = 0; i < 4; i++) {
+            if (piece.rowBits(rotation, i) != 0 && y + i < 0) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (piece.isFilled(rotation, i, j)) {
+                    int boardY = y + i;
+                    int boardX = x + j;
+                    int p = physical(boardY);
+                    rows[p * words + (boardX >>> 6)] |= 1L << boardX;
+                    colors[p * width + boardX] = piece.colorId;
+                    tops[boardX] = Math.min(tops[boardX], boardY);
+                    filled[boardX]++;
+                    rowCounts[p]++;
+                    if (!hashStale) {
+                        hash ^= cellKey(boardX, boardY);
+                    }
+                }
+            }
+        }
+        version++;
+        return true;
+    }
+
+    public int clearLines() {
+        // Full rows can only be at or below the top of the stack
+        int highest = highestRow();
+        int linesCleared = 0;
+        int first = height;
+        int last = -1;
+        for (int row = highest; row < height; row++) {
+            if (isFull(physical(row))) {
+                linesCleared++;
+                first = Math.min(first, row);
+                last = row;
+            }
+        }
+        if (linesCleared == 0) {
+            return 0;
+        }
+
+        // Either slide the stack above the cleared rows down over them, or slide the rows below them up
+        // and then rotate the ring so everything drops by the number cleared; whichever copies fewer rows
+        int above = last - highest + 1 - linesCleared;
+        int below = height - first - linesCleared;
+        if (above <= below) {
+            int write = last;
+            for (int read = last; read >= highest; read--) {
+                if (!isFull(physical(read))) {
+                    moveRow(read, write--);
+                }
+            }
+            for (int row = write; row >= highest; row--) {
+                clearRow(row);
+            }
+        } else {
+            int write = first;
+            for (int read = first; read < height; read++) {
+                if (!isFull(physical(read))) {
+                    moveRow(read, write++);
+                }
+            }
+            for (int row = write; row < height; row++) {
+                clearRow(row);
+            }
+            head = physical(height - linesCleared);
+        }
+
+        for (int col = 0; col < width; col++) {
+            filled[col] -= linesCleared;
+        }
+        updateTops();
+        hashStale = true;
+        version++;
+        return linesCleared;
+    }
+
+    // Push a full row with one hole in from the bottom, lifting the whole stack by one;
+    // false if that pushed blocks off the top
+    public boolean addGarbage(int hole, byte colorId) {
+        boolean overflow = rowCounts[head] != 0;
+        if (overflow) {
+            for (int col = 0; col < width; col++) {
+                if (colors[head * width + col] != 0) {
+                    filled[col]--;
+                }
+            }
+        }
+
+        // The old top row's storage becomes the new bottom row
+        head = physical(1);
+        int p = physical(height - 1);
+        rowCounts[p] = width - 1;
+        for (int col = 0; col < width; col++) {
+            if (col != hole) {
+                filled[col]++;
+            }
+        }
+        for (int k = 0; k < words; k++) {
+            rows[p * words + k] = k == words - 1 ? lastWord : -1L;
+        }
+        rows[p * words + (hole >>> 6)] &= ~(1L << hole);
+        Arrays.fill(colors, p * width, (p + 1) * width, colorId);
+        colors[p * width + hole] = 0;
+
+        if (overflow) {
+            Arrays.fill(tops, 0);
+            updateTops();
+        } else {
+            for (int col = 0; col < width; col++) {
+                if (col != hole) {
+                    tops[col] = tops[col] == height ? height - 1 : tops[col] - 1;
+                } else if (tops[col] < height) {
+                    tops[col]--;
+                }
+            }
+        }
+        hashStale = true;
+        version++;
+        return !overflow;
+    }
+
+    private boolean isFull(int p) {
+        return rowCounts[p] == width;
+    }
+
+    private void moveRow(int from, int to) {
+        if (from != to) {
+            int src = physical(from);
+            int dst = physical(to);
+            rowCounts[dst] = rowCounts[src];
+            if (words == 1) {
+                rows[dst] = rows[src];
+            } else {
+                System.arraycopy(rows, src * words, rows, dst * words, words);
+            }
+            System.arraycopy(colors, src * width, colors, dst * width, width);
+        }
+    }
+
+    private void clearRow(int row) {
+        int p = physical(row);
+        rowCounts[p] = 0;
+        if (words == 1) {
+            rows[p] = 0;
+        } else {
+            Arrays.fill(rows, p * words, (p + 1) * words, 0);
+        }
+        Arrays.fill(colors, p * width, (p + 1) * width, (byte) 0);
+    }
+
+    // Topmost row holding any block, or height if the board is empty
+    private int highestRow() {
+        int highest = height;
+        for (int col = 0; col < width; col++) {
+            highest = Math.min(highest, tops[col]);
+        }
+        return highest;
+    }
+
+    // Key of one filled cell in the Zobrist hash; the same for every board of the same width. Mixing the
+    // cell index stands in for a table of random keys
+    private long cellKey(int col, int row) {
+        return mix(((long) row * width + col + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    // SplitMix64 finalizer: a bijection that spreads every input bit over the whole result, so keys
+    // built from small counts can be combined with the hash without lining up with its bits
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Recompute the Zobrist hash after rows have moved
+    private void rehash() {
+        hashStale = false;
+        hash = 0;
+        for (int row = highestRow(); row < height; row++) {
+            int base = physical(row) * words;
+            for (int k = 0; k < words; k++) {
+                long bits = rows[base + k];
+                while (bits != 0) {
+                    hash ^= cellKey((k << 6) + Long.numberOfTrailingZeros(bits), row);
+                    bits &= bits - 1;
+                }
+            }
+        }
+    }
+
+    // Recompute the column heights, scanning down from the highest one until every column is found
+    private void updateTops() {
+        int highest = highestRow();
+        Arrays.fill(tops, height);
+
+        if (words == 1) {
+            long missingBits = lastWord;
+            for (int row = highest; row < height && missingBits != 0; row++) {
+                long found = rows[physical(row)] & missingBits;
+                missingBits &= ~found;
+                while (found != 0) {
+                    tops[Long.numberOfTrailingZeros(found)] = row;
+                    found &= found - 1;
+                }
+            }
+            return;
+        }
+
+        int remaining = width;
+        for (int k = 0; k < words; k++) {
+            missing[k] = k == words - 1 ? lastWord : -1L;
+        }
+        for (int row = highest; row < height && remaining > 0; row++) {
+            int base = physical(row) * words;
+            for (int k = 0; k < words; k++) {
+                long found = rows[base + k] & missing[k];
+                missing[k] &= ~found;
+                while (found != 0) {
+                    tops[(k << 6) + Long.numberOfTrailingZeros(found)] = row;
+                    found &= found - 1;
+                    remaining--;
+                }
+            }
+        }
+    }
+
+    // Copy another board of the same size
+    public void copyFrom(Board other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("board size mismatch");
+        }
+        System.arraycopy(other.rows, 0, rows, 0, rows.length);
+        System.arraycopy(other.colors, 0, colors, 0, colors.length);
+        System.arraycopy(other.tops, 0, tops, 0, width);
+        System.arraycopy(other.filled, 0, filled, 0, width);
+        System.arraycopy(other.rowCounts, 0, rowCounts, 0, height);
+        head = other.head;
+        hash = other.hash;
+        hashStale = other.hashStale;
+        version++;
+    }
+
+    // Copy the colour plane out in logical row order, e.g. into a snapshot
+    public void copyColorsTo(byte[] colors) {
+        int wrapped = height - head;
+        System.arraycopy(this.colors, head * width, colors, 0, wrapped * width);
+        System.arraycopy(this.colors, 0, colors, wrapped * width, head * width);
+    }
+
+    // Fill or empty (colour 0) one cell directly, e.g. to build fixtures or puzzles
+    public void setCell(int col, int row, byte colorId) {
+        int p = physical(row);
+        boolean wasFilled = colors[p * width + col] != 0;
+        if (wasFilled != (colorId != 0)) {
+            int change = wasFilled ? -1 : 1;
+            filled[col] += change;
+            rowCounts[p] += change;
+            if (!hashStale) {
+                hash ^= cellKey(col, row);
+            }
+        }
+        if (colorId != 0) {
+            rows[p * words + (col >>> 6)] |= 1L << col;
+            tops[col] = Math.min(tops[col], row);
+        } else {
+            rows[p * words + (col >>> 6)] &= ~(1L << col);
+            Arrays.fill(tops, 0);
+            updateTops();
+        }
+        colors[p * width + col] = colorId;
+        version++;
+    }
+
+    // Fill a whole row except one hole (-1 for none), e.g. to build fixtures or puzzles
+    public void fillRow(int row, int hole, byte colorId) {
+        for (int col = 0; col < width; col++) {
+            setCell(col, row, col == hole ? 0 : colorId);
+        }
+    }
+
+    // Write the stack as one byte per cell (1 = filled), row by row from the top, starting at offset
+    public void copyOccupancyTo(byte[] cells, int offset) {
+        for (int row = 0; row < height; row++) {
+            int base = physical(row) * words;
+            for (int col = 0; col < width; col++) {
+                cells[offset++] = (byte) ((rows[base + (col >>> 6)] >>> col) & 1);
+            }
+        }
+    }
+
+    public boolean isFilled(int col, int row) {
+        return (rows[physical(row) * words + (col >>> 6)] & (1L << col)) != 0;
+    }
+
+    public byte getColor(int col, int row) {
+        return colors[physical(row) * width + col];
+    }
+
+    // Topmost filled row of a column, or height if it is empty
+    public int getColumnTop(int col) {
+        return tops[col];
+    }
+
+    // Height of a column's stack, counting from the floor up to its topmost block
+    public int getColumnHeight(int col) {
+        return height - tops[col];
+    }
+
+    // Empty cells below the topmost block of a column
+    public int getHoles(int col) {
+        return height - tops[col] - filled[col];
+    }
+
+    // Filled cells in a row
+    public int getRowCount(int row) {
+        return rowCounts[physical(row)];
+    }
+
+    // Zobrist hash of the stack: boards of the same size with the same filled cells hash alike,
+    // whatever moves built them
+    public long getHash() {
+        if (hashStale) {
+            rehash();
+        }
+        return hash;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,214 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Draws the board area (locked stack, falling piece and ghost) from a snapshot, for whichever component
+// hosts it. Locked blocks live in a persistent back buffer that only changes when the stack does.
+// Boards taller than the viewport scroll to follow the falling piece; only the visible rows are drawn.
+public final class BoardRenderer {
+
+    // Pause overlay resources, built once rather than on every paint
+    private static final Color PAUSE_SHADE = new Color(0, 0, 0, 150);
+    private static final Font PAUSE_FONT = new Font("Arial", Font.BOLD, 24);
+
+    private final int blockSize;
+    private final int viewRows;
+
+    // Back buffer of the visible part of the stack, the board row at its top, and the colours each of
+    // its rows currently shows (-1 = unknown, forcing a redraw)
+    private BufferedImage stackImage;
+    private int bufferTop;
+    private int bufferWidth;
+    private byte[] drawnColors;
+    private long drawnVersion = -1;
+
+    public BoardRenderer(int blockSize, int viewRows) {
+        this.blockSize = blockSize;
+        this.viewRows = viewRows;
+    }
+
+    // Number of board rows visible at once
+    private int shownRows(GameSnapshot snapshot) {
+        return Math.min(viewRows, snapshot.getHeight());
+    }
+
+    // Board row shown at the top of the viewport. It keeps the falling piece in view and, when the
+    // board is tall, centres between the piece and where it will land.
+    public int viewTop(GameSnapshot snapshot) {
+        int shown = shownRows(snapshot);
+        int pieceY = snapshot.getPieceY();
+        int top = (pieceY + snapshot.getGhostY() + 4 - shown) / 2;
+        top = Math.max(pieceY + 4 - shown, Math.min(pieceY, top));
+        return Math.max(0, Math.min(snapshot.getHeight() - shown, top));
+    }
+
+    // Bring the back buffer up to date with a snapshot's stack, scrolling it if the viewport moved.
+    // Returns the changed viewport rows packed as (first << 16) | last, or -1 if nothing changed.
+    public int syncStack(GameSnapshot snapshot) {
+        if (stackImage == null) {
+            return -1;
+        }
+
+        int shown = shownRows(snapshot);
+        int top = viewTop(snapshot);
+        if (top != bufferTop) {
+            scroll(top - bufferTop, shown, snapshot.getWidth());
+            bufferTop = top;
+        } else if (snapshot.getBoardVersion() == drawnVersion) {
+            return -1;
+        }
+
+        int first = shown;
+        int last = -1;
+        Graphics2D g2d = stackImage.createGraphics();
+        TileAtlas tiles = TileAtlas.get(g2d.getDeviceConfiguration(), blockSize);
+        for (int slot = 0; slot < shown; slot++) {
+            if (syncRow(g2d, tiles, snapshot, slot)) {
+                first = Math.min(first, slot);
+                last = slot;
+            }
+        }
+        g2d.dispose();
+        drawnVersion = snapshot.getBoardVersion();
+
+        return last < 0 ? -1 : (first << 16) | last;
+    }
+
+    // Shift the back buffer by the given number of rows, keeping what is still visible
+    private void scroll(int delta, int shown, int width) {
+        int distance = Math.abs(delta);
+        if (distance >= shown) {
+            Arrays.fill(drawnColors, (byte) -1);
+            return;
+        }
+
+        Graphics2D g2d = stackImage.createGraphics();
+        int kept = shown - distance;
+        if (delta > 0) {
+            g2d.copyArea(0, distance * blockSize, width * blockSize, kept * blockSize, 0, -distance * blockSize);
+            System.arraycopy(drawnColors, distance * width, drawnColors, 0, kept * width);
+            Arrays.fill(drawnColors, kept * width, shown * width, (byte) -1);
+        } else {
+            g2d.copyArea(0, 0, width * blockSize, kept * blockSize, 0, distance * blockSize);
+            System.arraycopy(drawnColors, 0, drawnColors, distance * width, kept * width);
+            Arrays.fill(drawnColors, 0, distance * width, (byte) -1);
+        }
+        g2d.dispose();
+    }
+
+    // Redraw one viewport row if the snapshot no longer matches it; true if it changed
+    private boolean syncRow(Graphics2D g2d, TileAtlas tiles, GameSnapshot snapshot, int slot) {
+        int width = snapshot.getWidth();
+        int row = bufferTop + slot;
+        boolean changed = false;
+        for (int col = 0; col < width && !changed; col++) {
+            changed = snapshot.getColor(col, row) != drawnColors[slot * width + col];
+        }
+        if (!changed) {
+            return false;
+        }
+
+        g2d.setColor(Color.BLACK);
+        g2d.fillRect(0, slot * blockSize, width * blockSize, blockSize);
+        for (int col = 0; col < width; col++) {
+            byte colorId = snapshot.getColor(col, row);
+            drawnColors[slot * width + col] = colorId;
+            if (colorId != 0) {
+                tiles.draw(g2d, TileAtlas.Style.BLOCK, colorId, col * blockSize, slot * blockSize);
+            }
+        }
+        return true;
+    }
+
+    // Paint a snapshot of the board area with its top-left corner at (ox, oy)
+    public void paint(Graphics2D g2d, GameSnapshot snapshot, int ox, int oy) {
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        TileAtlas tiles = TileAtlas.get(g2d.getDeviceConfiguration(), blockSize);
+        int shown = shownRows(snapshot);
+
+        // Draw the board: the back buffer covers the whole viewport
+        if (stackImage == null || bufferWidth != snapshot.getWidth()) {
+            bufferWidth = snapshot.getWidth();
+            stackImage = g2d.getDeviceConfiguration().createCompatibleImage(
+                    bufferWidth * blockSize, shown * blockSize, Transparency.OPAQUE);
+            Graphics2D stack = stackImage.createGraphics();
+            stack.setColor(Color.BLACK);
+            stack.fillRect(0, 0, stackImage.getWidth(), stackImage.getHeight());
+            stack.dispose();
+            drawnColors = new byte[shown * bufferWidth];
+            bufferTop = viewTop(snapshot);
+            drawnVersion = -1;
+        }
+        syncStack(snapshot);
+        g2d.drawImage(stackImage, ox, oy, null);
+
+        // Draw the current piece
+        Tetromino currentPiece = snapshot.getCurrentPiece();
+        if (currentPiece != null) {
+            int rotation = snapshot.getRotation();
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    if (currentPiece.isFilled(rotation, i, j)) {
+                        int x = snapshot.getPieceX() + j;
+                        int slot = snapshot.getPieceY() + i - bufferTop;
+                        if (slot >= 0 && slot < shown) { // Only draw visible blocks
+                            tiles.draw(g2d, TileAtlas.Style.BLOCK, currentPiece.colorId,
+                                    ox + x * blockSize, oy + slot * blockSize);
+                        }
+                    }
+                }
+            }
+
+            // Draw ghost piece (preview of where the piece will land)
+            drawGhostPiece(g2d, snapshot, ox, oy);
+        }
+    }
+
+    void drawGhostPiece(Graphics2D g2d, GameSnapshot snapshot, int ox, int oy) {
+        Tetromino ghost = snapshot.getCurrentPiece();
+        TileAtlas tiles = TileAtlas.get(g2d.getDeviceConfiguration(), blockSize);
+        int rotation = snapshot.getRotation();
+        int pieceX = snapshot.getPieceX();
+        int shown = shownRows(snapshot);
+
+        // Where the ghost piece lands was worked out when the snapshot was taken
+        int ghostY = snapshot.getGhostY();
+        int drop = ghostY - snapshot.getPieceY();
+
+        // Draw ghost piece (semi-transparent outline). It never overlaps the stack, so only
+        // cells it shares with the falling piece need real blending.
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (ghost.isFilled(rotation, i, j)) {
+                    int x = pieceX + j;
+                    int slot = ghostY + i - bufferTop;
+
+                    if (slot >= 0 && slot < shown) { // Only draw visible blocks
+                        boolean overPiece = i - drop >= 0 && ghost.isFilled(rotation, i - drop, j);
+                        tiles.draw(g2d, overPiece ? TileAtlas.Style.GHOST : TileAtlas.Style.GHOST_ON_EMPTY,
+                                ghost.colorId, ox + x * blockSize, oy + slot * blockSize);
+                    }
+                }
+            }
+        }
+    }
+
+    // Shade the given area and print PAUSED in the middle of it
+    public static void paintPauseOverlay(Graphics2D g2d, int width, int height) {
+        g2d.setColor(PAUSE_SHADE);
+        g2d.fillRect(0, 0, width, height);
+
+        g2d.setColor(Color.WHITE);
+        g2d.setFont(PAUSE_FONT);
+        String pauseText = "PAUSED";
+        FontMetrics fm = g2d.getFontMetrics();
+        g2d.drawString(pauseText,
+                (width - fm.stringWidth(pauseText)) / 2,
+                height / 2);
+    }
+}
@@ -0,0 +1,72 @@
+// A computer player: picks a placement for the engine's current position and plays it through the same
+// inputs a person would use.
+public interface Bot {
+
+    // Best placement for the engine's current position, packed as (hold << 16) | (rotation << 8) | (x + 8),
+    // or -1 if no placement is possible
+    int chooseMove(GameEngine engine);
+
+    // Where play() can drop a piece from, so bots only score placements it can carry out: starting at
+    // (rotation, x, y) it turns clockwise, kicks and all, then slides along the row the turns left it on
+    // as far as the stack lets it. For 0 to 3 turns, reach holds that row and the leftmost and rightmost
+    // columns at reach[3 * turns], [3 * turns + 1] and [3 * turns + 2]; once a turn is blocked the
+    // columns are left > right, an empty range.
+    static void reach(Board board, Tetromino piece, int rotation, int x, int y, int[] reach) {
+        boolean blocked = !board.canPlace(piece, rotation, x, y);
+        for (int turns = 0; turns < 4; turns++) {
+            if (turns > 0 && !blocked) {
+                int kick = GameEngine.rotation(board, piece, rotation, x, y);
+                if (kick < 0) {
+                    blocked = true;
+                } else {
+                    rotation = (rotation + 1) & 3;
+                    x += GameEngine.kickX(kick);
+                    y += GameEngine.kickY(kick);
+                }
+            }
+            int left = x;
+            int right = x - 1;
+            if (!blocked) {
+                right = x;
+                while (board.canPlace(piece, rotation, left - 1, y)) {
+                    left--;
+                }
+                while (board.canPlace(piece, rotation, right + 1, y)) {
+                    right++;
+                }
+            }
+            reach[3 * turns] = y;
+            reach[3 * turns + 1] = left;
+            reach[3 * turns + 2] = right;
+        }
+    }
+
+    // Choose a placement and play it through the engine's inputs: hold, rotate, slide, drop.
+    // Returns false if there was nothing to play.
+    default boolean play(GameEngine engine) {
+        if (engine.isGameOver()) {
+            return false;
+        }
+        int move = chooseMove(engine);
+        if (move < 0) {
+            engine.apply(GameEngine.Input.DROP);
+            return true;
+        }
+
+        if ((move >>> 16) != 0) {
+            engine.apply(GameEngine.Input.HOLD);
+        }
+        int rotation = (move >>> 8) & 0xFF;
+        int targetX = (move & 0xFF) - 8;
+        while (engine.getRotation() != rotation && engine.apply(GameEngine.Input.ROTATE)) {
+            // Keep turning until the target rotation or a blocked turn
+        }
+        GameEngine.Input direction = targetX < engine.getPieceX()
+                ? GameEngine.Input.LEFT : GameEngine.Input.RIGHT;
+        while (engine.getPieceX() != targetX && engine.apply(direction)) {
+            // Keep sliding until the target column or a wall is reached
+        }
+        engine.apply(GameEngine.Input.DROP);
+        return true;
+    }
+}
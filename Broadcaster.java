@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Streams one live game to any number of spectators, e.g. for a streamed event. Every snapshot the game
+// publishes is encoded once, as a frame appended to one direct buffer shared by all connections. Each
+// spectator is written its unsent part of that buffer straight from there, through read-only views of
+// it: nothing is copied or encoded per spectator, and a gathering write covers frames that wrap around
+// the end of the buffer.
+// A frame holds the score, the piece, hold and preview, and the stack rows changed since the previous
+// frame (StackDelta), so a lock, a line clear, a hold or a new next piece costs a few dozen bytes. After
+// every KEYFRAME_BYTES of stream comes a keyframe with the whole stack, and a new spectator starts at the
+// latest one. A spectator MAX_BACKLOG behind (its socket not draining) isn't buffered for: it finishes
+// the frame it is on and skips to the latest keyframe (keyframe catch-up). One stuck in the middle of a
+// frame until the game thread could be writing over what it has yet to send is disconnected instead.
+// One selector thread does all the writing; the game's thread only encodes frames and wakes it.
+//
+// Protocol: frames (length of the rest: u16, type: u8, payload), big-endian, server to spectator only.
+//   KEYFRAME: width (u16), height (u16), then as DELTA; the stack is whole, every other row empty
+//   DELTA:    score (i32), lines (i32), level (u16), piece (u8), rotation (u8), x (i16), y (i16),
+//             ghost y (i16), held (u8, piece ordinal + 1, 0 = none), flags (u8, 1 = game over),
+//             preview depth (u8) and as many piece ordinals, changed stack rows (see StackDelta)
+// Usage: java Tetris --broadcast PORT [game options]; watch with java Tetris --spectate HOST [--port P]
+public final class Broadcaster implements Runnable {
+
+    static final int DEFAULT_PORT = GameServer.DEFAULT_PORT + 2;
+
+    static final byte KEYFRAME = 1;
+    static final byte DELTA = 2;
+
+    // The shared stream buffer, and how far apart keyframes and how far behind a spectator may get
+    // within it before it is caught up
+    private static final int BUFFER = 4 << 20;
+    private static final int KEYFRAME_BYTES = 64 << 10;
+    private static final int MAX_BACKLOG = 256 << 10;
+    // What the kernel may hold for each spectator; the rest of a backlog stays in the shared buffer
+    private static final int SOCKET_BUFFER = 64 << 10;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final ByteBuffer stream = ByteBuffer.allocateDirect(BUFFER);
+    // What spectators' views are cut from, and what the selector reads frame lengths from
+    private final ByteBuffer shared = stream.asReadOnlyBuffer();
+
+    // Game thread: the frame being encoded, the stack as the stream has it, and the last snapshot sent
+    private ByteBuffer frame;
+    private StackDelta delta;
+    private byte[] colors;
+    private GameSnapshot previous;
+    private long written;
+    private long frames;
+
+    // Bytes of stream complete so far, and where the latest keyframe starts; offsets count from the
+    // start of the stream, which lives in the buffer at offset % BUFFER
+    private volatile long produced;
+    private volatile long lastKeyframe;
+    // Largest frame there can be: while encoding, the game thread may be writing up to this far past
+    // produced, over the stream BUFFER before it
+    private volatile int maxFrame;
+    private final AtomicBoolean wakePending = new AtomicBoolean();
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean running;
+    // Selector thread only
+    private final List<Connection> spectators = new ArrayList<>();
+    private final ByteBuffer discard = ByteBuffer.allocate(256);
+    private long bytesSent;
+    private long writes;
+    private long catchUps;
+    private volatile int watching;
+
+    public Broadcaster(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this, "broadcaster");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Connection c : spectators) {
+            c.channel.close();
+        }
+        server.close();
+        selector.close();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    // Encode one snapshot as the next frame and wake the selector to send it; call only from the thread
+    // driving the game, with snapshots in the order they were taken
+    public void publish(GameSnapshot snapshot) {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        boolean keyframe = previous == null || written - lastKeyframe >= KEYFRAME_BYTES
+                || width != previous.getWidth() || height != previous.getHeight();
+        if (delta == null || colors.length != width * height) {
+            delta = new StackDelta(width, height);
+            colors = new byte[width * height];
+            frame = ByteBuffer.allocate(32 + snapshot.getPreviewDepth() + delta.maxBytes());
+            maxFrame = Math.max(maxFrame, frame.capacity());
+        }
+
+        frame.clear();
+        frame.putShort((short) 0);
+        frame.put(keyframe ? KEYFRAME : DELTA);
+        if (keyframe) {
+            frame.putShort((short) width).putShort((short) height);
+            delta.forget();
+        }
+        frame.putInt(snapshot.getScore());
+        frame.putInt(snapshot.getLinesCleared());
+        frame.putShort((short) snapshot.getLevel());
+        frame.put((byte) snapshot.getCurrentPiece().ordinal());
+        frame.put((byte) snapshot.getRotation());
+        frame.putShort((short) snapshot.getPieceX());
+        frame.putShort((short) snapshot.getPieceY());
+        frame.putShort((short) snapshot.getGhostY());
+        Tetromino held = snapshot.getHeldPiece();
+        frame.put((byte) (held == null ? 0 : held.ordinal() + 1));
+        frame.put((byte) (snapshot.isGameOver() ? 1 : 0));
+        frame.put((byte) snapshot.getPreviewDepth());
+        for (int i = 0; i < snapshot.getPreviewDepth(); i++) {
+            frame.put((byte) snapshot.getPreview(i).ordinal());
+        }
+        if (keyframe || snapshot.getBoardVersion() != previous.getBoardVersion()) {
+            snapshot.copyColorsTo(colors);
+            delta.write(colors, frame);
+        } else {
+            frame.putShort((short) 0);
+        }
+        frame.putShort(0, (short) (frame.position() - 2));
+        frame.flip();
+
+        // Append it to the stream, wrapping around the end of the buffer
+        int at = (int) (written % BUFFER);
+        int length = frame.remaining();
+        int first = Math.min(length, BUFFER - at);
+        stream.clear();
+        stream.position(at);
+        frame.limit(first);
+        stream.put(frame);
+        if (first < length) {
+            stream.clear();
+            frame.limit(length);
+            stream.put(frame);
+        }
+        if (keyframe) {
+            lastKeyframe = written;
+        }
+        written += length;
+        frames++;
+        produced = written;
+        previous = snapshot;
+        if (wakePending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                wakePending.set(false);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            // Spectators have nothing to say; reading only notices when they leave
+                            discard.clear();
+                            if (c.channel.read(discard) < 0) {
+                                throw new IOException("spectator left");
+                            }
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            c.blocked = false;
+                        }
+                    } catch (IOException e) {
+                        c.close();
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                long end = produced;
+                for (int i = spectators.size() - 1; i >= 0; i--) {
+                    Connection c = spectators.get(i);
+                    if (!c.closed && !c.blocked) {
+                        try {
+                            c.send(end);
+                        } catch (IOException e) {
+                            c.close();
+                        }
+                    }
+                    if (c.closed) {
+                        spectators.set(i, spectators.get(spectators.size() - 1));
+                        spectators.remove(spectators.size() - 1);
+                    }
+                }
+                watching = spectators.size();
+            }
+        } catch (IOException e) {
+            System.err.println("broadcast stopped: " + e);
+        }
+    }
+
+    // A new spectator starts at the latest keyframe
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.socket().setSendBufferSize(SOCKET_BUFFER);
+        Connection c = new Connection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+        c.sent = lastKeyframe;
+        c.frameEnd = c.sent;
+        spectators.add(c);
+    }
+
+    // Length of the frame starting at a stream offset, read from the shared buffer
+    private int frameLength(long offset) {
+        int hi = shared.get((int) (offset % BUFFER)) & 0xFF;
+        int lo = shared.get((int) ((offset + 1) % BUFFER)) & 0xFF;
+        return 2 + (hi << 8 | lo);
+    }
+
+    // Spectators connected as of the selector's last pass
+    public int getSpectators() {
+        return watching;
+    }
+
+    // Frames encoded so far; the counters below are the selector thread's, to read once closed
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public long getWrites() {
+        return writes;
+    }
+
+    // Times a spectator skipped to a keyframe after falling behind
+    public long getCatchUps() {
+        return catchUps;
+    }
+
+    // CPU time the selector thread has used, where the JVM measures it
+    public long getCpuNanos() {
+        return THREADS.isThreadCpuTimeSupported() ? THREADS.getThreadCpuTime(thread.getId()) : 0;
+    }
+
+    // One spectator: how far into the stream it has been sent, and where the frame it is in ends
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        // Two read-only views of the shared buffer, for the stretch up to its end and the part wrapped past it
+        final ByteBuffer[] views = {shared.duplicate(), shared.duplicate()};
+        long sent;
+        long frameEnd;
+        // Waiting for room in the socket
+        boolean blocked;
+        boolean closed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // Write what the socket takes of the stream up to end
+        void send(long end) throws IOException {
+            while (true) {
+                if (end - sent > MAX_BACKLOG && sent == frameEnd) {
+                    // Too far behind: skip to the latest keyframe instead of sending everything since
+                    long keyframe = lastKeyframe;
+                    if (keyframe - sent > 0) {
+                        sent = keyframe;
+                        frameEnd = keyframe;
+                        catchUps++;
+                    }
+                }
+                if (overwritten(sent)) {
+                    throw new IOException("spectator stalled mid-frame for a whole buffer");
+                }
+                // Behind and in the middle of a frame: finish it, then catch up
+                long upTo = end - sent > MAX_BACKLOG ? frameEnd : end;
+                long length = upTo - sent;
+                if (length <= 0) {
+                    break;
+                }
+
+                int from = (int) (sent % BUFFER);
+                int first = (int) Math.min(length, BUFFER - from);
+                views[0].clear();
+                views[0].position(from);
+                views[0].limit(from + first);
+                int count = 1;
+                if (first < length) {
+                    views[1].clear();
+                    views[1].limit((int) (length - first));
+                    count = 2;
+                }
+                long n = channel.write(views, 0, count);
+                // Frames published while the socket copied may have reached what it copied
+                if (overwritten(sent)) {
+                    throw new IOException("spectator stalled mid-frame for a whole buffer");
+                }
+                sent += n;
+                bytesSent += n;
+                writes++;
+                while (frameEnd - sent < 0) {
+                    frameEnd += frameLength(frameEnd);
+                }
+                if (sent != upTo) {
+                    blocked = true;
+                    break;
+                }
+                if (upTo == end) {
+                    break;
+                }
+            }
+            int ops = SelectionKey.OP_READ | (blocked ? SelectionKey.OP_WRITE : 0);
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        // Whether the stream from the given offset on may no longer be in the buffer as written: the game
+        // thread may be a whole frame past what it has published, and writes each byte BUFFER back
+        boolean overwritten(long offset) {
+            return produced - offset > BUFFER - maxFrame;
+        }
+
+        void close() {
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.locks.LockSupport;
+
+// Local fan-out benchmark for Broadcaster: one game played by the bot at a steady rate of changes, each
+// published to a broadcast watched by N spectators over loopback, for each N in turn. The spectators
+// all run on one selector thread here and decode the stream as a real one would. Reports the selector
+// thread's CPU per spectator (the cost of fan-out), what encoding a frame costs the game's thread, how
+// many times a spectator skipped to a keyframe, and whether every spectator ended on the game's exact
+// final state. --slow K of the spectators don't read for the first half of the run, to exercise the
+// keyframe catch-up (it takes a rate high enough to back up MAX_BACKLOG in that time).
+// Usage: java Tetris --fanout [--spectators 1,10,100,500] [--seconds S] [--rate CHANGES_PER_SECOND] [--slow K]
+public final class FanOutBenchmark {
+
+    // Bytes a slow spectator's socket buffers, so that it backs up into the broadcaster soon
+    private static final int SLOW_RECEIVE_BUFFER = 4096;
+    private static final long DRAIN_NANOS = 2_000_000_000L;
+
+    public static void run(String[] args) throws IOException {
+        int[] counts = {1, 10, 100, 500};
+        int seconds = 5;
+        double rate = 60;
+        int slow = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--spectators":
+                    String[] parts = args[++i].split(",");
+                    counts = new int[parts.length];
+                    for (int k = 0; k < parts.length; k++) {
+                        counts[k] = Integer.parseInt(parts[k].trim());
+                    }
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--slow":
+                    slow = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        System.out.printf("%10s %9s %9s %14s %16s %12s %9s %9s%n", "spectators", "frames/s", "hub CPU",
+                "us CPU/spec/s", "ns/frame/spec", "encode ns", "catch-ups", "in sync");
+        for (int count : counts) {
+            measure(count, Math.min(slow, count), seconds, rate);
+        }
+    }
+
+    private static void measure(int count, int slow, int seconds, double rate) throws IOException {
+        Broadcaster hub = new Broadcaster(0);
+        hub.start();
+        GameEngine engine = new GameEngine(1);
+        engine.setGravity(GameEngine.Gravity.GUIDELINE);
+        StatePublisher publisher = new StatePublisher(engine);
+        hub.publish(publisher.publish());
+
+        Selector selector = Selector.open();
+        Watcher[] watchers = new Watcher[count];
+        for (int i = 0; i < count; i++) {
+            SocketChannel channel = SocketChannel.open();
+            if (i < slow) {
+                channel.socket().setReceiveBufferSize(SLOW_RECEIVE_BUFFER);
+            }
+            channel.connect(new InetSocketAddress("127.0.0.1", hub.getPort()));
+            channel.configureBlocking(false);
+            watchers[i] = new Watcher(channel);
+            watchers[i].key = channel.register(selector, i < slow ? 0 : SelectionKey.OP_READ, watchers[i]);
+        }
+        while (hub.getSpectators() < count) {
+            Thread.yield();
+        }
+
+        // The game's thread: one change (a gravity step, or a whole placement every 8th) per period
+        Bot bot = new HeuristicBot(HeuristicBot.Weights.DEFAULT);
+        long[] encodeNanos = new long[1];
+        Thread producer = new Thread(() -> {
+            long period = (long) (1e9 / rate);
+            long due = System.nanoTime();
+            for (long k = 0; !Thread.currentThread().isInterrupted(); k++) {
+                if (k % 8 == 0) {
+                    bot.play(engine);
+                } else {
+                    engine.step();
+                }
+                if (engine.isGameOver()) {
+                    engine.reset();
+                }
+                GameSnapshot snapshot = publisher.publish();
+                long start = System.nanoTime();
+                hub.publish(snapshot);
+                encodeNanos[0] += System.nanoTime() - start;
+                due += period;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+        }, "fanout-game");
+
+        long cpuBefore = hub.getCpuNanos();
+        long start = System.nanoTime();
+        long half = start + seconds * 500_000_000L;
+        long end = start + seconds * 1_000_000_000L;
+        producer.start();
+        boolean slowReading = slow == 0;
+        while (System.nanoTime() - end < 0) {
+            if (!slowReading && System.nanoTime() - half >= 0) {
+                for (int i = 0; i < slow; i++) {
+                    watchers[i].key.interestOps(SelectionKey.OP_READ);
+                }
+                slowReading = true;
+            }
+            receive(selector, 10);
+        }
+        producer.interrupt();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long frames = hub.getFrames();
+
+        // Let everyone catch up with the final state, then check they have it exactly
+        GameSnapshot last = publisher.get();
+        byte[] plane = new byte[last.getWidth() * last.getHeight()];
+        int inSync = 0;
+        long drainEnd = System.nanoTime() + DRAIN_NANOS;
+        while (System.nanoTime() - drainEnd < 0) {
+            inSync = 0;
+            for (Watcher w : watchers) {
+                inSync += w.stream.matches(last, plane) ? 1 : 0;
+            }
+            if (inSync == count) {
+                break;
+            }
+            receive(selector, 10);
+        }
+        long cpu = hub.getCpuNanos() - cpuBefore;
+        hub.close();
+        for (Watcher w : watchers) {
+            w.channel.close();
+        }
+        selector.close();
+
+        System.out.printf("%10d %9.0f %8.1f%% %14.1f %16.1f %12.0f %9d %6d/%d%n", count, frames / elapsed,
+                100.0 * cpu / 1e9 / elapsed, cpu / 1e3 / elapsed / count, (double) cpu / frames / count,
+                (double) encodeNanos[0] / frames, hub.getCatchUps(), inSync, count);
+    }
+
+    private static void receive(Selector selector, long timeoutMillis) throws IOException {
+        selector.select(timeoutMillis);
+        for (SelectionKey key : selector.selectedKeys()) {
+            Watcher w = (Watcher) key.attachment();
+            if (w.channel.read(w.in) < 0) {
+                key.cancel();
+                continue;
+            }
+            w.in.flip();
+            w.stream.read(w.in);
+            w.in.compact();
+        }
+        selector.selectedKeys().clear();
+    }
+
+    // One spectator, decoding the stream into its own copy of the game
+    private static final class Watcher {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final Spectator.Stream stream = new Spectator.Stream();
+        SelectionKey key;
+
+        Watcher(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
@@ -0,0 +1,710 @@
+import java.nio.ByteBuffer;
+
+// Swing-free game rules: gravity, locking, clearing, scoring and hold.
+// The UI is one consumer; headless runs drive it directly through apply() and step().
+public class GameEngine {
+
+    public enum Input { LEFT, RIGHT, DOWN, ROTATE, DROP, HOLD }
+
+    // How the piece falls on its own, driven by advance(). CLASSIC steps a row every getDropDelay()
+    // milliseconds and locks as soon as a step (or a soft drop) is blocked. GUIDELINE follows the modern
+    // curve from one row a second at level 1 to 20G (20 rows per 60 Hz frame) at level 20, and TWENTY_G
+    // is 20G throughout; both hold a landed piece for LOCK_DELAY_NANOS before it locks.
+    public enum Gravity { CLASSIC, GUIDELINE, TWENTY_G }
+
+    // Callbacks for whoever presents the game; every method defaults to doing nothing
+    public interface Listener {
+        default void pieceMoved() {}
+        default void stackChanged() {}
+        default void scoreChanged() {}
+        default void nextChanged() {}
+        default void holdChanged() {}
+        default void gameOver() {}
+
+        // Every change of state, in order, for recorders: an input that took effect, a gravity step, a restart
+        default void inputApplied(Input input) {}
+        default void stepped() {}
+        default void restarted() {}
+        // Timed gravity: the piece fell some rows, or sat on the stack until its lock delay ran out
+        default void fell(int rows) {}
+        default void lockExpired() {}
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {};
+
+    // Number of upcoming pieces shown unless configured otherwise
+    public static final int DEFAULT_PREVIEW = 5;
+
+    // Horizontal offsets tried when a rotation is blocked
+    private static final int[] KICK_X = {-1, 1, -2, 2};
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // Timed gravity counts in 1/ROW of a row, and its progress in those units times nanoseconds per
+    // second, so the fraction of a row carries over exactly from one advance() to the next
+    private static final long ROW = 1 << 16;
+    private static final long ROW_NANOS = ROW * NANOS_PER_SECOND;
+    // 20G: twenty rows per frame at 60 frames a second, as 1/ROW rows per second
+    private static final long MAX_RATE = 20 * 60 * ROW;
+    // How long a landed piece can sit before it locks, and how many moves or turns on the stack
+    // restart that time before only reaching a new lowest row does
+    public static final long LOCK_DELAY_NANOS = 500_000_000L;
+    public static final int MAX_LOCK_RESETS = 15;
+    // Colour id of garbage rows, after the seven pieces'
+    public static final byte GARBAGE_COLOR = 8;
+
+    private final Board board;
+    private final PreviewQueue preview;
+    private Listener listener = NO_LISTENER;
+
+    // The active piece is just (type, rotation, x, y)
+    private Tetromino currentPiece;
+    private int rotation;
+    private int pieceX, pieceY;
+    private Tetromino heldPiece;
+    private boolean canHold;
+
+    // Last computed landing row and the piece, rotation, column and stack version it holds for.
+    // It stays valid while the piece moves down between the row it was computed from and the landing row.
+    private Tetromino ghostPiece;
+    private int ghostRotation, ghostX, ghostFromY, ghostY;
+    private long ghostVersion = -1;
+
+    private int score;
+    private int level;
+    private int linesCleared;
+    private long piecesPlaced;
+    private boolean gameOver;
+    // While an input, step or lock is applied, a game over it causes is held back until the event for
+    // the change itself has gone out, so a listener that restarts from gameOver() can't be recorded
+    // restarting before the move that ended the game
+    private boolean deferGameOver;
+    private boolean gameOverPending;
+
+    private Gravity gravity = Gravity.CLASSIC;
+    // Time toward the next CLASSIC step in nanoseconds, or toward the next row of timed gravity in
+    // row-nanoseconds (see ROW_NANOS)
+    private long gravityProgress;
+    // Timed gravity: time the piece has been resting, lock resets it has used, and the lowest row it reached
+    private long lockNanos;
+    private int lockResets;
+    private int lowestY;
+
+    // Garbage an opponent sent, waiting to rise under the stack at the next lock that clears nothing:
+    // the hole column of each row, oldest first
+    private final int[] garbage;
+    private int garbageRows;
+
+    public GameEngine(long seed) {
+        this(PieceGenerator.create(PieceGenerator.Mode.BAG, seed), DEFAULT_PREVIEW);
+    }
+
+    public GameEngine(PieceGenerator generator, int previewDepth) {
+        this(generator, previewDepth, Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+    }
+
+    public GameEngine(PieceGenerator generator, int previewDepth, int width, int height) {
+        this.board = new Board(width, height);
+        this.garbage = new int[height];
+        this.preview = new PreviewQueue(generator, previewDepth);
+        reset();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener != null ? listener : NO_LISTENER;
+    }
+
+    public void setGravity(Gravity gravity) {
+        this.gravity = gravity;
+        gravityProgress = 0;
+    }
+
+    public Gravity getGravity() {
+        return gravity;
+    }
+
+    // Queue rows of garbage with a hole in the given column; more than the board's height are dropped,
+    // as that many would top out anyway
+    public void addGarbage(int rows, int hole) {
+        while (rows-- > 0 && garbageRows < garbage.length) {
+            garbage[garbageRows++] = hole;
+        }
+    }
+
+    // Take back up to the given number of waiting garbage rows, newest first; returns how many went
+    public int cancelGarbage(int rows) {
+        int cancelled = Math.min(rows, garbageRows);
+        garbageRows -= cancelled;
+        return cancelled;
+    }
+
+    public int getPendingGarbage() {
+        return garbageRows;
+    }
+
+    public void reset() {
+        board.clear();
+        gravityProgress = 0;
+        garbageRows = 0;
+
+        spawnPiece(preview.take());
+        heldPiece = null;
+        canHold = true;
+
+        score = 0;
+        level = 1;
+        linesCleared = 0;
+        piecesPlaced = 0;
+        gameOver = false;
+        gameOverPending = false;
+        listener.restarted();
+    }
+
+    // Apply one player input; false if it had no effect
+    public boolean apply(Input input) {
+        if (gameOver) {
+            return false;
+        }
+        deferGameOver = true;
+        boolean applied;
+        switch (input) {
+            case LEFT:
+                applied = moved(moveLeft());
+                break;
+            case RIGHT:
+                applied = moved(moveRight());
+                break;
+            case DOWN:
+                // With a lock delay, soft drop on the stack leaves the piece to the delay
+                applied = gravity == Gravity.CLASSIC || canFall() ? moveDown() : false;
+                break;
+            case ROTATE:
+                applied = moved(rotate());
+                break;
+            case DROP:
+                hardDrop();
+                applied = true;
+                break;
+            case HOLD:
+                applied = holdPiece();
+                break;
+            default:
+                applied = false;
+                break;
+        }
+        if (applied) {
+            listener.inputApplied(input);
+        }
+        reportGameOver();
+        return applied;
+    }
+
+    // One gravity tick
+    public void step() {
+        if (!gameOver) {
+            deferGameOver = true;
+            moveDown();
+            listener.stepped();
+            reportGameOver();
+        }
+    }
+
+    // Let time pass: gravity for that long, and with a lock delay, locking once the piece has rested long
+    // enough. Falls and locks come out as fell() and lockExpired(), so a recording can repeat them.
+    public void advance(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        if (gravity == Gravity.CLASSIC) {
+            gravityProgress += nanos;
+            long delay;
+            while (!gameOver && gravityProgress >= (delay = getDropDelay() * 1_000_000L)) {
+                gravityProgress -= delay;
+                step();
+            }
+            return;
+        }
+
+        // Time is spent in the order it passes: falling until the piece lands, then resting until it
+        // locks, with what is left over going to the next piece, however long it is
+        while (nanos > 0 && !gameOver) {
+            int rows = getGhostY() - pieceY;
+            if (rows > 0) {
+                long rate = getGravityRate();
+                long toLand = ((long) rows * ROW_NANOS - gravityProgress + rate - 1) / rate;
+                if (nanos < toLand) {
+                    gravityProgress += nanos * rate;
+                    int due = (int) (gravityProgress / ROW_NANOS);
+                    gravityProgress -= due * ROW_NANOS;
+                    if (due > 0) {
+                        fall(due);
+                        listener.fell(due);
+                    }
+                    return;
+                }
+                // Lands within this advance: rows owed beyond the landing row are not banked
+                nanos -= toLand;
+                gravityProgress = 0;
+                fall(rows);
+                listener.fell(rows);
+            }
+            long resting = Math.min(nanos, LOCK_DELAY_NANOS - lockNanos);
+            lockNanos += resting;
+            nanos -= resting;
+            if (lockNanos >= LOCK_DELAY_NANOS) {
+                deferGameOver = true;
+                expireLock();
+                listener.lockExpired();
+                if (reportGameOver()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // How long advance() can go before gravity or the lock delay changes anything, so whoever drives the
+    // engine knows when to come back; Long.MAX_VALUE once the game is over
+    public long getNanosUntilChange() {
+        if (gameOver) {
+            return Long.MAX_VALUE;
+        }
+        if (gravity == Gravity.CLASSIC) {
+            return Math.max(0, getDropDelay() * 1_000_000L - gravityProgress);
+        }
+        if (getGhostY() > pieceY) {
+            long rate = getGravityRate();
+            return (ROW_NANOS - gravityProgress + rate - 1) / rate;
+        }
+        return LOCK_DELAY_NANOS - lockNanos;
+    }
+
+    // Move the piece down some rows it can fall, as timed gravity does; called directly by replays
+    void fall(int rows) {
+        pieceY += rows;
+        reachedRow();
+        listener.pieceMoved();
+    }
+
+    // Lock the piece where it rests, as its lock delay running out does; called directly by replays
+    void expireLock() {
+        if (!gameOver) {
+            placePiece();
+        }
+    }
+
+    private boolean canFall() {
+        return board.canPlace(currentPiece, rotation, pieceX, pieceY + 1);
+    }
+
+    // A new lowest row gives the piece its full lock delay and lock resets back (step reset)
+    private void reachedRow() {
+        if (pieceY > lowestY) {
+            lowestY = pieceY;
+            lockNanos = 0;
+            lockResets = 0;
+        }
+    }
+
+    // After a move or turn: on a timed mode it restarts the lock delay while resets remain (move reset).
+    // Without one the resting time runs on, so a piece can't be kept up forever.
+    private boolean moved(boolean applied) {
+        if (applied && gravity != Gravity.CLASSIC) {
+            if (lockNanos > 0 && lockResets < MAX_LOCK_RESETS) {
+                lockNanos = 0;
+                lockResets++;
+            }
+        }
+        return applied;
+    }
+
+    public boolean moveLeft() {
+        if (board.canPlace(currentPiece, rotation, pieceX - 1, pieceY)) {
+            pieceX--;
+            listener.pieceMoved();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveRight() {
+        if (board.canPlace(currentPiece, rotation, pieceX + 1, pieceY)) {
+            pieceX++;
+            listener.pieceMoved();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveDown() {
+        if (canFall()) {
+            pieceY++;
+            reachedRow();
+            listener.pieceMoved();
+            return true;
+        }
+        placePiece();
+        return true;
+    }
+
+    public void hardDrop() {
+        // Move down as far as possible
+        int landingY = getGhostY();
+        int dropDistance = landingY - pieceY;
+        pieceY = landingY;
+
+        // Add points for hard drop
+        score += dropDistance * 2;
+        listener.scoreChanged();
+
+        placePiece();
+    }
+
+    public boolean rotate() {
+        int kick = rotation(board, currentPiece, rotation, pieceX, pieceY);
+        if (kick < 0) {
+            return false;
+        }
+        rotation = (rotation + 1) & 3;
+        pieceX += kickX(kick);
+        pieceY += kickY(kick);
+        listener.pieceMoved();
+        return true;
+    }
+
+    // Which offset a clockwise turn of the piece at (rotation, x, y) takes, or -1 if it is blocked:
+    // in place first, then each of KICK_X at the same row and one row up (for floor kicks).
+    // Shared with move generators such as Perft so they follow exactly the rules the game plays by.
+    static int rotation(Board board, Tetromino piece, int rotation, int x, int y) {
+        int rotated = (rotation + 1) & 3;
+        for (int kick = 0; kick <= 2 * KICK_X.length; kick++) {
+            if (board.canPlace(piece, rotated, x + kickX(kick), y + kickY(kick))) {
+                return kick;
+            }
+        }
+        return -1;
+    }
+
+    // Horizontal and vertical offset of a kick returned by rotation()
+    static int kickX(int kick) {
+        return kick == 0 ? 0 : KICK_X[(kick - 1) >> 1];
+    }
+
+    static int kickY(int kick) {
+        return kick == 0 ? 0 : -((kick - 1) & 1);
+    }
+
+    public boolean holdPiece() {
+        if (!canHold) {
+            return false;
+        }
+
+        if (heldPiece == null) {
+            heldPiece = currentPiece;
+            spawnPiece(preview.take());
+            listener.nextChanged();
+        } else {
+            Tetromino temp = currentPiece;
+
+            // Reset position of the new current piece
+            spawnPiece(heldPiece);
+            heldPiece = temp;
+        }
+
+        canHold = false;
+        listener.holdChanged();
+        listener.pieceMoved();
+        return true;
+    }
+
+    // Write the whole game state, e.g. as a replay keyframe, the piece generator's state included, so
+    // reading it back costs the same however far into the game it was taken
+    void writeState(ByteBuffer out) {
+        preview.writeState(out);
+        out.put((byte) currentPiece.ordinal());
+        out.put((byte) rotation);
+        Replay.writeVarint(out, Replay.zigzag(pieceX));
+        Replay.writeVarint(out, Replay.zigzag(pieceY));
+        out.put((byte) (heldPiece == null ? 0 : heldPiece.ordinal() + 1));
+        out.put((byte) ((canHold ? 1 : 0) | (gameOver ? 2 : 0)));
+        Replay.writeVarint(out, score);
+        Replay.writeVarint(out, linesCleared);
+        Replay.writeVarint(out, piecesPlaced);
+
+        // The stack from the top left, as runs of one colour: (run length, colour)
+        int width = board.getWidth();
+        int cells = width * board.getHeight();
+        int run = 0;
+        byte color = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            byte next = board.getColor(cell % width, cell / width);
+            if (next != color && run > 0) {
+                Replay.writeVarint(out, run);
+                out.put(color);
+                run = 0;
+            }
+            color = next;
+            run++;
+        }
+        Replay.writeVarint(out, run);
+        out.put(color);
+    }
+
+    // Load a state written by writeState into this engine, which must be set up the same way (generator
+    // mode, preview depth and board size)
+    void readState(ByteBuffer in) {
+        preview.readState(in);
+        currentPiece = Tetromino.TYPES[in.get()];
+        rotation = in.get();
+        pieceX = (int) Replay.unzigzag(Replay.readVarint(in));
+        pieceY = (int) Replay.unzigzag(Replay.readVarint(in));
+        int held = in.get();
+        heldPiece = held == 0 ? null : Tetromino.TYPES[held - 1];
+        int flags = in.get();
+        canHold = (flags & 1) != 0;
+        gameOver = (flags & 2) != 0;
+        score = (int) Replay.readVarint(in);
+        linesCleared = (int) Replay.readVarint(in);
+        piecesPlaced = Replay.readVarint(in);
+        level = (linesCleared / 10) + 1;
+
+        board.clear();
+        int width = board.getWidth();
+        int cells = width * board.getHeight();
+        for (int cell = 0; cell < cells; ) {
+            int run = (int) Replay.readVarint(in);
+            byte color = in.get();
+            for (int end = cell + run; cell < end; cell++) {
+                if (color != 0) {
+                    board.setCell(cell % width, cell / width, color);
+                }
+            }
+        }
+        ghostVersion = -1;
+        // Timing isn't part of the state: replays carry falls and locks as events of their own
+        gravityProgress = 0;
+        lowestY = pieceY;
+        lockNanos = 0;
+        lockResets = 0;
+        garbageRows = 0;
+    }
+
+    // The state with everything writeState leaves out, the timing of gravity and the lock delay and the
+    // garbage waiting to rise, so a game can be put back exactly as it was (versus rollback)
+    void writeSnapshot(ByteBuffer out) {
+        writeState(out);
+        out.putLong(gravityProgress);
+        out.putLong(lockNanos);
+        out.put((byte) lockResets);
+        Replay.writeVarint(out, Replay.zigzag(lowestY));
+        Replay.writeVarint(out, garbageRows);
+        for (int i = 0; i < garbageRows; i++) {
+            Replay.writeVarint(out, garbage[i]);
+        }
+    }
+
+    void readSnapshot(ByteBuffer in) {
+        readState(in);
+        gravityProgress = in.getLong();
+        lockNanos = in.getLong();
+        lockResets = in.get();
+        lowestY = (int) Replay.unzigzag(Replay.readVarint(in));
+        garbageRows = (int) Replay.readVarint(in);
+        for (int i = 0; i < garbageRows; i++) {
+            garbage[i] = (int) Replay.readVarint(in);
+        }
+    }
+
+    // Row the current piece would land on if dropped straight down
+    public int getGhostY() {
+        if (ghostPiece != currentPiece || ghostRotation != rotation || ghostX != pieceX
+                || ghostVersion != board.getVersion() || pieceY < ghostFromY || pieceY > ghostY) {
+            ghostPiece = currentPiece;
+            ghostRotation = rotation;
+            ghostX = pieceX;
+            ghostFromY = pieceY;
+            ghostVersion = board.getVersion();
+            ghostY = board.dropRow(currentPiece, rotation, pieceX, pieceY);
+        }
+        return ghostY;
+    }
+
+    // Put a piece of the given type at the spawn position
+    private void spawnPiece(Tetromino type) {
+        currentPiece = type;
+        rotation = 0;
+        pieceX = board.getWidth() / 2 - 2;
+        pieceY = 0;
+        lowestY = 0;
+        lockNanos = 0;
+        lockResets = 0;
+        if (gravity != Gravity.CLASSIC) {
+            gravityProgress = 0;
+        }
+    }
+
+    private void placePiece() {
+        // Check if we've reached the top of the board
+        if (!board.place(currentPiece, rotation, pieceX, pieceY)) {
+            endGame();
+            return;
+        }
+        piecesPlaced++;
+
+        // Check for completed lines; a lock that clears none lets waiting garbage rise
+        int lines = board.clearLines();
+        if (lines == 0 && garbageRows > 0) {
+            boolean fits = true;
+            for (int i = 0; i < garbageRows; i++) {
+                fits &= board.addGarbage(garbage[i], GARBAGE_COLOR);
+            }
+            garbageRows = 0;
+            if (!fits) {
+                listener.stackChanged();
+                endGame();
+                return;
+            }
+        }
+        listener.stackChanged();
+        if (lines > 0) {
+            updateScore(lines);
+        }
+
+        // Reset for next piece
+        spawnPiece(preview.take());
+        listener.nextChanged();
+        canHold = true;
+
+        // Check if the new piece can be placed at the starting position
+        if (!board.canPlace(currentPiece, rotation, pieceX, pieceY)) {
+            endGame();
+            return;
+        }
+
+        listener.pieceMoved();
+    }
+
+    private void endGame() {
+        gameOver = true;
+        if (deferGameOver) {
+            gameOverPending = true;
+        } else {
+            listener.gameOver();
+        }
+    }
+
+    // After the event for an input, step or lock: report the game over it caused, if any; true if it did
+    private boolean reportGameOver() {
+        deferGameOver = false;
+        if (!gameOverPending) {
+            return false;
+        }
+        gameOverPending = false;
+        listener.gameOver();
+        return true;
+    }
+
+    private void updateScore(int lines) {
+        int points;
+        switch (lines) {
+            case 1:
+                points = 100 * level;
+                break;
+            case 2:
+                points = 300 * level;
+                break;
+            case 3:
+                points = 500 * level;
+                break;
+            case 4:
+                points = 800 * level;
+                break;
+            default:
+                points = 0;
+        }
+
+        score += points;
+        linesCleared += lines;
+
+        // Update level every 10 lines
+        level = (linesCleared / 10) + 1;
+
+        listener.scoreChanged();
+    }
+
+    // Gravity delay for the current level, in milliseconds
+    public int getDropDelay() {
+        return Math.max(100, 500 - ((level - 1) * 50));
+    }
+
+    // Timed gravity for the current level, in 1/65536 rows per second
+    public long getGravityRate() {
+        if (gravity == Gravity.TWENTY_G) {
+            return MAX_RATE;
+        }
+        // Guideline curve: (0.8 - (level - 1) * 0.007)^(level - 1) seconds per row, up to 20G
+        int l = Math.min(level, 20) - 1;
+        double secondsPerRow = Math.pow(0.8 - l * 0.007, l);
+        return Math.min(MAX_RATE, Math.round(ROW / secondsPerRow));
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public Tetromino getCurrentPiece() {
+        return currentPiece;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getPieceX() {
+        return pieceX;
+    }
+
+    public int getPieceY() {
+        return pieceY;
+    }
+
+    public Tetromino getNextPiece() {
+        return preview.peek(0);
+    }
+
+    // The i-th upcoming piece (0 = next)
+    public Tetromino getPreview(int i) {
+        return preview.peek(i);
+    }
+
+    public int getPreviewDepth() {
+        return preview.depth();
+    }
+
+    public Tetromino getHeldPiece() {
+        return heldPiece;
+    }
+
+    // Whether hold may be used for the current piece (once per piece)
+    public boolean isHoldAvailable() {
+        return canHold;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    public long getPiecesPlaced() {
+        return piecesPlaced;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.concurrent.locks.LockSupport;
+
+// Active-rendering game loop: one dedicated thread runs the engine at a fixed logic rate and
+// renders the board canvas at a fixed frame rate, instead of waiting on Swing Timer events.
+// Inputs arrive through a lock-free queue so key handling never blocks the loop, and state leaves it
+// as published snapshots so painting never blocks the logic.
+public final class GameLoop implements Runnable {
+
+    // Logic ticks and rendered frames per second
+    static final int TICKS_PER_SECOND = 240;
+    static final int FRAMES_PER_SECOND = 60;
+
+    private static final long TICK_NANOS = 1_000_000_000L / TICKS_PER_SECOND;
+    private static final long FRAME_NANOS = 1_000_000_000L / FRAMES_PER_SECOND;
+
+    // Longest stretch of simulated time caught up at once, so a stall doesn't spiral
+    private static final long MAX_CATCH_UP_NANOS = 250_000_000L;
+
+    private final GameEngine engine;
+    private final StatePublisher publisher;
+    private final Tetris.GameCanvas canvas;
+    private final InputQueue inputs = new InputQueue(64);
+    private final Thread thread;
+
+    private volatile boolean running;
+    private volatile boolean paused;
+    private volatile boolean resetRequested;
+    private Runnable onPublish = () -> {};
+
+    // Bot playing the game in autopilot mode (else null), the time between its placements, and the
+    // time since its last one
+    private Bot autopilot;
+    private long autopilotDelayNanos;
+    private long autopilotNanos;
+
+    // Held keys and their repeats; loop thread only
+    private AutoShift keys = new AutoShift(this::applyInput, AutoShift.DEFAULT_DAS_MILLIS,
+            AutoShift.DEFAULT_ARR_MILLIS);
+    // Whether the engine changed since the last publish; loop thread only
+    private boolean changed;
+
+    public GameLoop(GameEngine engine, StatePublisher publisher, Tetris.GameCanvas canvas) {
+        this.engine = engine;
+        this.publisher = publisher;
+        this.canvas = canvas;
+        this.thread = new Thread(this, "game-loop");
+        thread.setDaemon(true);
+    }
+
+    public Tetris.GameCanvas getCanvas() {
+        return canvas;
+    }
+
+    // Called on the loop thread after each new snapshot is published
+    public void setOnPublish(Runnable onPublish) {
+        this.onPublish = onPublish;
+    }
+
+    // Let a bot play one placement every delay milliseconds; call before start
+    public void setAutopilot(Bot bot, int delayMillis) {
+        this.autopilot = bot;
+        this.autopilotDelayNanos = delayMillis * 1_000_000L;
+    }
+
+    public void start() {
+        running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    // Reset the engine on the loop thread and resume play
+    public void requestReset() {
+        resetRequested = true;
+    }
+
+    // Repeat held keys after dasMillis, every arrMillis (0: instantly); call before start
+    public void setAutoShift(int dasMillis, int arrMillis) {
+        keys = new AutoShift(this::applyInput, dasMillis, arrMillis);
+    }
+
+    // Queue the press or release of a player input's key, stamped now; dropped if the loop has fallen far behind
+    public boolean offer(GameEngine.Input input, boolean pressed) {
+        return inputs.offer(input, pressed, System.nanoTime());
+    }
+
+    @Override
+    public void run() {
+        long previous = System.nanoTime();
+        long lag = 0;
+        long nextFrame = previous;
+
+        while (running) {
+            long now = System.nanoTime();
+            lag += Math.min(now - previous, MAX_CATCH_UP_NANOS);
+            previous = now;
+
+            if (resetRequested) {
+                resetRequested = false;
+                engine.reset();
+                drainInputs(now, false);
+                autopilotNanos = 0;
+                lag = 0;
+                paused = false;
+                changed = true;
+            }
+
+            while (lag >= TICK_NANOS) {
+                tick(now - lag + TICK_NANOS);
+                lag -= TICK_NANOS;
+            }
+
+            // One snapshot per batch of ticks, however many inputs and steps it took
+            if (changed) {
+                changed = false;
+                publisher.publish();
+                onPublish.run();
+            }
+
+            if (now - nextFrame >= 0) {
+                canvas.render(publisher.get(), paused);
+                // Skip frames that were missed instead of rendering them back to back
+                nextFrame += FRAME_NANOS * ((now - nextFrame) / FRAME_NANOS + 1);
+            }
+
+            // Sleep until the next tick or frame, whichever is due first
+            long wake = Math.min(now - lag + TICK_NANOS, nextFrame);
+            long sleep = wake - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+            }
+        }
+    }
+
+    // One fixed logic step: apply the inputs that arrived up to this tick and the repeats of held keys, in
+    // the order of their times, then the bot's move, then gravity
+    private void tick(long tickEnd) {
+        boolean live = !paused && !engine.isGameOver();
+        drainInputs(tickEnd, live);
+        if (!live) {
+            return;
+        }
+        keys.poll(tickEnd);
+
+        if (autopilot != null) {
+            autopilotNanos += TICK_NANOS;
+            if (autopilotNanos >= autopilotDelayNanos) {
+                autopilotNanos -= autopilotDelayNanos;
+                changed |= autopilot.play(engine);
+            }
+        }
+
+        // The engine keeps the fraction of a row (or of a step) left over for the next tick
+        int y = engine.getPieceY();
+        long placed = engine.getPiecesPlaced();
+        engine.advance(TICK_NANOS);
+        changed |= engine.getPieceY() != y || engine.getPiecesPlaced() != placed || engine.isGameOver();
+    }
+
+    // Take queued key events stamped before the deadline, applying them only if play is live; while it
+    // isn't, held keys are forgotten and have to be pressed again
+    private void drainInputs(long deadline, boolean apply) {
+        if (!apply) {
+            keys.releaseAll();
+        }
+        while (!inputs.isEmpty() && inputs.peekTime() - deadline <= 0) {
+            GameEngine.Input input = inputs.peekInput();
+            long time = inputs.peekTime();
+            boolean pressed = inputs.peekPressed();
+            inputs.advance();
+            if (!apply) {
+                continue;
+            }
+            if (pressed) {
+                keys.press(input, time);
+            } else {
+                keys.release(input, time);
+            }
+        }
+    }
+
+    private boolean applyInput(GameEngine.Input input) {
+        boolean applied = engine.apply(input);
+        changed |= applied;
+        return applied;
+    }
+}
@@ -0,0 +1,543 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Headless server hosting many games in one JVM, e.g. for a tournament backend. Each connection is a
+// session: one game, whose rules run on a virtual thread of its own where the JVM has them (Java 21 on,
+// found by reflection since the code targets Java 8). Elsewhere a session's rounds run as tasks on a
+// pool of one carrier thread per core, which is how virtual threads are scheduled anyway; thousands of
+// platform threads would spend most of the CPU switching between them in the kernel.
+// Sessions park between wakes and never block on I/O. One selector thread wakes a session when
+// its socket has input or room for output. One scheduler thread wakes it when its gravity or lock delay
+// is next due (GameEngine.getNanosUntilChange), so no game needs a timer of its own.
+// Backpressure: a session reads at most READ_BUFFER bytes of input per wake, so TCP holds back a client
+// that sends faster than its game keeps up. A client that reads slower than its game changes gets the
+// latest state once its socket drains; the states in between are coalesced, not queued.
+// Every few seconds the server reports sessions, wakes, how late gravity wakes ran (p50/p99) and the
+// sessions that used the most CPU.
+//
+// Protocol: messages framed as (length of the rest: u16, type: u8, payload), big-endian.
+//   client START: seed (i64), gravity (u8, a GameEngine.Gravity ordinal); begins a new game
+//   client INPUT: input (u8, a GameEngine.Input ordinal), echo (i64, any value, returned with the state)
+//   server STATE: echo (i64, of the last input the state includes, else 0), score (i32), lines (i32),
+//                 piece (u8), rotation (u8), x (i16), y (i16), flags (u8, 1 = game over), changed stack
+//                 rows (see StackDelta)
+// Usage: java Tetris --serve [--port P] [--report-seconds N]
+public final class GameServer {
+
+    static final int DEFAULT_PORT = 7477;
+
+    static final byte START = 1;
+    static final byte INPUT = 2;
+    static final byte STATE = 1;
+
+    private static final int READ_BUFFER = 4096;
+
+    // Thread.ofVirtual().name(...).unstarted(...), looked up once; null on JVMs without virtual threads
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final Selector selector;
+    private final Queue<Session> registrations = new ConcurrentLinkedQueue<>();
+    private final GravityScheduler scheduler = new GravityScheduler();
+    // Runs the sessions' rounds when there are no virtual threads, else null
+    private final ForkJoinPool carriers = OF_VIRTUAL != null ? null
+            : new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                    null, true);
+
+    // How late gravity wakes ran, and wakes of any kind, since the last report
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final AtomicLong wakes = new AtomicLong();
+
+    private GameServer() throws IOException {
+        selector = Selector.open();
+    }
+
+    public static void run(String[] args) throws IOException {
+        int port = DEFAULT_PORT;
+        int reportSeconds = 5;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--report-seconds":
+                    reportSeconds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        GameServer server = new GameServer();
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port), 4096);
+        System.out.printf("serving on port %d with sessions on %s%n", port, OF_VIRTUAL != null ? "virtual threads"
+                : server.carriers.getParallelism() + " carrier threads");
+
+        startDaemon(server::select, "server-io");
+        startDaemon(server.scheduler, "server-gravity");
+        int interval = reportSeconds;
+        startDaemon(() -> server.report(interval), "server-report");
+
+        while (true) {
+            SocketChannel channel = listener.accept();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Session session = server.new Session(channel);
+            server.sessions.add(session);
+            session.start();
+            server.registrations.add(session);
+            server.selector.wakeup();
+        }
+    }
+
+    // An unstarted virtual thread; only where the JVM has them
+    static Thread newVirtualThread(Runnable task, String name) {
+        try {
+            return (Thread) UNSTARTED.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), name), task);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Selector thread: wake each session whose socket is ready, disarming it until the session has
+    // handled it
+    private void select() {
+        try {
+            while (true) {
+                selector.select();
+                for (SelectionKey key : selector.selectedKeys()) {
+                    try {
+                        key.interestOps(0);
+                    } catch (CancelledKeyException e) {
+                        // Closed by its session meanwhile
+                    }
+                    // Disarmed first, so a session that sees ready knows it has to arm the key again
+                    Session ready = (Session) key.attachment();
+                    ready.ready = true;
+                    ready.wake();
+                }
+                selector.selectedKeys().clear();
+                Session session;
+                while ((session = registrations.poll()) != null) {
+                    try {
+                        session.key = session.channel.register(selector, SelectionKey.OP_READ, session);
+                    } catch (ClosedChannelException e) {
+                        // Gone before it got here
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("server selector failed: " + e);
+        }
+    }
+
+    private void report(int seconds) {
+        long last = System.nanoTime();
+        while (true) {
+            LockSupport.parkNanos(seconds * 1_000_000_000L);
+            long now = System.nanoTime();
+            double elapsed = (now - last) / 1e9;
+            last = now;
+
+            // The sessions that used the most CPU this interval
+            List<Session> top = new ArrayList<>(sessions);
+            long cpu = 0;
+            for (Session session : top) {
+                session.intervalCpu = session.cpuNanos - session.reportedCpu;
+                session.reportedCpu += session.intervalCpu;
+                cpu += session.intervalCpu;
+            }
+            top.sort((a, b) -> Long.compare(b.intervalCpu, a.intervalCpu));
+            StringBuilder busiest = new StringBuilder();
+            for (int i = 0; i < Math.min(3, top.size()); i++) {
+                busiest.append(String.format(" %s=%.1fms", top.get(i).name, top.get(i).intervalCpu / 1e6));
+            }
+
+            System.out.printf("sessions=%d wakes/s=%.0f gravity-late p50=%dus p99=%dus session-cpu=%.1f%%%s%n",
+                    sessions.size(), wakes.getAndSet(0) / elapsed, lateness.percentile(0.5) / 1000,
+                    lateness.percentile(0.99) / 1000, 100.0 * cpu / (elapsed * 1e9),
+                    busiest.length() > 0 ? " busiest:" + busiest : "");
+            lateness.reset();
+        }
+    }
+
+    // Thread time where the JVM measures it for the current thread (not for virtual threads), else wall
+    // time, which a session spends running since it never blocks between the two readings
+    private static long cpuClock() {
+        long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+        return cpu >= 0 ? cpu : System.nanoTime();
+    }
+
+    // One connection and its game, run on its own virtual thread or as tasks on the carriers
+    private final class Session implements Runnable {
+        final SocketChannel channel;
+        final String name;
+        // Its virtual thread, or null on the carriers, where pending counts wakes not yet handled
+        private final Thread thread;
+        private final AtomicInteger pending = new AtomicInteger();
+        volatile SelectionKey key;
+        // Set by the selector thread when it has disarmed the key and woken the session for I/O
+        volatile boolean ready;
+        // What the key listens for as this session last set it
+        private int armedOps = SelectionKey.OP_READ;
+
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        private final StackDelta delta = new StackDelta(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+        // State not yet taken by the socket; a newer state waits until it has gone
+        private final ByteBuffer out = ByteBuffer.allocate(delta.maxBytes() + 64);
+        private GameEngine engine;
+        private long lastAdvance;
+        private long echo;
+        // Set whenever the game changes, so the next round sends a state
+        private boolean dirty;
+        private final GameEngine.Listener changes = new GameEngine.Listener() {
+            @Override
+            public void pieceMoved() {
+                dirty = true;
+            }
+
+            @Override
+            public void stackChanged() {
+                dirty = true;
+            }
+
+            @Override
+            public void scoreChanged() {
+                dirty = true;
+            }
+
+            @Override
+            public void gameOver() {
+                dirty = true;
+            }
+        };
+        private volatile boolean closed;
+
+        // Scheduler bookkeeping: the due time of the wake asked for, its number (older requests are
+        // stale), and the due time of a gravity wake that has fired but not yet been handled
+        private long scheduledDue = Long.MAX_VALUE;
+        volatile int generation;
+        volatile long gravityDue;
+
+        // Time spent running this session, and how much of it the reporter has seen
+        volatile long cpuNanos;
+        long reportedCpu;
+        long intervalCpu;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+            this.name = "session-" + channel.socket().getPort();
+            this.thread = carriers == null ? newVirtualThread(this, name) : null;
+            out.limit(0);
+        }
+
+        void start() {
+            if (thread != null) {
+                thread.start();
+            }
+        }
+
+        void wake() {
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            } else if (pending.getAndIncrement() == 0) {
+                carriers.execute(this::drain);
+            }
+        }
+
+        // On its virtual thread: a round per wake
+        @Override
+        public void run() {
+            while (!closed) {
+                LockSupport.park(this);
+                round();
+            }
+        }
+
+        // On a carrier: rounds until no wake is left unhandled, so a session never runs on two at once
+        private void drain() {
+            int seen;
+            do {
+                seen = pending.get();
+                round();
+            } while (!closed && pending.addAndGet(-seen) != 0);
+        }
+
+        // Handle everything due, counting the time it took against the session
+        private void round() {
+            boolean more = false;
+            do {
+                long start = cpuClock();
+                try {
+                    more = process(more);
+                } catch (IOException | RuntimeException e) {
+                    // The client went away or broke the protocol
+                    closed = true;
+                }
+                cpuNanos += cpuClock() - start;
+                wakes.incrementAndGet();
+            } while (more && !closed);
+            if (closed) {
+                close();
+            }
+        }
+
+        // Handle whatever is due; true if input is left over for another round straight away. Only a wake
+        // from the selector (or input left over) costs a read and re-arming the key; a gravity wake is
+        // just the game and, if it changed, one write.
+        private boolean process(boolean again) throws IOException {
+            long now = System.nanoTime();
+            long due = gravityDue;
+            if (due != 0) {
+                gravityDue = 0;
+                lateness.record(now - due);
+            }
+
+            boolean disarmed = ready;
+            if (disarmed) {
+                ready = false;
+            }
+            boolean more = false;
+            if (disarmed || again) {
+                more = read(now);
+            }
+            if (closed) {
+                return false;
+            }
+
+            if (engine != null) {
+                engine.advance(now - lastAdvance);
+                lastAdvance = now;
+            }
+            if (out.hasRemaining()) {
+                channel.write(out);
+            }
+            if (dirty && !out.hasRemaining()) {
+                writeState();
+                channel.write(out);
+            }
+
+            if (engine != null && !engine.isGameOver()) {
+                long next = now + engine.getNanosUntilChange();
+                if (next != scheduledDue) {
+                    scheduledDue = next;
+                    scheduler.schedule(this, next);
+                }
+            }
+            // Listen again for what this round didn't finish: more input, or room for the rest of a state
+            int ops = (more ? 0 : SelectionKey.OP_READ) | (out.hasRemaining() ? SelectionKey.OP_WRITE : 0);
+            SelectionKey k = key;
+            if (k != null && (disarmed || ops != armedOps) && k.isValid()) {
+                armedOps = ops;
+                k.interestOps(ops);
+                if (ops != 0) {
+                    selector.wakeup();
+                }
+            }
+            return more;
+        }
+
+        // Read and handle what input has arrived, in order; true if the buffer filled up and there may be more
+        private boolean read(long now) throws IOException {
+            int read = channel.read(in);
+            if (read < 0) {
+                closed = true;
+                return false;
+            }
+            in.flip();
+            while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+                int length = in.getShort() & 0xFFFF;
+                int end = in.position() + length;
+                handle(in.get(), now);
+                in.position(end);
+            }
+            if (in.remaining() == in.capacity()) {
+                throw new IOException("message longer than " + READ_BUFFER + " bytes");
+            }
+            in.compact();
+            return read > 0 && !in.hasRemaining();
+        }
+
+        private void handle(byte type, long now) {
+            if (type == START) {
+                long seed = in.getLong();
+                GameEngine.Gravity gravity = GameEngine.Gravity.values()[in.get()];
+                engine = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, seed), GameEngine.DEFAULT_PREVIEW);
+                engine.setGravity(gravity);
+                engine.setListener(changes);
+                lastAdvance = now;
+                scheduledDue = Long.MAX_VALUE;
+                delta.forget();
+                echo = 0;
+                dirty = true;
+            } else if (type == INPUT) {
+                GameEngine.Input input = GameEngine.Input.values()[in.get()];
+                echo = in.getLong();
+                if (engine != null) {
+                    // Catch gravity up to the moment of the input first
+                    engine.advance(now - lastAdvance);
+                    lastAdvance = now;
+                    engine.apply(input);
+                }
+                // Answered even if it had no effect, so the client can time every input
+                dirty = true;
+            }
+        }
+
+        // Put the game as it stands into the output buffer, as one STATE message
+        private void writeState() {
+            out.clear();
+            out.putShort((short) 0);
+            out.put(STATE);
+            out.putLong(echo);
+            if (engine == null) {
+                out.putInt(0).putInt(0).put((byte) 0).put((byte) 0).putShort((short) 0).putShort((short) 0)
+                        .put((byte) 0).putShort((short) 0);
+            } else {
+                out.putInt(engine.getScore());
+                out.putInt(engine.getLinesCleared());
+                out.put((byte) engine.getCurrentPiece().ordinal());
+                out.put((byte) engine.getRotation());
+                out.putShort((short) engine.getPieceX());
+                out.putShort((short) engine.getPieceY());
+                out.put((byte) (engine.isGameOver() ? 1 : 0));
+                delta.write(engine.getBoard(), out);
+            }
+            out.putShort(0, (short) (out.position() - 2));
+            out.flip();
+            echo = 0;
+            dirty = false;
+        }
+
+        private void close() {
+            closed = true;
+            sessions.remove(this);
+            SelectionKey k = key;
+            if (k != null) {
+                k.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    // The one thread that wakes sessions for gravity: a queue of requested wake times, earliest first.
+    // A session asks again whenever its next change moves, so older requests are skipped as stale.
+    private static final class GravityScheduler implements Runnable {
+        private final PriorityQueue<Wakeup> queue = new PriorityQueue<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition earlier = lock.newCondition();
+
+        void schedule(Session session, long due) {
+            Wakeup wakeup = new Wakeup(session, due, ++session.generation);
+            lock.lock();
+            try {
+                queue.add(wakeup);
+                if (queue.peek() == wakeup) {
+                    earlier.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+            try {
+                while (true) {
+                    Wakeup next = queue.peek();
+                    if (next == null) {
+                        earlier.awaitUninterruptibly();
+                        continue;
+                    }
+                    long wait = next.due - System.nanoTime();
+                    if (wait > 0) {
+                        earlier.awaitNanos(wait);
+                        continue;
+                    }
+                    queue.poll();
+                    if (next.generation == next.session.generation) {
+                        next.session.gravityDue = next.due;
+                        next.session.wake();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static final class Wakeup implements Comparable<Wakeup> {
+        final Session session;
+        final long due;
+        final int generation;
+
+        Wakeup(Session session, long due, int generation) {
+            this.session = session;
+            this.due = due;
+            this.generation = generation;
+        }
+
+        @Override
+        public int compareTo(Wakeup other) {
+            return Long.compare(due - other.due, 0);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Immutable copy of everything a renderer shows: the locked stack, the falling piece and its ghost,
+// hold, preview and stats. Renderers only ever read snapshots, never the live engine.
+public final class GameSnapshot {
+
+    // Locked stack as its colour plane (0 = empty), shared with the previous snapshot while the
+    // board hasn't changed
+    private final int width;
+    private final int height;
+    private final byte[] colors;
+    private final long boardVersion;
+
+    private final Tetromino currentPiece;
+    private final int rotation;
+    private final int pieceX, pieceY;
+    private final int ghostY;
+    private final Tetromino heldPiece;
+    private final Tetromino[] preview;
+
+    private final int score;
+    private final int level;
+    private final int linesCleared;
+    private final boolean gameOver;
+
+    private GameSnapshot(GameEngine engine, GameSnapshot previous) {
+        Board board = engine.getBoard();
+        width = board.getWidth();
+        height = board.getHeight();
+        boardVersion = board.getVersion();
+        if (previous != null && previous.boardVersion == boardVersion) {
+            colors = previous.colors;
+        } else {
+            colors = new byte[height * width];
+            board.copyColorsTo(colors);
+        }
+
+        currentPiece = engine.getCurrentPiece();
+        rotation = engine.getRotation();
+        pieceX = engine.getPieceX();
+        pieceY = engine.getPieceY();
+        ghostY = engine.getGhostY();
+        heldPiece = engine.getHeldPiece();
+        preview = new Tetromino[engine.getPreviewDepth()];
+        for (int i = 0; i < preview.length; i++) {
+            preview[i] = engine.getPreview(i);
+        }
+
+        score = engine.getScore();
+        level = engine.getLevel();
+        linesCleared = engine.getLinesCleared();
+        gameOver = engine.isGameOver();
+    }
+
+    private GameSnapshot(int width, int height, byte[] colors, long boardVersion, Tetromino currentPiece,
+            int rotation, int pieceX, int pieceY, int ghostY, Tetromino heldPiece, Tetromino[] preview, int score,
+            int level, int linesCleared, boolean gameOver) {
+        this.width = width;
+        this.height = height;
+        this.colors = colors;
+        this.boardVersion = boardVersion;
+        this.currentPiece = currentPiece;
+        this.rotation = rotation;
+        this.pieceX = pieceX;
+        this.pieceY = pieceY;
+        this.ghostY = ghostY;
+        this.heldPiece = heldPiece;
+        this.preview = preview;
+        this.score = score;
+        this.level = level;
+        this.linesCleared = linesCleared;
+        this.gameOver = gameOver;
+    }
+
+    // Capture the engine's current state; only the thread driving the engine may call this.
+    // The stack is copied only if it changed since the previous snapshot.
+    public static GameSnapshot capture(GameEngine engine, GameSnapshot previous) {
+        return new GameSnapshot(engine, previous);
+    }
+
+    // A game known only from a description of it, e.g. a spectator's broadcast stream. The colour plane
+    // and preview are copied, except the plane is shared with the previous snapshot if its version matches.
+    static GameSnapshot of(int width, int height, byte[] colors, long boardVersion, Tetromino currentPiece,
+            int rotation, int pieceX, int pieceY, int ghostY, Tetromino heldPiece, Tetromino[] preview, int score,
+            int level, int linesCleared, boolean gameOver, GameSnapshot previous) {
+        byte[] plane = previous != null && previous.boardVersion == boardVersion && previous.colors.length == colors.length
+                ? previous.colors : colors.clone();
+        return new GameSnapshot(width, height, plane, boardVersion, currentPiece, rotation, pieceX, pieceY, ghostY,
+                heldPiece, preview.clone(), score, level, linesCleared, gameOver);
+    }
+
+    // True if the falling piece is drawn in a different place than in the other snapshot
+    public boolean pieceDiffers(GameSnapshot other) {
+        return other == null || currentPiece != other.currentPiece || rotation != other.rotation
+                || pieceX != other.pieceX || pieceY != other.pieceY || ghostY != other.ghostY;
+    }
+
+    // True if the preview queue differs from the other snapshot's
+    public boolean previewDiffers(GameSnapshot other) {
+        if (other == null || preview.length != other.preview.length) {
+            return true;
+        }
+        for (int i = 0; i < preview.length; i++) {
+            if (preview[i] != other.preview[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public byte getColor(int col, int row) {
+        return colors[row * width + col];
+    }
+
+    // Copy the whole colour plane, row by row from the top, into an array of width * height
+    public void copyColorsTo(byte[] plane) {
+        System.arraycopy(colors, 0, plane, 0, colors.length);
+    }
+
+    public long getBoardVersion() {
+        return boardVersion;
+    }
+
+    public Tetromino getCurrentPiece() {
+        return currentPiece;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public int getPieceX() {
+        return pieceX;
+    }
+
+    public int getPieceY() {
+        return pieceY;
+    }
+
+    public int getGhostY() {
+        return ghostY;
+    }
+
+    public Tetromino getHeldPiece() {
+        return heldPiece;
+    }
+
+    // The i-th upcoming piece (0 = next)
+    public Tetromino getPreview(int i) {
+        return preview[i];
+    }
+
+    public int getPreviewDepth() {
+        return preview.length;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
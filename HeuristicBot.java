@@ -0,0 +1,203 @@
+// Greedy bot: tries every rotation and column for the current piece and the piece hold would give,
+// and plays the placement whose resulting board scores best on a weighted sum of features.
+// Features come from the column heights, hole counts and row fills the board keeps up to date, and
+// each candidate only adjusts the columns it touches, so choosing a move allocates nothing.
+public final class HeuristicBot implements Bot {
+
+    // Weights of the board features after a placement; higher scores are better
+    public static final class Weights {
+        // Hand-tuned defaults from a well-known linear evaluator
+        public static final Weights DEFAULT = new Weights(-0.510066, 0.760666, -0.35663, -0.184483);
+
+        final double height;
+        final double lines;
+        final double holes;
+        final double bumpiness;
+
+        public Weights(double height, double lines, double holes, double bumpiness) {
+            this.height = height;
+            this.lines = lines;
+            this.holes = holes;
+            this.bumpiness = bumpiness;
+        }
+
+        // Weights written as height,lines,holes,bumpiness, as printed by toString
+        public static Weights parse(String text) {
+            String[] parts = text.split(",");
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("expected height,lines,holes,bumpiness: " + text);
+            }
+            return new Weights(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        }
+
+        @Override
+        public String toString() {
+            return height + "," + lines + "," + holes + "," + bumpiness;
+        }
+    }
+
+    private final Weights weights;
+
+    // Features of the board being evaluated, refreshed by load()
+    private int[] heights = new int[0];
+    private int aggregate;
+    private int holes;
+    private int bumpiness;
+
+    // Placements scored so far
+    private long scored;
+
+    // Where the piece being placed can go (see Bot.reach)
+    private final int[] reach = new int[12];
+
+    public HeuristicBot(Weights weights) {
+        this.weights = weights;
+    }
+
+    public HeuristicBot() {
+        this(Weights.DEFAULT);
+    }
+
+    Weights getWeights() {
+        return weights;
+    }
+
+    long getScored() {
+        return scored;
+    }
+
+    @Override
+    public int chooseMove(GameEngine engine) {
+        Board board = engine.getBoard();
+        load(board);
+
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int hold = 0; hold < 2; hold++) {
+            Tetromino piece = engine.getCurrentPiece();
+            if (hold == 1) {
+                if (!engine.isHoldAvailable()) {
+                    break;
+                }
+                piece = engine.getHeldPiece() != null ? engine.getHeldPiece() : engine.getNextPiece();
+            }
+            // The current piece moves on from where it is; the one hold brings in starts at the spawn
+            int start = hold == 0 ? engine.getRotation() : 0;
+            Bot.reach(board, piece, start, hold == 0 ? engine.getPieceX() : board.getWidth() / 2 - 2,
+                    hold == 0 ? engine.getPieceY() : 0, reach);
+            for (int turns = 0; turns < 4; turns++) {
+                int rotation = (start + turns) & 3;
+                int fromY = reach[3 * turns];
+                for (int x = reach[3 * turns + 1]; x <= reach[3 * turns + 2]; x++) {
+                    int y = board.dropRow(piece, rotation, x, fromY);
+                    double score = evaluate(board, piece, rotation, x, y);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = (hold << 16) | (rotation << 8) | (x + 8);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    // Take the features of a board as it stands; candidates adjust them for the columns they touch
+    void load(Board board) {
+        int width = board.getWidth();
+        if (heights.length != width) {
+            heights = new int[width];
+        }
+        aggregate = 0;
+        holes = 0;
+        bumpiness = 0;
+        for (int col = 0; col < width; col++) {
+            heights[col] = board.getColumnHeight(col);
+            aggregate += heights[col];
+            holes += board.getHoles(col);
+            if (col > 0) {
+                bumpiness += Math.abs(heights[col] - heights[col - 1]);
+            }
+        }
+    }
+
+    // Score of the loaded board itself, with no piece added
+    double boardScore() {
+        return weights.height * aggregate + weights.holes * holes + weights.bumpiness * bumpiness;
+    }
+
+    // Best score of any placement of the piece on the loaded board that play() could make from the
+    // spawn position at row y; negative infinity if it fits nowhere
+    double bestScore(Board board, Tetromino piece, int spawnY) {
+        double best = Double.NEGATIVE_INFINITY;
+        Bot.reach(board, piece, 0, board.getWidth() / 2 - 2, spawnY, reach);
+        for (int rotation = 0; rotation < 4; rotation++) {
+            int fromY = reach[3 * rotation];
+            for (int x = reach[3 * rotation + 1]; x <= reach[3 * rotation + 2]; x++) {
+                int y = board.dropRow(piece, rotation, x, fromY);
+                best = Math.max(best, evaluate(board, piece, rotation, x, y));
+            }
+        }
+        return best;
+    }
+
+    // Score of the loaded board after dropping the piece at (x, y). Cleared lines are assumed to lower
+    // every column by the number cleared, which holds unless a cleared row held a column's only blocks.
+    double evaluate(Board board, Tetromino piece, int rotation, int x, int y) {
+        scored++;
+        int width = board.getWidth();
+        int boardHeight = board.getHeight();
+
+        int lines = 0;
+        for (int i = 0; i < 4; i++) {
+            int bits = piece.rowBits(rotation, i);
+            // Rows above the board (after a floor kick near the top) can't be completed
+            if (bits != 0 && y + i >= 0 && board.getRowCount(y + i) + Integer.bitCount(bits) == width) {
+                lines++;
+            }
+        }
+
+        // Raise the touched columns to the piece and count the gaps it leaves beneath itself
+        int aggregate = this.aggregate;
+        int holes = this.holes;
+        int bumpiness = this.bumpiness;
+        int left = width;
+        int right = -1;
+        for (int j = 0; j < 4; j++) {
+            int top = piece.columnTop(rotation, j);
+            if (top < 0) {
+                continue;
+            }
+            int col = x + j;
+            int old = heights[col];
+            int raised = boardHeight - (y + top);
+            int gap = boardHeight - old - (y + piece.columnBottom(rotation, j)) - 1;
+            aggregate += Math.max(raised, old) - old;
+            holes += Math.max(0, gap);
+            left = Math.min(left, col);
+            right = col;
+        }
+
+        // Bumpiness only changes between the touched columns and their neighbours
+        int from = Math.max(1, left);
+        int to = Math.min(width - 1, right + 1);
+        for (int col = from; col <= to; col++) {
+            bumpiness += Math.abs(raisedHeight(piece, rotation, x, y, col, boardHeight)
+                    - raisedHeight(piece, rotation, x, y, col - 1, boardHeight))
+                    - Math.abs(heights[col] - heights[col - 1]);
+        }
+
+        aggregate -= lines * width;
+        return weights.height * aggregate + weights.lines * lines
+                + weights.holes * holes + weights.bumpiness * bumpiness;
+    }
+
+    // Height of a column once the piece has landed at (x, y)
+    private int raisedHeight(Tetromino piece, int rotation, int x, int y, int col, int boardHeight) {
+        int j = col - x;
+        if (j >= 0 && j < 4 && piece.columnTop(rotation, j) >= 0) {
+            return Math.max(heights[col], boardHeight - (y + piece.columnTop(rotation, j)));
+        }
+        return heights[col];
+    }
+}
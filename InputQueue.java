@@ -0,0 +1,60 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-producer, single-consumer ring of timestamped key presses and releases. One thread (the EDT) offers,
+// one thread (the game loop) polls; neither side locks or allocates.
+public final class InputQueue {
+    private final GameEngine.Input[] inputs;
+    private final long[] times;
+    private final boolean[] presses;
+    private final int mask;
+
+    // Next slot to read (consumer) and next slot to write (producer)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        inputs = new GameEngine.Input[size];
+        times = new long[size];
+        presses = new boolean[size];
+        mask = size - 1;
+    }
+
+    // Queue the press or release of an input's key, stamped with its arrival time; false if the queue is full
+    public boolean offer(GameEngine.Input input, boolean pressed, long nanos) {
+        long t = tail.get();
+        if (t - head.get() == inputs.length) {
+            return false;
+        }
+        int index = (int) t & mask;
+        inputs[index] = input;
+        times[index] = nanos;
+        presses[index] = pressed;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    // The oldest queued input; only valid while !isEmpty()
+    public GameEngine.Input peekInput() {
+        return inputs[(int) head.get() & mask];
+    }
+
+    // Arrival time of the oldest queued input; only valid while !isEmpty()
+    public long peekTime() {
+        return times[(int) head.get() & mask];
+    }
+
+    // Whether the oldest queued event is a press rather than a release; only valid while !isEmpty()
+    public boolean peekPressed() {
+        return presses[(int) head.get() & mask];
+    }
+
+    // Drop the oldest queued input
+    public void advance() {
+        head.lazySet(head.get() + 1);
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free histogram of durations in nanoseconds, for percentiles under load. Buckets are powers of two
+// split into SUB_BUCKETS linear steps, so any value is counted within 1/SUB_BUCKETS of its size, from
+// nanoseconds up to minutes, in a few KB. Any number of threads may record at once.
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Enough powers of two for 2^40 ns, about 18 minutes; anything longer lands in the last bucket
+    private static final int MAGNITUDES = 40 - SUB_BITS + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray((MAGNITUDES + 1) * SUB_BUCKETS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucket(Math.max(0, nanos)));
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // The value below which the given fraction of recordings fall (upper edge of its bucket), or 0 if none
+    public long percentile(double fraction) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return upperEdge(i);
+            }
+        }
+        return upperEdge(counts.length() - 1);
+    }
+
+    // Forget everything recorded, e.g. at the start of a reporting interval
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    // Values below SUB_BUCKETS get a bucket each; above, the top SUB_BITS + 1 bits pick the bucket
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        if (magnitude >= MAGNITUDES) {
+            return (MAGNITUDES + 1) * SUB_BUCKETS - 1;
+        }
+        int sub = (int) (value >>> magnitude) & (SUB_BUCKETS - 1);
+        return (magnitude + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperEdge(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << magnitude) - 1;
+    }
+}
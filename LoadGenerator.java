@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.SplittableRandom;
+
+// Load-generating client for GameServer: many simulated players over loopback, all driven by one selector
+// thread so the client stays cheap next to the server it measures. Each player starts a seeded game and
+// sends random inputs at a steady rate, staggered across players, and starts over when it tops out.
+// Every input carries the time it was sent, and the state that answers it gives the tick latency: from
+// the input leaving the client to the game's new state arriving back. Inputs that reach a session
+// together are answered by one state, which times the last of them. The report gives p50/p99/max of
+// that, and counts inputs TCP held back because the server wasn't keeping up.
+// Usage: java Tetris --load [--host H] [--port P] [--players N] [--seconds S] [--rate INPUTS_PER_SECOND]
+//        [--gravity classic|guideline|20g]
+public final class LoadGenerator {
+
+    // Connections being opened at once, within the server's accept backlog
+    private static final int CONNECTING = 512;
+    private static final GameEngine.Input[] MOVES = {GameEngine.Input.LEFT, GameEngine.Input.RIGHT,
+            GameEngine.Input.ROTATE, GameEngine.Input.DOWN, GameEngine.Input.LEFT, GameEngine.Input.RIGHT,
+            GameEngine.Input.ROTATE, GameEngine.Input.DROP};
+
+    private final Selector selector;
+    private final Player[] players;
+    private final GameEngine.Gravity gravity;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final SplittableRandom random = new SplittableRandom(1);
+
+    private int connected;
+    private int connecting;
+    private long sent;
+    private long states;
+    private long heldBack;
+    private long games;
+    private long maxLatency;
+
+    private LoadGenerator(int count, GameEngine.Gravity gravity) throws IOException {
+        this.selector = Selector.open();
+        this.players = new Player[count];
+        this.gravity = gravity;
+    }
+
+    public static void run(String[] args) throws IOException {
+        String host = "127.0.0.1";
+        int port = GameServer.DEFAULT_PORT;
+        int count = 1000;
+        int seconds = 30;
+        double rate = 10;
+        GameEngine.Gravity gravity = GameEngine.Gravity.GUIDELINE;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--players":
+                    count = Integer.parseInt(args[++i]);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[++i]);
+                    break;
+                case "--gravity":
+                    gravity = Tetris.parseGravity(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        new LoadGenerator(count, gravity).drive(new InetSocketAddress(host, port), seconds, rate);
+    }
+
+    private void drive(InetSocketAddress address, int seconds, double rate) throws IOException {
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        // Input k goes to player k % players at start + k * spacing, so the load is spread evenly
+        double spacing = 1e9 / (rate * players.length);
+        long next = 0;
+        int opened = 0;
+        long measuredFrom = 0;
+
+        while (System.nanoTime() < end) {
+            while (opened < players.length && connecting < CONNECTING) {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                players[opened] = new Player(opened, channel);
+                if (channel.connect(address)) {
+                    players[opened].connected();
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, players[opened]);
+                    connecting++;
+                }
+                opened++;
+            }
+            if (measuredFrom == 0 && connected == players.length) {
+                // Everyone is playing: measure from here on
+                measuredFrom = System.nanoTime();
+                latency.reset();
+                maxLatency = 0;
+                System.out.printf("%d players connected in %.1fs%n", connected, (measuredFrom - start) / 1e9);
+            }
+
+            long now = System.nanoTime();
+            long due = start + (long) (next * spacing);
+            while (due - now <= 0) {
+                Player player = players[(int) (next % players.length)];
+                if (player != null && player.playing) {
+                    player.send(MOVES[random.nextInt(MOVES.length)], now);
+                }
+                next++;
+                due = start + (long) (next * spacing);
+            }
+
+            selector.select(Math.max(1, Math.min(10, (due - System.nanoTime()) / 1_000_000)));
+            for (SelectionKey key : selector.selectedKeys()) {
+                Player player = (Player) key.attachment();
+                boolean connect = key.isConnectable();
+                try {
+                    if (connect) {
+                        player.channel.finishConnect();
+                        connecting--;
+                        player.connected();
+                    } else if (key.isReadable()) {
+                        player.receive();
+                    }
+                } catch (IOException e) {
+                    key.cancel();
+                    player.channel.close();
+                    player.playing = false;
+                    if (connect) {
+                        connecting--;
+                    }
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+
+        double measured = (System.nanoTime() - (measuredFrom != 0 ? measuredFrom : start)) / 1e9;
+        System.out.printf("players=%d connected=%d inputs=%d states=%d games=%d held-back=%d over %.1fs%n",
+                players.length, connected, sent, states, games, heldBack, measured);
+        System.out.printf("tick latency p50=%.2fms p99=%.2fms max=%.2fms (%d answered)%n", latency.percentile(0.5) / 1e6,
+                latency.percentile(0.99) / 1e6, maxLatency / 1e6, latency.count());
+        for (Player player : players) {
+            if (player != null) {
+                player.channel.close();
+            }
+        }
+    }
+
+    // One simulated player and its connection
+    private final class Player {
+        final int id;
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(8192);
+        final ByteBuffer out = ByteBuffer.allocate(64);
+        boolean playing;
+        // A new game is to be started (at connection, and after each top-out)
+        boolean restart;
+        int round;
+
+        Player(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+        }
+
+        void connected() throws IOException {
+            connected++;
+            channel.register(selector, SelectionKey.OP_READ, this);
+            out.limit(0);
+            playing = true;
+            restart = true;
+            send(null, System.nanoTime());
+        }
+
+        // Send an input, or the START of a new game first if one is due. Nothing new goes while the socket
+        // hasn't taken the last message (the server is holding us back); that input is counted and skipped.
+        void send(GameEngine.Input input, long now) {
+            try {
+                if (out.hasRemaining()) {
+                    channel.write(out);
+                    if (out.hasRemaining()) {
+                        heldBack++;
+                        return;
+                    }
+                }
+                out.clear();
+                if (restart) {
+                    out.putShort((short) 10).put(GameServer.START).putLong(((long) id << 20) + round++);
+                    out.put((byte) gravity.ordinal());
+                    restart = false;
+                    games++;
+                } else if (input != null) {
+                    out.putShort((short) 10).put(GameServer.INPUT).put((byte) input.ordinal()).putLong(now);
+                    sent++;
+                }
+                out.flip();
+                channel.write(out);
+            } catch (IOException e) {
+                playing = false;
+            }
+        }
+
+        void receive() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new IOException("server closed the connection");
+            }
+            long now = System.nanoTime();
+            in.flip();
+            while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+                int length = in.getShort() & 0xFFFF;
+                int end = in.position() + length;
+                if (in.get() == GameServer.STATE) {
+                    states++;
+                    long echo = in.getLong();
+                    if (echo != 0) {
+                        latency.record(now - echo);
+                        maxLatency = Math.max(maxLatency, now - echo);
+                    }
+                    // score, lines, piece, rotation, x, y, then the flags
+                    in.position(in.position() + 4 + 4 + 1 + 1 + 2 + 2);
+                    if ((in.get() & 1) != 0) {
+                        restart = true;
+                    }
+                }
+                in.position(end);
+            }
+            in.compact();
+        }
+    }
+}
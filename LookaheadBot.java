@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+// Multi-ply bot: searches every sequence of placements for the current piece, the hold piece and the
+// preview queue, a fixed number of placements deep, and plays the first placement of the best sequence.
+// Placements of the current piece are searched in parallel on a fork-join pool. Positions reached by
+// different move orders share one transposition table entry, keyed by the board's Zobrist hash and
+// the pieces still to come. The last placement of every sequence is scored by a HeuristicBot.
+// One engine at a time: chooseMove must not be called concurrently on the same bot.
+public final class LookaheadBot implements Bot {
+
+    // Value of a position where the next piece cannot even spawn
+    private static final double LOSS = -1e9;
+
+    private final HeuristicBot.Weights weights;
+    private final int depth;
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+
+    // Per-thread search state
+    private final ThreadLocal<Scratch> scratch;
+
+    // Positions searched, and time spent choosing moves, since the bot was created
+    private final LongAdder nodes = new LongAdder();
+    private long searchNanos;
+
+    // The pieces of the move being chosen, in play order: the current piece, then the preview queue
+    private Tetromino[] sequence;
+
+    // Where the current piece can go (see Bot.reach)
+    private final int[] reach = new int[12];
+
+    public LookaheadBot(HeuristicBot.Weights weights, int depth, ForkJoinPool pool, TranspositionTable table) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be at least 1");
+        }
+        this.weights = weights;
+        this.depth = depth;
+        this.pool = pool;
+        this.table = table;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(weights, depth));
+    }
+
+    public LookaheadBot(int depth) {
+        this(HeuristicBot.Weights.DEFAULT, depth, ForkJoinPool.commonPool(), new TranspositionTable(1 << 18, 64));
+    }
+
+    @Override
+    public int chooseMove(GameEngine engine) {
+        long start = System.nanoTime();
+        Board board = engine.getBoard();
+        sequence = new Tetromino[engine.getPreviewDepth() + 1];
+        sequence[0] = engine.getCurrentPiece();
+        for (int i = 1; i < sequence.length; i++) {
+            sequence[i] = engine.getPreview(i - 1);
+        }
+
+        // One task per root placement, of the current piece or of the piece hold would give
+        Tetromino heldPiece = engine.getHeldPiece();
+        Tetromino alternative = !engine.isHoldAvailable() ? null
+                : heldPiece != null ? heldPiece : sequence[1 % sequence.length];
+        int plies = Math.min(depth, sequence.length);
+        List<RootTask> tasks = new ArrayList<>();
+        for (int hold = 0; hold < 2; hold++) {
+            Tetromino piece = hold == 0 ? sequence[0] : alternative;
+            if (piece == null || (hold == 1 && piece == sequence[0])) {
+                continue;
+            }
+            int next = hold == 1 && heldPiece == null ? 2 : 1;
+            Tetromino held = hold == 0 ? heldPiece : sequence[0];
+            // Only placements play() can make: the current piece from where it is, the held one from the spawn
+            int from = hold == 0 ? engine.getRotation() : 0;
+            Bot.reach(board, piece, from, hold == 0 ? engine.getPieceX() : board.getWidth() / 2 - 2,
+                    hold == 0 ? engine.getPieceY() : 0, reach);
+            for (int turns = 0; turns < 4; turns++) {
+                for (int x = reach[3 * turns + 1]; x <= reach[3 * turns + 2]; x++) {
+                    tasks.add(new RootTask(board, piece, (from + turns) & 3, x, reach[3 * turns], hold,
+                            next, held, plies - 1));
+                }
+            }
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+
+        // The first best placement in enumeration order wins, so the choice never depends on timing
+        int best = -1;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (RootTask task : tasks) {
+            if (task.value > bestValue) {
+                bestValue = task.value;
+                best = task.move;
+            }
+        }
+        searchNanos += System.nanoTime() - start;
+        return best;
+    }
+
+    // Best value of what is still to come from a position, not counting lines cleared before it:
+    // sequence[next] is the piece to play, held the piece in hold and plies the placements left to search.
+    // Children are built in the scratch board for the given ply.
+    private double search(Scratch s, Board board, int next, Tetromino held, int plies, int ply) {
+        if (plies == 0 || next >= sequence.length) {
+            s.leaf.load(board);
+            return s.leaf.boardScore();
+        }
+        Tetromino piece = sequence[next];
+        if (!board.canPlace(piece, 0, board.getWidth() / 2 - 2, 0)) {
+            return LOSS;
+        }
+
+        long key = board.getHash() ^ positionKey(next, held, plies);
+        double cached = table.get(key);
+        if (!Double.isNaN(cached)) {
+            return cached;
+        }
+
+        Tetromino alternative = held != null ? held : next + 1 < sequence.length ? sequence[next + 1] : null;
+        if (alternative == piece) {
+            alternative = null;
+        }
+        double best;
+        if (plies == 1) {
+            // Last placement: score it on this board without building the children
+            s.leaf.load(board);
+            best = s.leaf.bestScore(board, piece, 0);
+            if (alternative != null) {
+                best = Math.max(best, s.leaf.bestScore(board, alternative, 0));
+            }
+        } else {
+            best = expand(s, board, piece, next + 1, held, plies, ply);
+            if (alternative != null) {
+                best = Math.max(best, expand(s, board, alternative, held != null ? next + 1 : next + 2,
+                        piece, plies, ply));
+            }
+        }
+        if (best == Double.NEGATIVE_INFINITY) {
+            best = LOSS;
+        }
+        table.put(key, best);
+        return best;
+    }
+
+    // Best value over every placement of one piece (negative infinity if it fits nowhere)
+    private double expand(Scratch s, Board board, Tetromino piece, int next, Tetromino held, int plies, int ply) {
+        Board child = s.board(ply, board);
+        int[] reach = s.reach[ply];
+        Bot.reach(board, piece, 0, board.getWidth() / 2 - 2, 0, reach);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int rotation = 0; rotation < 4; rotation++) {
+            int fromY = reach[3 * rotation];
+            for (int x = reach[3 * rotation + 1]; x <= reach[3 * rotation + 2]; x++) {
+                child.copyFrom(board);
+                child.place(piece, rotation, x, board.dropRow(piece, rotation, x, fromY));
+                int lines = child.clearLines();
+                s.nodes++;
+                best = Math.max(best, weights.lines * lines + search(s, child, next, held, plies - 1, ply + 1));
+            }
+        }
+        return best;
+    }
+
+    // Key of everything besides the board that a position's value depends on: the placements left, the
+    // piece in hold, and the pieces those placements can use (one more than the placements, through hold)
+    private long positionKey(int next, Tetromino held, int plies) {
+        long key = plies * 8 + (held == null ? 0 : held.ordinal() + 1);
+        int end = Math.min(sequence.length, next + plies + 1);
+        for (int i = next; i < end; i++) {
+            key = key * 8 + sequence[i].ordinal() + 1;
+        }
+        return Board.mix(key);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    // Positions searched so far, counting every placement built or scored
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    // Positions searched per second of time spent choosing moves
+    public double getNodesPerSecond() {
+        return searchNanos == 0 ? 0 : nodes.sum() * 1e9 / searchNanos;
+    }
+
+    public double getHitRate() {
+        return table.getHitRate();
+    }
+
+    // One placement of the current piece (or the hold piece) and everything searched below it
+    private final class RootTask extends RecursiveAction {
+        private final Board board;
+        private final Tetromino piece;
+        private final int rotation, x, fromY;
+        private final int next;
+        private final Tetromino held;
+        private final int plies;
+        final int move;
+        double value;
+
+        RootTask(Board board, Tetromino piece, int rotation, int x, int fromY, int hold,
+                 int next, Tetromino held, int plies) {
+            this.board = board;
+            this.piece = piece;
+            this.rotation = rotation;
+            this.x = x;
+            this.fromY = fromY;
+            this.next = next;
+            this.held = held;
+            this.plies = plies;
+            this.move = (hold << 16) | (rotation << 8) | (x + 8);
+        }
+
+        @Override
+        protected void compute() {
+            Scratch s = scratch.get();
+            long scored = s.leaf.getScored();
+            Board child = s.board(0, board);
+            child.copyFrom(board);
+            if (child.place(piece, rotation, x, board.dropRow(piece, rotation, x, fromY))) {
+                int lines = child.clearLines();
+                value = weights.lines * lines + search(s, child, next, held, plies, 1);
+            } else {
+                value = LOSS;
+            }
+            nodes.add(1 + s.nodes + s.leaf.getScored() - scored);
+            s.nodes = 0;
+        }
+    }
+
+    // Search state owned by one thread: a board and reach per ply, and the evaluator for last placements
+    private static final class Scratch {
+        final HeuristicBot leaf;
+        final Board[] boards;
+        final int[][] reach;
+        long nodes;
+
+        Scratch(HeuristicBot.Weights weights, int depth) {
+            leaf = new HeuristicBot(weights);
+            boards = new Board[depth];
+            reach = new int[depth][12];
+        }
+
+        // The board for a ply, sized like the given board
+        Board board(int ply, Board like) {
+            Board board = boards[ply];
+            if (board == null || board.getWidth() != like.getWidth() || board.getHeight() != like.getHeight()) {
+                board = new Board(like.getWidth(), like.getHeight());
+                boards[ply] = board;
+            }
+            return board;
+        }
+    }
+}
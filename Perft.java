@@ -0,0 +1,224 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Move-generation counter in the spirit of chess perft. From a starting board and a piece sequence it
+// counts the distinct lock positions reachable at each depth: every piece spawns where the engine spawns
+// it and moves by the engine's own rules (left, right, soft drop, and clockwise turns with the engine's
+// wall kicks), with unlimited time before it locks. Lock positions are distinct by the cells the piece
+// covers, and positions that would top out are not counted. Hold is not explored.
+// The counts pin down move generation exactly, so a rewrite of collision or rotation has to reproduce
+// them; the run time gives a reproducible nodes-per-second figure.
+// Usage: java Tetris --perft [--pieces IOLJTSZ] [--depth N] [--board FILE] [--width W] [--height H] [--divide]
+public final class Perft {
+
+    // Subtrees with at least this many placements still to make are split into parallel tasks
+    private static final int FORK_DEPTH = 3;
+
+    private final Tetromino[] sequence;
+    private final ThreadLocal<PlacementGenerator> generators;
+
+    public Perft(Tetromino[] sequence, int width, int height) {
+        if (width * height >= 0xFFFF) {
+            throw new IllegalArgumentException("perft needs fewer than 65535 cells");
+        }
+        this.sequence = sequence;
+        this.generators = ThreadLocal.withInitial(() -> new PlacementGenerator(width, height));
+    }
+
+    public static void run(String[] args) throws IOException {
+        String pieces = "IOLJTSZ";
+        int depth = -1;
+        String boardFile = null;
+        // 0: the default, or a board file's own width
+        int width = 0;
+        int height = Board.DEFAULT_HEIGHT;
+        boolean divide = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pieces":
+                    pieces = args[++i];
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "--board":
+                    boardFile = args[++i];
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--divide":
+                    divide = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Tetromino[] sequence = new Tetromino[pieces.length()];
+        for (int i = 0; i < sequence.length; i++) {
+            sequence[i] = Tetromino.valueOf(String.valueOf(Character.toUpperCase(pieces.charAt(i))));
+        }
+        if (depth < 0 || depth > sequence.length) {
+            depth = sequence.length;
+        }
+        Board board = boardFile != null ? readBoard(boardFile, width, height)
+                : new Board(width > 0 ? width : Board.DEFAULT_WIDTH, height);
+
+        Perft perft = new Perft(sequence, board.getWidth(), board.getHeight());
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long count = perft.count(board, d);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("perft(%d)=%d time=%.3fs nodes/s=%.0f%n", d, count, seconds, count / seconds);
+        }
+
+        // Per first placement counts at full depth, to narrow down where two move generators differ
+        if (divide) {
+            PlacementGenerator generator = perft.generators.get();
+            int positions = generator.generate(board, sequence[0]);
+            int[] states = new int[positions];
+            System.arraycopy(generator.locks, 0, states, 0, positions);
+            for (int state : states) {
+                Board child = new Board(board.getWidth(), board.getHeight());
+                child.copyFrom(board);
+                child.place(sequence[0], PlacementGenerator.rotationOf(state), PlacementGenerator.xOf(state), PlacementGenerator.yOf(state));
+                child.clearLines();
+                long count = depth == 1 ? 1 : perft.count(child, 1, depth - 1);
+                System.out.printf("rotation=%d x=%d y=%d: %d%n", PlacementGenerator.rotationOf(state), PlacementGenerator.xOf(state), PlacementGenerator.yOf(state), count);
+            }
+        }
+    }
+
+    // Distinct lock positions after depth placements from the board, playing the sequence from its start
+    public long count(Board board, int depth) {
+        return count(board, 0, depth);
+    }
+
+    private long count(Board board, int next, int depth) {
+        Board start = new Board(board.getWidth(), board.getHeight());
+        start.copyFrom(board);
+        return ForkJoinPool.commonPool().invoke(new Subtree(start, next, depth));
+    }
+
+    // Lock positions under one board, with sequence[next] to play and depth placements still to make
+    private final class Subtree extends RecursiveTask<Long> {
+        private final Board board;
+        private final int next;
+        private final int depth;
+
+        Subtree(Board board, int next, int depth) {
+            this.board = board;
+            this.next = next;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (depth < FORK_DEPTH) {
+                return countSequentially(generators.get(), board, next, depth, 0);
+            }
+
+            PlacementGenerator generator = generators.get();
+            Tetromino piece = sequence[next];
+            int positions = generator.generate(board, piece);
+            List<Subtree> children = new ArrayList<>(positions);
+            for (int p = 0; p < positions; p++) {
+                int state = generator.locks[p];
+                Board child = new Board(board.getWidth(), board.getHeight());
+                child.copyFrom(board);
+                child.place(piece, PlacementGenerator.rotationOf(state), PlacementGenerator.xOf(state), PlacementGenerator.yOf(state));
+                child.clearLines();
+                children.add(new Subtree(child, next + 1, depth - 1));
+            }
+            long total = 0;
+            for (Subtree child : invokeAll(children)) {
+                total += child.join();
+            }
+            return total;
+        }
+    }
+
+    // Depth-first count on one thread, building children in the generator's board for each ply
+    private long countSequentially(PlacementGenerator generator, Board board, int next, int depth, int ply) {
+        Tetromino piece = sequence[next];
+        int positions = generator.generate(board, piece);
+        if (depth == 1) {
+            return positions;
+        }
+
+        // Generating below overwrites the generator's list, so keep this ply's positions aside
+        int[] states = generator.states(ply, positions);
+        Board child = generator.board(ply, board);
+        long total = 0;
+        for (int p = 0; p < positions; p++) {
+            int state = states[p];
+            child.copyFrom(board);
+            child.place(piece, PlacementGenerator.rotationOf(state), PlacementGenerator.xOf(state), PlacementGenerator.yOf(state));
+            child.clearLines();
+            total += countSequentially(generator, child, next + 1, depth - 1, ply + 1);
+        }
+        return total;
+    }
+
+    // A board drawn as text, one line per row from the top: '.' and ' ' are empty, anything else is filled.
+    // The drawing is the bottom of the board, with empty rows above it up to the given height, so a file
+    // needs only the rows that have something in them. The width is the given one, or if that is 0 the
+    // longest row's. Whitespace at the end of a row doesn't count toward it, but every row has to reach
+    // it: a row too long or too short is an error rather than cut or padded. Empty lines before the
+    // first row and after the last are skipped.
+    static Board readBoard(String file, int width, int height) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8));
+        while (!lines.isEmpty() && lines.get(0).trim().isEmpty()) {
+            lines.remove(0);
+        }
+        while (!lines.isEmpty() && lines.get(lines.size() - 1).trim().isEmpty()) {
+            lines.remove(lines.size() - 1);
+        }
+        if (lines.isEmpty()) {
+            throw new IOException("board file " + file + " has no rows");
+        }
+        int[] drawn = new int[lines.size()];
+        int longest = 0;
+        for (int i = 0; i < drawn.length; i++) {
+            String line = lines.get(i);
+            int length = line.length();
+            while (length > 0 && Character.isWhitespace(line.charAt(length - 1))) {
+                length--;
+            }
+            drawn[i] = length;
+            longest = Math.max(longest, length);
+        }
+        if (width == 0) {
+            width = longest;
+        }
+        for (int i = 0; i < drawn.length; i++) {
+            if (drawn[i] > width || lines.get(i).length() < width) {
+                throw new IOException("board file " + file + ": row " + (i + 1) + " is "
+                        + (drawn[i] > width ? drawn[i] : lines.get(i).length()) + " wide, the board " + width);
+            }
+        }
+
+        Board board = new Board(width, Math.max(height, lines.size()));
+        int top = board.getHeight() - lines.size();
+        for (int row = top; row < board.getHeight(); row++) {
+            String line = lines.get(row - top);
+            for (int col = 0; col < drawn[row - top]; col++) {
+                if (line.charAt(col) != '.' && line.charAt(col) != ' ') {
+                    board.setCell(col, row, Tetromino.I.colorId);
+                }
+            }
+        }
+        return board;
+    }
+}
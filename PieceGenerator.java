@@ -0,0 +1,118 @@
+import java.nio.ByteBuffer;
+
+// Source of the piece sequence. Every generator is seeded, so a seed always reproduces the same game.
+public interface PieceGenerator {
+
+    enum Mode { BAG, UNIFORM }
+
+    Tetromino next();
+
+    // Save and restore where in its sequence the generator is, so a game can be put back anywhere in it
+    // at once instead of drawing every piece up to there again
+    void writeState(ByteBuffer out);
+
+    void readState(ByteBuffer in);
+
+    static PieceGenerator create(Mode mode, long seed) {
+        SplitMix random = new SplitMix(seed);
+        return mode == Mode.UNIFORM ? new Uniform(random) : new Bag(random);
+    }
+
+    // SplitMix64, drawing exactly the numbers java.util.SplittableRandom(seed) would (so seeds deal the
+    // same games they always have), but with its state in the open so it can be saved
+    final class SplitMix {
+        private static final long GAMMA = 0x9E3779B97F4A7C15L;
+        private long state;
+
+        SplitMix(long seed) {
+            this.state = seed;
+        }
+
+        // Uniform in [0, bound), rejecting the draws that would favour low values
+        int nextInt(int bound) {
+            int r = mix32(state += GAMMA);
+            int m = bound - 1;
+            if ((bound & m) == 0) {
+                return r & m;
+            }
+            for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = mix32(state += GAMMA) >>> 1) {
+                // Draw again
+            }
+            return r;
+        }
+
+        private static int mix32(long z) {
+            z = (z ^ (z >>> 33)) * 0x62A9D9ED799705F5L;
+            return (int) (((z ^ (z >>> 28)) * 0xCB24D0A5C88C35B3L) >>> 32);
+        }
+    }
+
+    // 7-bag randomizer: deals every type once, in shuffled order, before starting a new bag
+    final class Bag implements PieceGenerator {
+        private final SplitMix random;
+        private final Tetromino[] bag = Tetromino.TYPES.clone();
+        private int index = bag.length;
+
+        public Bag(SplitMix random) {
+            this.random = random;
+        }
+
+        @Override
+        public Tetromino next() {
+            if (index == bag.length) {
+                // Fisher-Yates shuffle in place
+                for (int i = bag.length - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    Tetromino swap = bag[i];
+                    bag[i] = bag[j];
+                    bag[j] = swap;
+                }
+                index = 0;
+            }
+            return bag[index++];
+        }
+
+        // The random state, then the bag's order and how far into it the deal is
+        @Override
+        public void writeState(ByteBuffer out) {
+            out.putLong(random.state);
+            for (Tetromino piece : bag) {
+                out.put((byte) piece.ordinal());
+            }
+            out.put((byte) index);
+        }
+
+        @Override
+        public void readState(ByteBuffer in) {
+            random.state = in.getLong();
+            for (int i = 0; i < bag.length; i++) {
+                bag[i] = Tetromino.TYPES[in.get()];
+            }
+            index = in.get();
+        }
+    }
+
+    // Classic mode: every piece is drawn uniformly at random
+    final class Uniform implements PieceGenerator {
+        private final SplitMix random;
+
+        public Uniform(SplitMix random) {
+            this.random = random;
+        }
+
+        @Override
+        public Tetromino next() {
+            return Tetromino.TYPES[random.nextInt(Tetromino.TYPES.length)];
+        }
+
+        @Override
+        public void writeState(ByteBuffer out) {
+            out.putLong(random.state);
+        }
+
+        @Override
+        public void readState(ByteBuffer in) {
+            random.state = in.getLong();
+        }
+    }
+}
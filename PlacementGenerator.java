@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Lock positions a piece can reach from its spawn position under the engine's movement rules: a flood fill
+// over piece states (left, right, soft drop and clockwise turns with the engine's wall kicks), keeping one
+// position per distinct set of covered cells and skipping locks that would top out. Reuses its tables
+// from call to call, so each thread needs its own.
+final class PlacementGenerator {
+
+    // Rows above the board a piece may be kicked into and still be tracked
+    private static final int Y_MARGIN = 4;
+
+    private final int width;
+    private final int rows;
+
+    // Visited piece states, marked with the stamp of the fill that reached them
+    private final int[] visited;
+    private int stamp;
+    private final int[] queue;
+
+    // Footprints of the lock positions found so far (open addressing, 0 = empty) and their states
+    private final long[] footprints;
+    private final int[] footprintStamps;
+    int[] locks;
+
+    // Per ply: copies of the lock positions and the board children are built in
+    private final List<int[]> plyStates = new ArrayList<>();
+    private final List<Board> plyBoards = new ArrayList<>();
+
+    PlacementGenerator(int width, int height) {
+        this.width = width;
+        this.rows = height + Y_MARGIN;
+        int states = 4 * (width + 3) * rows;
+        visited = new int[states];
+        queue = new int[states];
+        footprints = new long[Integer.highestOneBit(states) << 2];
+        footprintStamps = new int[footprints.length];
+        locks = new int[states];
+    }
+
+    // Fill from the spawn position; the distinct lock positions end up in locks[0..count)
+    int generate(Board board, Tetromino piece) {
+        stamp++;
+        int count = 0;
+        int spawnX = width / 2 - 2;
+        if (!board.canPlace(piece, 0, spawnX, 0)) {
+            return 0;
+        }
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = state(0, spawnX, 0);
+        visited[index(0, spawnX, 0)] = stamp;
+        while (head < tail) {
+            int state = queue[head++];
+            int rotation = rotationOf(state);
+            int x = xOf(state);
+            int y = yOf(state);
+
+            if (board.canPlace(piece, rotation, x, y + 1)) {
+                tail = visit(rotation, x, y + 1, tail);
+            } else if (lockable(piece, rotation, y) && addFootprint(piece, rotation, x, y)) {
+                locks[count++] = state;
+            }
+            if (board.canPlace(piece, rotation, x - 1, y)) {
+                tail = visit(rotation, x - 1, y, tail);
+            }
+            if (board.canPlace(piece, rotation, x + 1, y)) {
+                tail = visit(rotation, x + 1, y, tail);
+            }
+            int kick = GameEngine.rotation(board, piece, rotation, x, y);
+            if (kick >= 0) {
+                tail = visit((rotation + 1) & 3, x + GameEngine.kickX(kick), y + GameEngine.kickY(kick), tail);
+            }
+        }
+        return count;
+    }
+
+    private int visit(int rotation, int x, int y, int tail) {
+        if (y < -Y_MARGIN) {
+            return tail;
+        }
+        int index = index(rotation, x, y);
+        if (visited[index] != stamp) {
+            visited[index] = stamp;
+            queue[tail++] = state(rotation, x, y);
+        }
+        return tail;
+    }
+
+    private int index(int rotation, int x, int y) {
+        return (rotation * (width + 3) + x + 3) * rows + y + Y_MARGIN;
+    }
+
+    // A piece locked with any cell above the board ends the game instead
+    private static boolean lockable(Tetromino piece, int rotation, int y) {
+        for (int i = 0; i < 4; i++) {
+            if (piece.rowBits(rotation, i) != 0) {
+                return y + i >= 0;
+            }
+        }
+        return true;
+    }
+
+    // Record the cells a lock position covers; false if another position already covered them.
+    // The four cell indices, in row-major order, pack exactly into one long.
+    private boolean addFootprint(Tetromino piece, int rotation, int x, int y) {
+        long footprint = 0;
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 4; j++) {
+                if (piece.isFilled(rotation, i, j)) {
+                    footprint = (footprint << 16) | ((y + i) * width + x + j + 1);
+                }
+            }
+        }
+        int mask = footprints.length - 1;
+        int slot = (int) (footprint ^ (footprint >>> 29) ^ (footprint >>> 47)) & mask;
+        while (footprintStamps[slot] == stamp) {
+            if (footprints[slot] == footprint) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        footprintStamps[slot] = stamp;
+        footprints[slot] = footprint;
+        return true;
+    }
+
+    // A copy of the first count lock positions, kept for one ply
+    int[] states(int ply, int count) {
+        while (plyStates.size() <= ply) {
+            plyStates.add(new int[locks.length]);
+        }
+        int[] states = plyStates.get(ply);
+        System.arraycopy(locks, 0, states, 0, count);
+        return states;
+    }
+
+    // The board children of one ply are built in
+    Board board(int ply, Board like) {
+        while (plyBoards.size() <= ply) {
+            plyBoards.add(new Board(like.getWidth(), like.getHeight()));
+        }
+        return plyBoards.get(ply);
+    }
+
+    // A piece state packed as (rotation << 24) | ((x + 128) << 12) | (y + 128)
+    static int state(int rotation, int x, int y) {
+        return (rotation << 24) | ((x + 128) << 12) | (y + 128);
+    }
+
+    static int rotationOf(int state) {
+        return state >>> 24;
+    }
+
+    static int xOf(int state) {
+        return ((state >>> 12) & 0xFFF) - 128;
+    }
+
+    static int yOf(int state) {
+        return (state & 0xFFF) - 128;
+    }
+}
@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+
+// Upcoming pieces, kept in a preallocated ring exactly as deep as the preview.
+// Taking a piece refills the slot it frees, so the queue never allocates or blocks.
+public final class PreviewQueue {
+    private final PieceGenerator generator;
+    private final Tetromino[] ring;
+    private int head;
+    // Pieces drawn from the generator so far
+    private long dealt;
+
+    public PreviewQueue(PieceGenerator generator, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Preview depth must be at least 1: " + depth);
+        }
+        this.generator = generator;
+        this.ring = new Tetromino[depth];
+        for (int i = 0; i < depth; i++) {
+            ring[i] = generator.next();
+        }
+        dealt = depth;
+    }
+
+    // Write where the sequence is: pieces dealt so far, the preview, and the generator's own state
+    public void writeState(ByteBuffer out) {
+        Replay.writeVarint(out, dealt);
+        for (int i = 0; i < ring.length; i++) {
+            out.put((byte) peek(i).ordinal());
+        }
+        generator.writeState(out);
+    }
+
+    // Put the sequence back where writeState found it, in the generator already in use
+    public void readState(ByteBuffer in) {
+        dealt = Replay.readVarint(in);
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = Tetromino.TYPES[in.get()];
+        }
+        head = 0;
+        generator.readState(in);
+    }
+
+    // Remove the next piece and append a freshly generated one at the back
+    public Tetromino take() {
+        Tetromino piece = ring[head];
+        ring[head] = generator.next();
+        dealt++;
+        head = head + 1 == ring.length ? 0 : head + 1;
+        return piece;
+    }
+
+    // The i-th upcoming piece (0 = next)
+    public Tetromino peek(int i) {
+        int index = head + i;
+        return ring[index < ring.length ? index : index - ring.length];
+    }
+
+    public int depth() {
+        return ring.length;
+    }
+
+    public long dealt() {
+        return dealt;
+    }
+}
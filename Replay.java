@@ -0,0 +1,440 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A recorded session, as written by ReplayRecorder: everything needed to set the game up again (seed,
+// generator mode, preview depth, board size and gravity), then every change of state in order. Replaying the
+// events into a fresh engine reproduces the session exactly, since the engine is deterministic.
+//
+// Layout, with every number an unsigned LEB128 varint (signed ones zigzag-encoded first):
+//   "TRPL", version byte, seed, mode, preview, width, height, gravity, start time (epoch millis)
+//   events: (milliseconds since the previous event << 4) | code
+//   after END: final score, lines and pieces placed, to check a re-simulation against
+//   index: keyframe count, event count, duration, then per keyframe the deltas of its event number,
+//   time and file offset
+//   footer: the index's file offset as 8 bytes, then "TIDX"
+// Codes 0-5 are GameEngine.Input ordinals (only inputs that took effect are recorded). Timed gravity
+// records FALL followed by the rows fallen, and LOCK when a lock delay runs out. A KEYFRAME is
+// followed by its length and the whole game state as of the events before it (see
+// GameEngine.writeState, the piece generator's included), so seeking starts from the nearest keyframe
+// instead of from the beginning.
+// A file cut short has no index; opening it scans the events for their keyframes instead.
+// Usage: java Tetris --verify-replay FILE
+public final class Replay {
+
+    static final int STEP = 6;
+    static final int PAUSE = 7;
+    static final int RESUME = 8;
+    static final int RESET = 9;
+    static final int KEYFRAME = 10;
+    static final int FALL = 11;
+    static final int LOCK = 12;
+    static final int END = 15;
+
+    static final byte[] MAGIC = {'T', 'R', 'P', 'L'};
+    static final byte[] INDEX_MAGIC = {'T', 'I', 'D', 'X'};
+    static final int VERSION = 1;
+
+    private static final GameEngine.Input[] INPUTS = GameEngine.Input.values();
+
+    final long seed;
+    final PieceGenerator.Mode mode;
+    final GameEngine.Gravity gravity;
+    final int preview;
+    final int width;
+    final int height;
+    final long startMillis;
+
+    // The whole file, and where its events start
+    private final ByteBuffer data;
+    private final int eventsStart;
+
+    // Events before END, the time of the last one, and the final score, lines and pieces recorded with
+    // END (null if the recording was cut short)
+    private long eventCount;
+    private long duration;
+    private long[] recorded;
+
+    // Keyframes: events before each, its time, and the file offset of its KEYFRAME code
+    private long[] keyEvents = new long[16];
+    private long[] keyMillis = new long[16];
+    private int[] keyOffsets = new int[16];
+    private int keyframes;
+
+    private Replay(ByteBuffer data) throws IOException {
+        this.data = data;
+        for (byte b : MAGIC) {
+            if (data.remaining() == 0 || data.get() != b) {
+                throw new IOException("not a replay file");
+            }
+        }
+        int version = data.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported replay version " + version);
+        }
+        seed = unzigzag(readVarint(data));
+        mode = PieceGenerator.Mode.values()[(int) readVarint(data)];
+        preview = (int) readVarint(data);
+        width = (int) readVarint(data);
+        height = (int) readVarint(data);
+        gravity = GameEngine.Gravity.values()[(int) readVarint(data)];
+        startMillis = readVarint(data);
+        eventsStart = data.position();
+        if (!readIndex()) {
+            scan();
+        }
+        if (keyframes == 0) {
+            throw new IOException("replay cut off before its first keyframe");
+        }
+    }
+
+    // Map a replay file into memory, so seeking touches only the pages around its keyframe
+    public static Replay open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static void run(String[] args) throws IOException {
+        Path file = Paths.get(args[args.length - 1]);
+        Replay replay = open(file);
+        System.out.printf("seed=%d mode=%s gravity=%s board=%dx%d preview=%d events=%d keyframes=%d duration=%.1fs bytes=%d%n",
+                replay.seed, replay.mode, replay.gravity, replay.width, replay.height, replay.preview, replay.eventCount,
+                replay.keyframes, replay.duration / 1000.0, replay.data.capacity());
+
+        long start = System.nanoTime();
+        Cursor cursor = replay.cursor();
+        while (cursor.advance()) {
+            // Every event, from the start
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        GameEngine engine = cursor.engine;
+        System.out.printf("score=%d lines=%d pieces=%d simulated in %.3fs%n", engine.getScore(),
+                engine.getLinesCleared(), engine.getPiecesPlaced(), seconds);
+
+        long[] recorded = replay.recorded;
+        if (recorded == null) {
+            System.out.println("no final score recorded (the session didn't end cleanly)");
+        } else if (recorded[0] == engine.getScore() && recorded[1] == engine.getLinesCleared()
+                && recorded[2] == engine.getPiecesPlaced()) {
+            System.out.println("matches the recorded final score");
+        } else {
+            System.out.printf("MISMATCH: recorded score=%d lines=%d pieces=%d%n", recorded[0], recorded[1],
+                    recorded[2]);
+            System.exit(1);
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    // Time of the last event, in milliseconds from the start of the session
+    public long getDuration() {
+        return duration;
+    }
+
+    // Final score, lines and pieces placed as recorded, or null if the recording was cut short
+    long[] getRecorded() {
+        return recorded;
+    }
+
+    // A fresh engine set up as the session's was when recording started
+    GameEngine newEngine() {
+        GameEngine engine = new GameEngine(PieceGenerator.create(mode, seed), preview, width, height);
+        engine.setGravity(gravity);
+        return engine;
+    }
+
+    // A cursor at the start of the session
+    public Cursor cursor() {
+        Cursor cursor = new Cursor();
+        cursor.restore(0);
+        return cursor;
+    }
+
+    // Load the index the recorder wrote when it closed; false if there is none
+    private boolean readIndex() {
+        int size = data.capacity();
+        if (size - eventsStart < 12) {
+            return false;
+        }
+        for (int i = 0; i < INDEX_MAGIC.length; i++) {
+            if (data.get(size - INDEX_MAGIC.length + i) != INDEX_MAGIC[i]) {
+                return false;
+            }
+        }
+        ByteBuffer in = data.duplicate();
+        in.position((int) data.getLong(size - 12));
+        int count = (int) readVarint(in);
+        eventCount = readVarint(in);
+        duration = readVarint(in);
+        long event = 0;
+        long millis = 0;
+        int offset = 0;
+        for (int k = 0; k < count; k++) {
+            event += readVarint(in);
+            millis += readVarint(in);
+            offset += (int) readVarint(in);
+            addKeyframe(event, millis, offset);
+        }
+
+        if (keyframes == 0) {
+            return false;
+        }
+
+        // The final score sits right after END, the last event after the last keyframe
+        ByteBuffer trailer = data.duplicate();
+        trailer.position(keyOffsets[keyframes - 1]);
+        while (trailer.hasRemaining()) {
+            int code = (int) (readVarint(trailer) & 0xF);
+            if (code == KEYFRAME) {
+                skipKeyframe(trailer);
+            } else if (code == END) {
+                recorded = new long[] {readVarint(trailer), readVarint(trailer), readVarint(trailer)};
+                break;
+            } else if (code == FALL) {
+                readVarint(trailer);
+            }
+        }
+        return true;
+    }
+
+    // Find the keyframes by walking the events, without simulating them; for files cut short
+    private void scan() {
+        ByteBuffer in = data.duplicate();
+        in.position(eventsStart);
+        long event = 0;
+        long millis = 0;
+        try {
+            while (in.hasRemaining()) {
+                int offset = in.position();
+                long value = readVarint(in);
+                int code = (int) (value & 0xF);
+                if (code == END) {
+                    recorded = new long[] {readVarint(in), readVarint(in), readVarint(in)};
+                    break;
+                }
+                if (code == KEYFRAME) {
+                    int length = (int) readVarint(in);
+                    if (in.remaining() < length) {
+                        break;
+                    }
+                    in.position(in.position() + length);
+                    millis += value >>> 4;
+                    addKeyframe(event, millis, offset);
+                } else {
+                    if (code == FALL) {
+                        readVarint(in);
+                    }
+                    millis += value >>> 4;
+                    event++;
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Cut off in the middle of an event
+        }
+        eventCount = event;
+        duration = millis;
+    }
+
+    private void addKeyframe(long event, long millis, int offset) {
+        if (keyframes == keyEvents.length) {
+            keyEvents = Arrays.copyOf(keyEvents, keyframes * 2);
+            keyMillis = Arrays.copyOf(keyMillis, keyframes * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, keyframes * 2);
+        }
+        keyEvents[keyframes] = event;
+        keyMillis[keyframes] = millis;
+        keyOffsets[keyframes] = offset;
+        keyframes++;
+    }
+
+    private static void skipKeyframe(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        in.position(in.position() + length);
+    }
+
+    // Last keyframe whose key (events before it, or its time) is at most the target; keyframe 0 is at
+    // the very start, so there always is one
+    private static int floor(long[] keys, int count, long target) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (keys[mid] <= target) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // A position in the session, with an engine showing the game as of that position. Seeking restores
+    // the nearest keyframe before the target and replays only the events after it.
+    public final class Cursor {
+        final GameEngine engine = newEngine();
+        private final ByteBuffer in = data.duplicate();
+        // Events applied, the time of the last one, and whether the player had paused by then
+        private long event;
+        private long millis;
+        private boolean paused;
+
+        public GameEngine getEngine() {
+            return engine;
+        }
+
+        public long getEvent() {
+            return event;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        // Go to just after the given number of events
+        public void seekEvent(long target) {
+            target = Math.max(0, Math.min(target, eventCount));
+            if (target < event || keyEvents[floor(keyEvents, keyframes, target)] > event) {
+                restore(floor(keyEvents, keyframes, target));
+            }
+            while (event < target && advance()) {
+                // Replay up to the target
+            }
+        }
+
+        // Go to just after the last event at or before the given time
+        public void seekMillis(long target) {
+            int k = floor(keyMillis, keyframes, target);
+            if (target < millis || keyEvents[k] > event) {
+                restore(k);
+            }
+            advanceTo(target);
+        }
+
+        // Apply every event up to the given time, e.g. as playback reaches it
+        public void advanceTo(long target) {
+            while (event < eventCount && nextMillis() <= target && advance()) {
+                // Replay up to the target
+            }
+        }
+
+        // Apply the next event; false at the end of the session
+        public boolean advance() {
+            while (in.hasRemaining()) {
+                long value;
+                try {
+                    value = readVarint(in);
+                } catch (IllegalStateException e) {
+                    return false;
+                }
+                int code = (int) (value & 0xF);
+                if (code == END) {
+                    in.position(in.limit());
+                    return false;
+                }
+                millis += value >>> 4;
+                if (code == KEYFRAME) {
+                    skipKeyframe(in);
+                    continue;
+                }
+                if (code == PAUSE || code == RESUME) {
+                    paused = code == PAUSE;
+                }
+                apply(engine, code, in);
+                event++;
+                return true;
+            }
+            return false;
+        }
+
+        // Time of the next event, without applying it
+        private long nextMillis() {
+            int position = in.position();
+            long next = millis;
+            while (in.hasRemaining()) {
+                long value = readVarint(in);
+                int code = (int) (value & 0xF);
+                next += value >>> 4;
+                if (code != KEYFRAME) {
+                    break;
+                }
+                skipKeyframe(in);
+            }
+            in.position(position);
+            return next;
+        }
+
+        // Load keyframe k and continue from the event after it
+        private void restore(int k) {
+            in.position(keyOffsets[k]);
+            readVarint(in);
+            int length = (int) readVarint(in);
+            ByteBuffer state = in.duplicate();
+            state.limit(state.position() + length);
+            paused = state.get() != 0;
+            engine.readState(state);
+            in.position(in.position() + length);
+            event = keyEvents[k];
+            millis = keyMillis[k];
+        }
+    }
+
+    // Replay one event, reading what follows its code if it has more
+    static void apply(GameEngine engine, int code, ByteBuffer in) {
+        if (code < INPUTS.length) {
+            engine.apply(INPUTS[code]);
+        } else if (code == STEP) {
+            engine.step();
+        } else if (code == FALL) {
+            engine.fall((int) readVarint(in));
+        } else if (code == LOCK) {
+            engine.expireLock();
+        } else if (code == RESET) {
+            engine.reset();
+        }
+        // PAUSE and RESUME don't change the game
+    }
+
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    // Throws IllegalStateException if the buffer ends inside the number
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalStateException("truncated varint");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint longer than 64 bits");
+    }
+
+    // Small magnitudes of either sign as small unsigned numbers
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+// Records a session in the Replay format while it is played. Events are encoded into an in-memory buffer
+// on whichever thread drives the engine (the EDT or the game loop), which never blocks on the disk: a
+// background thread swaps the buffer for an empty one and writes the full one through a FileChannel,
+// every FLUSH_MILLIS or sooner if the buffer fills up. A keyframe of the whole game state goes in every
+// KEYFRAME_INTERVAL changes, and closing appends the index of keyframes that seeking starts from.
+public final class ReplayRecorder implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long FLUSH_MILLIS = 1000;
+    // Changes of state between keyframes: the most a seek replays
+    private static final int KEYFRAME_INTERVAL = 256;
+    // Longest event: a varint code with its time and a number, or END with its trailer
+    private static final int MAX_EVENT = 4 * 10;
+
+    private final GameEngine engine;
+    private final FileChannel channel;
+    private final Thread writer;
+
+    // Events are added to filling under the lock; draining belongs to the writer between swaps
+    private ByteBuffer filling = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer draining = ByteBuffer.allocate(BUFFER_SIZE);
+    private long lastNanos;
+    private boolean closed;
+    private IOException failure;
+
+    // Bytes handed to the writer so far, events recorded, and the time of the last one
+    private long swapped;
+    private long events;
+    private long millis;
+
+    // Keyframes: events before each, its time and its file offset; and the scratch buffer one is built in
+    private long[] keyEvents = new long[16];
+    private long[] keyMillis = new long[16];
+    private long[] keyOffsets = new long[16];
+    private int keyframes;
+    private int sinceKeyframe;
+    private final ByteBuffer state;
+    private boolean paused;
+
+    // Score, lines and pieces as of the last recorded change, read on the engine's thread
+    private int score;
+    private int lines;
+    private long pieces;
+
+    // Start recording into a new file (replacing any file there). The engine must be freshly set up with
+    // the given seed and mode; the rest of its setup is read from it.
+    public ReplayRecorder(Path file, GameEngine engine, long seed, PieceGenerator.Mode mode) throws IOException {
+        this.engine = engine;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        filling.put(Replay.MAGIC);
+        filling.put((byte) Replay.VERSION);
+        Replay.writeVarint(filling, Replay.zigzag(seed));
+        Replay.writeVarint(filling, mode.ordinal());
+        Replay.writeVarint(filling, engine.getPreviewDepth());
+        Replay.writeVarint(filling, engine.getBoard().getWidth());
+        Replay.writeVarint(filling, engine.getBoard().getHeight());
+        Replay.writeVarint(filling, engine.getGravity().ordinal());
+        Replay.writeVarint(filling, System.currentTimeMillis());
+        lastNanos = System.nanoTime();
+
+        // Room for a keyframe whose stack alternates colour at every cell, after the preview and the
+        // piece generator's state
+        Board board = engine.getBoard();
+        state = ByteBuffer.allocate(64 + engine.getPreviewDepth() + 6 * board.getWidth() * board.getHeight());
+        keyframe();
+
+        writer = new Thread(this::write, "replay-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // A listener that records every change of the engine's state and passes all callbacks on to another
+    public GameEngine.Listener recording(GameEngine.Listener listener) {
+        return new GameEngine.Listener() {
+            @Override
+            public void pieceMoved() {
+                listener.pieceMoved();
+            }
+
+            @Override
+            public void stackChanged() {
+                listener.stackChanged();
+            }
+
+            @Override
+            public void scoreChanged() {
+                listener.scoreChanged();
+            }
+
+            @Override
+            public void nextChanged() {
+                listener.nextChanged();
+            }
+
+            @Override
+            public void holdChanged() {
+                listener.holdChanged();
+            }
+
+            @Override
+            public void gameOver() {
+                listener.gameOver();
+            }
+
+            @Override
+            public void inputApplied(GameEngine.Input input) {
+                changed(input.ordinal());
+                listener.inputApplied(input);
+            }
+
+            @Override
+            public void stepped() {
+                changed(Replay.STEP);
+                listener.stepped();
+            }
+
+            @Override
+            public void restarted() {
+                changed(Replay.RESET);
+                listener.restarted();
+            }
+
+            @Override
+            public void fell(int rows) {
+                changed(Replay.FALL, rows);
+                listener.fell(rows);
+            }
+
+            @Override
+            public void lockExpired() {
+                changed(Replay.LOCK);
+                listener.lockExpired();
+            }
+        };
+    }
+
+    // Record the player pausing or resuming; may be called from a thread other than the engine's
+    public synchronized void paused(boolean paused) {
+        this.paused = paused;
+        record(paused ? Replay.PAUSE : Replay.RESUME);
+    }
+
+    // Record a change of state; called on the engine's thread, right after the change
+    private synchronized void changed(int code) {
+        changed(code, -1);
+    }
+
+    // The same with a number following the code, if it isn't negative
+    private synchronized void changed(int code, long argument) {
+        score = engine.getScore();
+        lines = engine.getLinesCleared();
+        pieces = engine.getPiecesPlaced();
+        record(code);
+        if (argument >= 0 && !closed) {
+            Replay.writeVarint(filling, argument);
+        }
+        if (++sinceKeyframe == KEYFRAME_INTERVAL && !closed) {
+            keyframe();
+        }
+    }
+
+    private synchronized void record(int code) {
+        if (closed) {
+            return;
+        }
+        encode(code);
+        events++;
+        if (filling.position() > filling.capacity() / 2) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Add the whole game state as it stands, and note where it is for the index; on the engine's thread
+    private void keyframe() {
+        if (keyframes == keyEvents.length) {
+            keyEvents = Arrays.copyOf(keyEvents, keyframes * 2);
+            keyMillis = Arrays.copyOf(keyMillis, keyframes * 2);
+            keyOffsets = Arrays.copyOf(keyOffsets, keyframes * 2);
+        }
+        keyOffsets[keyframes] = swapped + filling.position();
+        encode(Replay.KEYFRAME);
+        keyEvents[keyframes] = events;
+        keyMillis[keyframes] = millis;
+        keyframes++;
+        sinceKeyframe = 0;
+
+        state.clear();
+        state.put((byte) (paused ? 1 : 0));
+        engine.writeState(state);
+        state.flip();
+        reserve(state.remaining() + MAX_EVENT);
+        Replay.writeVarint(filling, state.remaining());
+        filling.put(state);
+    }
+
+    // Add one event, stamped with the time since the previous one
+    private void encode(int code) {
+        reserve(MAX_EVENT);
+        long now = System.nanoTime();
+        long elapsed = (now - lastNanos) / 1_000_000;
+        lastNanos += elapsed * 1_000_000;
+        millis += elapsed;
+        Replay.writeVarint(filling, (elapsed << 4) | code);
+    }
+
+    // Make room for more bytes, growing the buffer if the writer has fallen behind
+    private void reserve(int bytes) {
+        if (filling.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(filling.capacity() * 2, filling.position() + bytes));
+            filling.flip();
+            larger.put(filling);
+            filling = larger;
+        }
+    }
+
+    // Writer thread: write out whatever has been recorded, once a second or when woken, until closed
+    private void write() {
+        try {
+            boolean last;
+            do {
+                LockSupport.parkNanos(this, FLUSH_MILLIS * 1_000_000);
+                ByteBuffer full;
+                synchronized (this) {
+                    last = closed;
+                    swapped += filling.position();
+                    full = filling;
+                    filling = draining;
+                    draining = full;
+                }
+                full.flip();
+                while (full.hasRemaining()) {
+                    channel.write(full);
+                }
+                full.clear();
+            } while (!last);
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                closed = true;
+            }
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already failed or finished
+            }
+        }
+    }
+
+    // End the recording with the final score and the keyframe index, write out everything and close the
+    // file. Safe from any thread, e.g. a shutdown hook, since the score is the one the engine's thread
+    // last recorded.
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                long duration = millis;
+                encode(Replay.END);
+                Replay.writeVarint(filling, score);
+                Replay.writeVarint(filling, lines);
+                Replay.writeVarint(filling, pieces);
+
+                long index = swapped + filling.position();
+                reserve(16 + 3 * 10 * (keyframes + 1));
+                Replay.writeVarint(filling, keyframes);
+                Replay.writeVarint(filling, events);
+                Replay.writeVarint(filling, duration);
+                for (int k = 0; k < keyframes; k++) {
+                    Replay.writeVarint(filling, keyEvents[k] - (k == 0 ? 0 : keyEvents[k - 1]));
+                    Replay.writeVarint(filling, keyMillis[k] - (k == 0 ? 0 : keyMillis[k - 1]));
+                    Replay.writeVarint(filling, keyOffsets[k] - (k == 0 ? 0 : keyOffsets[k - 1]));
+                }
+                filling.putLong(index);
+                filling.put(Replay.INDEX_MAGIC);
+                closed = true;
+            }
+        }
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import javax.swing.*;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Window for watching a recorded session, drawn with the game's own board, hold and next panels.
+// The replay file is memory-mapped and every seek starts from the nearest keyframe, so scrubbing to any
+// point of a marathon session replays at most a few hundred events. Playback runs at 1x to 64x, and
+// stepping (the arrow keys) moves one event forward or back.
+// Usage: java Tetris --replay FILE
+public class ReplayViewer extends JFrame {
+
+    private static final int[] SPEEDS = {1, 2, 4, 8, 16, 32, 64};
+    // Playback timer period, about one frame at 60 Hz
+    private static final int FRAME_MILLIS = 16;
+    // Height kept free below the board for the playback controls
+    private static final int CONTROLS_HEIGHT = 80;
+
+    private final Replay replay;
+    private final Replay.Cursor cursor;
+    private final StatePublisher publisher;
+
+    private final Tetris.GamePanel gamePanel;
+    private final Tetris.HoldPanel holdPanel;
+    private final Tetris.NextPanel nextPanel;
+    private final JLabel scoreLabel;
+    private final JLabel levelLabel;
+    private final JLabel linesLabel;
+    private final JLabel timeLabel;
+    private final JSlider slider;
+    private final JButton playButton;
+    private final JComboBox<String> speedBox;
+    private final Timer timer;
+
+    // Playback position in session milliseconds, and when the timer last moved it
+    private double clock;
+    private long lastTick;
+    // Set while the slider follows playback, so it isn't taken for the user scrubbing
+    private boolean followingPlayback;
+    private GameSnapshot shown;
+    private boolean pausedShown;
+
+    public static void run(String[] args) throws IOException {
+        Replay replay = Replay.open(Paths.get(args[args.length - 1]));
+        SwingUtilities.invokeLater(() -> new ReplayViewer(replay).setVisible(true));
+    }
+
+    public ReplayViewer(Replay replay) {
+        setTitle("Tetris replay");
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        setResizable(false);
+
+        this.replay = replay;
+        cursor = replay.cursor();
+        publisher = new StatePublisher(cursor.getEngine());
+
+        int[] fitted = Tetris.fitBoard(replay.width, replay.height, CONTROLS_HEIGHT, 0);
+        gamePanel = new Tetris.GamePanel(replay.width, fitted[1], fitted[0]);
+        holdPanel = new Tetris.HoldPanel(fitted[0]);
+        nextPanel = new Tetris.NextPanel(fitted[0]);
+
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        mainPanel.setBackground(new Color(40, 40, 40));
+
+        scoreLabel = new JLabel("Score: 0");
+        levelLabel = new JLabel("Level: 1");
+        linesLabel = new JLabel("Lines: 0");
+        JPanel statsPanel = new JPanel(new GridLayout(3, 1));
+        statsPanel.setBackground(new Color(60, 60, 60));
+        statsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        for (JLabel label : new JLabel[] {scoreLabel, levelLabel, linesLabel}) {
+            label.setForeground(Color.WHITE);
+            statsPanel.add(label);
+        }
+
+        JPanel topPanel = new JPanel(new GridLayout(2, 1, 0, 10));
+        topPanel.setBackground(new Color(40, 40, 40));
+        topPanel.add(holdPanel);
+        topPanel.add(statsPanel);
+        JPanel sidePanel = new JPanel(new BorderLayout(0, 10));
+        sidePanel.setBackground(new Color(40, 40, 40));
+        sidePanel.add(topPanel, BorderLayout.NORTH);
+        sidePanel.add(nextPanel, BorderLayout.CENTER);
+
+        // Controls: step back, play/pause, step forward, speed, then the timeline
+        JButton backButton = new JButton("|<");
+        playButton = new JButton("Play");
+        JButton forwardButton = new JButton(">|");
+        String[] speeds = new String[SPEEDS.length];
+        for (int i = 0; i < SPEEDS.length; i++) {
+            speeds[i] = SPEEDS[i] + "x";
+        }
+        speedBox = new JComboBox<>(speeds);
+        timeLabel = new JLabel();
+        timeLabel.setForeground(Color.WHITE);
+        for (JComponent control : new JComponent[] {backButton, playButton, forwardButton, speedBox}) {
+            control.setFocusable(false);
+        }
+        backButton.addActionListener(e -> step(-1));
+        forwardButton.addActionListener(e -> step(1));
+        playButton.addActionListener(e -> togglePlay());
+
+        slider = new JSlider(0, (int) Math.min(Integer.MAX_VALUE, replay.getDuration()), 0);
+        slider.setFocusable(false);
+        slider.setBackground(new Color(40, 40, 40));
+        slider.addChangeListener(e -> {
+            if (!followingPlayback) {
+                cursor.seekMillis(slider.getValue());
+                clock = slider.getValue();
+                showPosition();
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        buttons.setBackground(new Color(40, 40, 40));
+        buttons.add(backButton);
+        buttons.add(playButton);
+        buttons.add(forwardButton);
+        buttons.add(speedBox);
+        buttons.add(timeLabel);
+        JPanel controls = new JPanel(new BorderLayout(0, 5));
+        controls.setBackground(new Color(40, 40, 40));
+        controls.add(slider, BorderLayout.NORTH);
+        controls.add(buttons, BorderLayout.SOUTH);
+
+        mainPanel.add(gamePanel, BorderLayout.CENTER);
+        mainPanel.add(sidePanel, BorderLayout.EAST);
+        mainPanel.add(controls, BorderLayout.SOUTH);
+        setContentPane(mainPanel);
+
+        bindKey(KeyEvent.VK_LEFT, "back", () -> step(-1));
+        bindKey(KeyEvent.VK_RIGHT, "forward", () -> step(1));
+        bindKey(KeyEvent.VK_SPACE, "play", this::togglePlay);
+
+        timer = new Timer(FRAME_MILLIS, e -> tick());
+        showPosition();
+        pack();
+        setLocationRelativeTo(null);
+    }
+
+    private void bindKey(int keyCode, String name, Runnable action) {
+        JRootPane root = getRootPane();
+        root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(keyCode, 0), name);
+        root.getActionMap().put(name, new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                action.run();
+            }
+        });
+    }
+
+    private void togglePlay() {
+        if (timer.isRunning()) {
+            timer.stop();
+            playButton.setText("Play");
+            return;
+        }
+        // Playing from the end starts over
+        if (cursor.getEvent() >= replay.getEventCount()) {
+            cursor.seekEvent(0);
+            clock = 0;
+        }
+        lastTick = System.nanoTime();
+        timer.start();
+        playButton.setText("Pause");
+    }
+
+    // Move one event forward or back, pausing playback
+    private void step(int events) {
+        if (timer.isRunning()) {
+            togglePlay();
+        }
+        cursor.seekEvent(cursor.getEvent() + events);
+        clock = cursor.getMillis();
+        showPosition();
+    }
+
+    // Playback: move the clock on by the real time since the last tick, times the speed
+    private void tick() {
+        long now = System.nanoTime();
+        clock += (now - lastTick) / 1e6 * SPEEDS[speedBox.getSelectedIndex()];
+        lastTick = now;
+        long before = cursor.getEvent();
+        cursor.advanceTo((long) clock);
+        if (cursor.getEvent() >= replay.getEventCount()) {
+            togglePlay();
+        }
+        if (cursor.getEvent() != before || !timer.isRunning()) {
+            showPosition();
+        } else {
+            showTime();
+        }
+    }
+
+    // Show the cursor's position on the board, side panels and timeline
+    private void showPosition() {
+        GameSnapshot snapshot = publisher.publish();
+        gamePanel.show(snapshot);
+        // The recorded pauses show as the game showed them
+        if (cursor.isPaused() != pausedShown) {
+            pausedShown = cursor.isPaused();
+            gamePanel.setPaused(pausedShown);
+            gamePanel.repaint();
+        }
+
+        if (shown == null || snapshot.getHeldPiece() != shown.getHeldPiece()) {
+            holdPanel.setHeldPiece(snapshot.getHeldPiece());
+        }
+        if (snapshot.previewDiffers(shown)) {
+            nextPanel.show(snapshot);
+        }
+        scoreLabel.setText("Score: " + snapshot.getScore());
+        levelLabel.setText("Level: " + snapshot.getLevel());
+        linesLabel.setText("Lines: " + snapshot.getLinesCleared());
+        shown = snapshot;
+        showTime();
+    }
+
+    private void showTime() {
+        long millis = Math.max(cursor.getMillis(), (long) clock);
+        followingPlayback = true;
+        slider.setValue((int) Math.min(millis, slider.getMaximum()));
+        followingPlayback = false;
+        timeLabel.setText(format(millis) + " / " + format(replay.getDuration())
+                + "   event " + cursor.getEvent() + " / " + replay.getEventCount());
+    }
+
+    private static String format(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%d:%02d.%d", seconds / 60, seconds % 60, (millis % 1000) / 100);
+    }
+}
@@ -0,0 +1,990 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// Self-checks for the data structures that could go wrong quietly: each one runs the real code over
+// random seeds against a slow reference that is obviously right, and reports the first difference.
+// Exits with code 1 if any check fails.
+// Usage: java Tetris --selftest [--filter NAME] [--seeds N]
+public final class SelfTest {
+
+    private SelfTest() {}
+
+    // Runs over the given number of seeds; null if it passed, else the first thing that went wrong
+    interface Check {
+        String run(int seeds) throws IOException;
+    }
+
+    public static void run(String[] args) throws IOException {
+        String filter = null;
+        int seeds = 200;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":
+                    filter = args[++i];
+                    break;
+                case "--seeds":
+                    seeds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        int failed = 0;
+        for (Map.Entry<String, Check> check : checks().entrySet()) {
+            if (filter != null && !check.getKey().contains(filter)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            String failure = check.getValue().run(seeds);
+            if (failure == null) {
+                System.out.printf("%-12s ok (%.2fs)%n", check.getKey(), (System.nanoTime() - start) / 1e9);
+            } else {
+                System.out.printf("%-12s FAILED: %s%n", check.getKey(), failure);
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    // Checks in run order
+    private static Map<String, Check> checks() {
+        Map<String, Check> checks = new LinkedHashMap<>();
+        checks.put("board", SelfTest::checkBoard);
+        checks.put("replay", SelfTest::checkReplay);
+        checks.put("bot", SelfTest::checkBot);
+        checks.put("evaluate", SelfTest::checkEvaluate);
+        checks.put("perft", SelfTest::checkPerft);
+        checks.put("autoshift", SelfTest::checkAutoShift);
+        checks.put("env", SelfTest::checkEnv);
+        return checks;
+    }
+
+    // Board sizes the board check cycles through: the classic one, the smallest, and rows of one word
+    // exactly, of two words and of three
+    private static final int[][] BOARD_SIZES = {{10, 20}, {4, 4}, {64, 24}, {70, 30}, {130, 16}};
+    private static final int BOARD_OPERATIONS = 400;
+
+    // Board, ring and all, against a plain grid of colours: random drops, clears, garbage, single cells
+    // and copies, comparing every cell, column and row count and the hash after each one
+    private static String checkBoard(int seeds) {
+        for (int seed = 0; seed < seeds; seed++) {
+            Random random = new Random(seed);
+            int[] size = BOARD_SIZES[seed % BOARD_SIZES.length];
+            int width = size[0];
+            int height = size[1];
+            Board board = new Board(width, height);
+            GridBoard model = new GridBoard(width, height);
+
+            for (int op = 0; op < BOARD_OPERATIONS; op++) {
+                String what;
+                int kind = random.nextInt(20);
+                if (kind < 11) {
+                    Tetromino piece = Tetromino.TYPES[random.nextInt(7)];
+                    int rotation = random.nextInt(4);
+                    int x = random.nextInt(width + 3) - 3;
+                    what = "drop " + piece + " r" + rotation + " x" + x;
+                    if (board.canPlace(piece, rotation, x, 0) != model.fits(piece, rotation, x, 0)) {
+                        return at(seed, op, what + ": canPlace differs");
+                    }
+                    if (model.fits(piece, rotation, x, 0)) {
+                        int y = model.drop(piece, rotation, x, 0);
+                        if (board.dropRow(piece, rotation, x, 0) != y) {
+                            return at(seed, op, what + ": dropRow " + board.dropRow(piece, rotation, x, 0)
+                                    + ", expected " + y);
+                        }
+                        board.place(piece, rotation, x, y);
+                        model.place(piece, rotation, x, y);
+                        int lines = board.clearLines();
+                        if (lines != model.clearLines()) {
+                            return at(seed, op, what + ": cleared " + lines + " lines");
+                        }
+                    }
+                } else if (kind < 13) {
+                    int hole = random.nextInt(width);
+                    what = "garbage hole " + hole;
+                    if (board.addGarbage(hole, GameEngine.GARBAGE_COLOR) != model.addGarbage(hole,
+                            GameEngine.GARBAGE_COLOR)) {
+                        return at(seed, op, what + ": overflow differs");
+                    }
+                } else if (kind < 16) {
+                    int row = height - 1 - random.nextInt(Math.min(4, height));
+                    int hole = random.nextInt(width + 1) - 1;
+                    what = "fill row " + row + " hole " + hole;
+                    board.fillRow(row, hole, (byte) 3);
+                    model.fillRow(row, hole, (byte) 3);
+                    int lines = board.clearLines();
+                    if (lines != model.clearLines()) {
+                        return at(seed, op, what + ": cleared " + lines + " lines");
+                    }
+                } else if (kind < 18) {
+                    int col = random.nextInt(width);
+                    int row = random.nextInt(height);
+                    byte color = (byte) (random.nextBoolean() ? 0 : 1 + random.nextInt(7));
+                    what = "set (" + col + "," + row + ") to " + color;
+                    board.setCell(col, row, color);
+                    model.cells[row][col] = color;
+                } else if (kind < 19) {
+                    what = "copy";
+                    Board copy = new Board(width, height);
+                    copy.copyFrom(board);
+                    board = copy;
+                } else {
+                    what = "clear";
+                    board.clear();
+                    model.clear();
+                }
+
+                String difference = compare(board, model);
+                if (difference != null) {
+                    return at(seed, op, what + ": " + difference);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String at(int seed, int op, String what) {
+        return "seed " + seed + ", operation " + op + " (" + what + ")";
+    }
+
+    // First way the board differs from the model, or null
+    private static String compare(Board board, GridBoard model) {
+        int width = model.width;
+        int height = model.height;
+        byte[] colors = new byte[width * height];
+        byte[] occupancy = new byte[width * height];
+        board.copyColorsTo(colors);
+        board.copyOccupancyTo(occupancy, 0);
+        Board fresh = new Board(width, height);
+        for (int row = 0; row < height; row++) {
+            int count = 0;
+            for (int col = 0; col < width; col++) {
+                byte color = model.cells[row][col];
+                boolean filled = color != 0;
+                if (board.isFilled(col, row) != filled || board.getColor(col, row) != color
+                        || colors[row * width + col] != color || occupancy[row * width + col] != (filled ? 1 : 0)) {
+                    return "cell (" + col + "," + row + ") is " + board.getColor(col, row) + ", expected " + color;
+                }
+                if (filled) {
+                    count++;
+                    fresh.setCell(col, row, color);
+                }
+            }
+            if (board.getRowCount(row) != count) {
+                return "row " + row + " counts " + board.getRowCount(row) + ", expected " + count;
+            }
+        }
+        for (int col = 0; col < width; col++) {
+            int top = height;
+            int filled = 0;
+            for (int row = height - 1; row >= 0; row--) {
+                if (model.cells[row][col] != 0) {
+                    top = row;
+                    filled++;
+                }
+            }
+            if (board.getColumnTop(col) != top || board.getHoles(col) != height - top - filled) {
+                return "column " + col + " top " + board.getColumnTop(col) + " holes " + board.getHoles(col)
+                        + ", expected " + top + " and " + (height - top - filled);
+            }
+        }
+        if (board.getHash() != fresh.getHash()) {
+            return "hash differs from a board built cell by cell";
+        }
+        return null;
+    }
+
+    // Seeds per recorded game in the replay check, and the pieces each game runs to
+    private static final int SEEDS_PER_REPLAY = 20;
+    private static final int REPLAY_PIECES = 1500;
+    private static final int SEEKS = 200;
+
+    // Replays: bot games with gravity, hold and restarts (some made from the game over callback, before
+    // the move that ended the game has been reported) recorded to a temporary file, in both generator
+    // modes. Played back from the start each must end on the score recorded with it, and seeking to
+    // random events in random order must land on exactly the state that playing forward to them gives.
+    private static String checkReplay(int seeds) throws IOException {
+        Path file = Files.createTempFile("selftest", ".replay");
+        try {
+            for (int seed = 0; seed < Math.max(1, seeds / SEEDS_PER_REPLAY); seed++) {
+                PieceGenerator.Mode mode = PieceGenerator.Mode.values()[seed % 2];
+                GameEngine engine = new GameEngine(PieceGenerator.create(mode, seed), 5, Board.DEFAULT_WIDTH,
+                        Board.DEFAULT_HEIGHT);
+                engine.setGravity(GameEngine.Gravity.values()[seed % GameEngine.Gravity.values().length]);
+                try (ReplayRecorder recorder = new ReplayRecorder(file, engine, seed, mode)) {
+                    // Half the games restart from inside the game over callback, as the window does
+                    long[] earlier = new long[1];
+                    boolean restartInCallback = seed % 4 >= 2;
+                    engine.setListener(recorder.recording(new GameEngine.Listener() {
+                        @Override
+                        public void gameOver() {
+                            if (restartInCallback) {
+                                earlier[0] += engine.getPiecesPlaced();
+                                engine.reset();
+                            }
+                        }
+                    }));
+                    Bot bot = new HeuristicBot(HeuristicBot.Weights.DEFAULT);
+                    while (earlier[0] + engine.getPiecesPlaced() < REPLAY_PIECES) {
+                        if (engine.isGameOver()) {
+                            earlier[0] += engine.getPiecesPlaced();
+                            engine.reset();
+                        }
+                        engine.step();
+                        bot.play(engine);
+                    }
+                }
+
+                Replay replay = Replay.open(file);
+                long events = replay.getEventCount();
+                Random random = new Random(seed);
+                long[] targets = new long[SEEKS];
+                for (int i = 0; i < SEEKS; i++) {
+                    targets[i] = (long) (random.nextDouble() * (events + 1));
+                }
+                Arrays.sort(targets);
+
+                // Forward from the start, noting the state at every target
+                byte[][] expected = new byte[SEEKS][];
+                Replay.Cursor forward = replay.cursor();
+                for (int i = 0; i < SEEKS; i++) {
+                    while (forward.getEvent() < targets[i] && forward.advance()) {
+                        // Up to the target
+                    }
+                    expected[i] = state(forward.getEngine());
+                }
+                while (forward.advance()) {
+                    // To the end
+                }
+                long[] recorded = replay.getRecorded();
+                GameEngine end = forward.getEngine();
+                if (recorded == null || recorded[0] != end.getScore() || recorded[1] != end.getLinesCleared()
+                        || recorded[2] != end.getPiecesPlaced()) {
+                    return "replay " + seed + " doesn't end on its recorded score";
+                }
+
+                Replay.Cursor seeking = replay.cursor();
+                for (int k = 0; k < SEEKS; k++) {
+                    int i = random.nextInt(SEEKS);
+                    seeking.seekEvent(targets[i]);
+                    if (!Arrays.equals(state(seeking.getEngine()), expected[i])) {
+                        return "replay " + seed + " (" + mode + "), seek to event " + targets[i]
+                                + " differs from playing forward to it";
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+        return null;
+    }
+
+    // Seeds per bot game in the bot check, and the pieces each game runs to
+    private static final int SEEDS_PER_BOT_GAME = 10;
+    private static final int BOT_PIECES = 400;
+
+    // Bots: every placement a bot chooses must be one its play() then makes, which is where scoring
+    // unreachable placements shows. Games at depth 1 and 2 with garbage pushed under the stack, so it
+    // is ragged and tall enough to block turns and slides; after each play the stack must be the old
+    // one with the chosen piece resting somewhere in the chosen rotation and column.
+    private static String checkBot(int seeds) {
+        for (int seed = 0; seed < Math.max(1, seeds / SEEDS_PER_BOT_GAME); seed++) {
+            GameEngine engine = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, seed), 5,
+                    Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+            int depth = 1 + seed % 2;
+            Bot bot = Simulation.createBot(HeuristicBot.Weights.DEFAULT, depth, new TranspositionTable(1 << 14, 64));
+            int[] chosen = new int[1];
+            Bot recorded = e -> chosen[0] = bot.chooseMove(e);
+            Random random = new Random(seed);
+            Board before = new Board(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+            Board expected = new Board(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+            while (!engine.isGameOver() && engine.getPiecesPlaced() < BOT_PIECES) {
+                Board board = engine.getBoard();
+                if (random.nextInt(3) == 0) {
+                    for (int rows = 1 + random.nextInt(2); rows > 0; rows--) {
+                        board.addGarbage(random.nextInt(board.getWidth()), GameEngine.GARBAGE_COLOR);
+                    }
+                }
+                before.copyFrom(board);
+                Tetromino current = engine.getCurrentPiece();
+                Tetromino held = engine.getHeldPiece() != null ? engine.getHeldPiece() : engine.getNextPiece();
+                recorded.play(engine);
+                int move = chosen[0];
+                if (move < 0 || engine.isGameOver()) {
+                    continue;
+                }
+                Tetromino piece = (move >>> 16) != 0 ? held : current;
+                int rotation = (move >>> 8) & 0xFF;
+                int x = (move & 0xFF) - 8;
+                boolean landed = false;
+                for (int y = -4; y < board.getHeight() && !landed; y++) {
+                    if (!before.canPlace(piece, rotation, x, y) || before.canPlace(piece, rotation, x, y + 1)) {
+                        continue;
+                    }
+                    expected.copyFrom(before);
+                    expected.place(piece, rotation, x, y);
+                    expected.clearLines();
+                    landed = expected.getHash() == board.getHash();
+                }
+                if (!landed) {
+                    return "depth " + depth + ", seed " + seed + ", piece " + engine.getPiecesPlaced()
+                            + ": " + piece + " didn't land in rotation " + rotation + " at column " + x;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Perft counts for IOLJ on an empty 10x20 board, as the README gives them
+    private static final long[] PERFT_IOLJ = {17, 153, 5265, 187847};
+    private static final int SEEDS_PER_PERFT = 4;
+
+    // Clockwise turn offsets in the order the engine tries them: in place, then each sideways kick at the
+    // same row and one row up
+    private static final int[][] KICKS = {{0, 0}, {-1, 0}, {-1, -1}, {1, 0}, {1, -1}, {-2, 0}, {-2, -1}, {2, 0},
+            {2, -1}};
+
+    // Perft: the published IOLJ counts, then PlacementGenerator's fill against a plain search over piece
+    // states in hash sets on the grid model, two pieces deep, on small random boards with garbage
+    private static String checkPerft(int seeds) {
+        Tetromino[] iolj = {Tetromino.I, Tetromino.O, Tetromino.L, Tetromino.J};
+        Perft perft = new Perft(iolj, Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+        for (int depth = 1; depth <= PERFT_IOLJ.length; depth++) {
+            long count = perft.count(new Board(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT), depth);
+            if (count != PERFT_IOLJ[depth - 1]) {
+                return "IOLJ perft(" + depth + ") = " + count + ", expected " + PERFT_IOLJ[depth - 1];
+            }
+        }
+
+        for (int seed = 0; seed < Math.max(1, seeds / SEEDS_PER_PERFT); seed++) {
+            Random random = new Random(seed);
+            int width = 4 + random.nextInt(9);
+            int height = 6 + random.nextInt(7);
+            Board board = new Board(width, height);
+            GridBoard model = new GridBoard(width, height);
+            for (int rows = random.nextInt(height / 2 + 1); rows > 0; rows--) {
+                int hole = random.nextInt(width);
+                board.addGarbage(hole, GameEngine.GARBAGE_COLOR);
+                model.addGarbage(hole, GameEngine.GARBAGE_COLOR);
+            }
+            Tetromino[] sequence = new Tetromino[2];
+            for (int i = 0; i < sequence.length; i++) {
+                sequence[i] = Tetromino.TYPES[random.nextInt(Tetromino.TYPES.length)];
+            }
+            Perft small = new Perft(sequence, width, height);
+            for (int depth = 1; depth <= sequence.length; depth++) {
+                long count = small.count(board, depth);
+                long expected = naivePerft(model, sequence, 0, depth);
+                if (count != expected) {
+                    return "seed " + seed + ", " + width + "x" + height + " " + Arrays.toString(sequence)
+                            + ": perft(" + depth + ") = " + count + ", expected " + expected;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static long naivePerft(GridBoard model, Tetromino[] sequence, int next, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long total = 0;
+        for (int[] lock : naiveLocks(model, sequence[next])) {
+            GridBoard child = model.copy();
+            child.place(sequence[next], lock[0], lock[1], lock[2]);
+            child.clearLines();
+            total += naivePerft(child, sequence, next + 1, depth - 1);
+        }
+        return total;
+    }
+
+    // Every (rotation, x, y) the piece can lock at from the spawn by left, right, down and clockwise turns,
+    // one per set of covered cells, leaving out locks above the top. Like the game, states kicked more
+    // than four rows above the board aren't followed.
+    private static List<int[]> naiveLocks(GridBoard model, Tetromino piece) {
+        List<int[]> locks = new ArrayList<>();
+        int spawnX = model.width / 2 - 2;
+        if (!model.fits(piece, 0, spawnX, 0)) {
+            return locks;
+        }
+        Set<List<Integer>> seen = new HashSet<>();
+        Set<Set<Integer>> covered = new HashSet<>();
+        ArrayDeque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[] {0, spawnX, 0});
+        seen.add(Arrays.asList(0, spawnX, 0));
+        while (!queue.isEmpty()) {
+            int[] state = queue.poll();
+            int rotation = state[0];
+            int x = state[1];
+            int y = state[2];
+            List<int[]> moves = new ArrayList<>();
+            moves.add(new int[] {rotation, x - 1, y});
+            moves.add(new int[] {rotation, x + 1, y});
+            moves.add(new int[] {rotation, x, y + 1});
+            for (int[] kick : KICKS) {
+                if (model.fits(piece, (rotation + 1) & 3, x + kick[0], y + kick[1])) {
+                    moves.add(new int[] {(rotation + 1) & 3, x + kick[0], y + kick[1]});
+                    break;
+                }
+            }
+            for (int[] move : moves) {
+                if (move[2] >= -4 && model.fits(piece, move[0], move[1], move[2])
+                        && seen.add(Arrays.asList(move[0], move[1], move[2]))) {
+                    queue.add(move);
+                }
+            }
+
+            if (!model.fits(piece, rotation, x, y + 1)) {
+                Set<Integer> cells = new HashSet<>();
+                boolean inside = true;
+                for (int i = 0; i < 4; i++) {
+                    for (int j = 0; j < 4; j++) {
+                        if (piece.isFilled(rotation, i, j)) {
+                            cells.add((y + i) * model.width + x + j);
+                            inside &= y + i >= 0;
+                        }
+                    }
+                }
+                if (inside && covered.add(cells)) {
+                    locks.add(state);
+                }
+            }
+        }
+        return locks;
+    }
+
+    // Key holds per seed in the auto-shift check; the OS repeat interval and the soft drop rate it assumes
+    private static final int SHIFT_HOLDS = 40;
+    private static final long MILLIS = 1_000_000L;
+    private static final long OS_REPEAT_NANOS = 30 * MILLIS;
+    private static final long SOFT_DROP_NANOS = 1_000_000_000L / 30;
+
+    // AutoShift: random DAS and ARR (0 included), keys held one at a time for random spans, with the OS
+    // repeating a held key as extra presses (Windows, macOS) or as release and press pairs at most 2 ms
+    // apart (X11), and polls at random intervals. Every input it applies must be one this schedule
+    // predicts, in the call it predicts: the press, then repeats due at press + DAS + k * ARR (soft drop
+    // every 1/30 s), each fired by the first call at or after its due time that can fire anything.
+    // Polls aren't made inside an X11 pair's gap, where the key reads as up.
+    private static String checkAutoShift(int seeds) {
+        GameEngine.Input[] keys = {GameEngine.Input.LEFT, GameEngine.Input.RIGHT, GameEngine.Input.DOWN,
+                GameEngine.Input.ROTATE};
+        for (int seed = 0; seed < seeds; seed++) {
+            Random random = new Random(seed);
+            int das = random.nextInt(250);
+            int arr = random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(80);
+
+            // The calls as {time, 0 poll / 1 press / 2 release, input, 1 if it can fire repeats}, and the holds
+            List<long[]> calls = new ArrayList<>();
+            List<long[]> holds = new ArrayList<>();
+            List<long[]> gaps = new ArrayList<>();
+            long t = 0;
+            for (int h = 0; h < SHIFT_HOLDS; h++) {
+                GameEngine.Input key = keys[random.nextInt(keys.length)];
+                long pressed = t + 5 * MILLIS + random.nextInt(300_000) * 2000L;
+                long releasedAt = pressed + MILLIS + random.nextInt(1_000_000) * 1000L;
+                calls.add(new long[] {pressed, 1, key.ordinal(), 1});
+                int noise = random.nextInt(3);
+                for (long a = pressed + OS_REPEAT_NANOS; noise > 0 && a + 2 * MILLIS < releasedAt; a += OS_REPEAT_NANOS) {
+                    if (noise == 1) {
+                        calls.add(new long[] {a, 1, key.ordinal(), 0});
+                    } else {
+                        long gap = random.nextInt(3) * MILLIS;
+                        calls.add(new long[] {a, 2, key.ordinal(), 1});
+                        calls.add(new long[] {a + gap, 1, key.ordinal(), 1});
+                        gaps.add(new long[] {a, a + gap});
+                    }
+                }
+                calls.add(new long[] {releasedAt, 2, key.ordinal(), 1});
+                holds.add(new long[] {key.ordinal(), pressed, releasedAt});
+                t = releasedAt;
+            }
+            // Polls fall on odd nanoseconds, so never at the same time as a key
+            long poll = 1;
+            int g = 0;
+            while (poll < t) {
+                while (g < gaps.size() && gaps.get(g)[1] < poll) {
+                    g++;
+                }
+                if (g == gaps.size() || poll < gaps.get(g)[0]) {
+                    calls.add(new long[] {poll, 0, -1, 1});
+                }
+                poll += 2 * (random.nextInt(8 * (int) MILLIS) + 1);
+            }
+            calls.sort((a, b) -> Long.compare(a[0], b[0]));
+
+            // What AutoShift does: each input with the time of the call that applied it, on a row 10 wide
+            List<long[]> fired = new ArrayList<>();
+            long[] now = new long[1];
+            int[] column = {5};
+            AutoShift shift = new AutoShift(input -> {
+                fired.add(new long[] {input.ordinal(), now[0]});
+                return move(input, column);
+            }, das, arr);
+            for (long[] call : calls) {
+                now[0] = call[0];
+                if (call[1] == 0) {
+                    shift.poll(call[0]);
+                } else if (call[1] == 1) {
+                    shift.press(GameEngine.Input.values()[(int) call[2]], call[0]);
+                } else {
+                    shift.release(GameEngine.Input.values()[(int) call[2]], call[0]);
+                }
+            }
+
+            // What the schedule says
+            List<long[]> expected = new ArrayList<>();
+            column[0] = 5;
+            for (long[] hold : holds) {
+                GameEngine.Input key = GameEngine.Input.values()[(int) hold[0]];
+                long pressed = hold[1];
+                long releasedAt = hold[2];
+                expected.add(new long[] {key.ordinal(), pressed});
+                move(key, column);
+                if (key == GameEngine.Input.DOWN) {
+                    for (long due = pressed + SOFT_DROP_NANOS; due <= releasedAt; due += SOFT_DROP_NANOS) {
+                        expected.add(new long[] {key.ordinal(), firingCall(calls, due)});
+                    }
+                } else if (key != GameEngine.Input.ROTATE && arr > 0) {
+                    for (long due = pressed + das * MILLIS; due <= releasedAt; due += arr * MILLIS) {
+                        expected.add(new long[] {key.ordinal(), firingCall(calls, due)});
+                        move(key, column);
+                    }
+                } else if (key != GameEngine.Input.ROTATE) {
+                    // Instant: all the way at the first call after the delay, then one more try at each call
+                    long due = pressed + das * MILLIS;
+                    boolean first = true;
+                    while (due <= releasedAt) {
+                        long at = firingCall(calls, due);
+                        if (at > releasedAt) {
+                            break;
+                        }
+                        do {
+                            expected.add(new long[] {key.ordinal(), at});
+                        } while (move(key, column) && first);
+                        first = false;
+                        due = at + 1;
+                    }
+                }
+            }
+
+            for (int i = 0; i < Math.max(fired.size(), expected.size()); i++) {
+                long[] actual = i < fired.size() ? fired.get(i) : null;
+                long[] want = i < expected.size() ? expected.get(i) : null;
+                if (actual == null || want == null || actual[0] != want[0] || actual[1] != want[1]) {
+                    return "seed " + seed + " (DAS " + das + " ms, ARR " + arr + " ms): input " + i + " was "
+                            + describe(actual) + ", expected " + describe(want);
+                }
+            }
+
+            String released = checkReleaseAll(random, das, arr);
+            if (released != null) {
+                return "seed " + seed + " (DAS " + das + " ms, ARR " + arr + " ms): " + released;
+            }
+        }
+        return null;
+    }
+
+    // A game over's dialog takes the releases of keys held into it: after releaseAll() nothing repeats,
+    // however long the polls go on, and the next press of the same key applies at once as a fresh one
+    private static String checkReleaseAll(Random random, int das, int arr) {
+        List<long[]> fired = new ArrayList<>();
+        long[] now = new long[1];
+        int[] column = {5};
+        AutoShift shift = new AutoShift(input -> {
+            fired.add(new long[] {input.ordinal(), now[0]});
+            return move(input, column);
+        }, das, arr);
+        GameEngine.Input side = random.nextBoolean() ? GameEngine.Input.LEFT : GameEngine.Input.RIGHT;
+        now[0] = 0;
+        shift.press(side, 0);
+        shift.press(GameEngine.Input.DOWN, 0);
+        now[0] = (das + 1) * MILLIS + random.nextInt(100) * MILLIS;
+        shift.poll(now[0]);
+        shift.releaseAll();
+        fired.clear();
+        column[0] = 5;
+
+        for (int i = 0; i < 20; i++) {
+            now[0] += 1 + random.nextInt(100) * MILLIS;
+            shift.poll(now[0]);
+        }
+        if (!fired.isEmpty()) {
+            return "after releaseAll, " + describe(fired.get(0)) + " still fired";
+        }
+        now[0] += 5 * MILLIS;
+        shift.press(side, now[0]);
+        if (fired.isEmpty() || fired.get(0)[0] != side.ordinal() || fired.get(0)[1] != now[0]) {
+            return "after releaseAll, pressing " + side + " again fired "
+                    + describe(fired.isEmpty() ? null : fired.get(0));
+        }
+        return null;
+    }
+
+    // The time of the first call at or after the given time that fires repeats (not a press of a held key)
+    private static long firingCall(List<long[]> calls, long time) {
+        for (long[] call : calls) {
+            if (call[0] >= time && call[3] == 1) {
+                return call[0];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    // A piece on a row 10 wide: left and right move it until a wall, everything else always succeeds
+    private static boolean move(GameEngine.Input input, int[] column) {
+        if (input == GameEngine.Input.LEFT) {
+            return column[0] > 0 && column[0]-- > 0;
+        } else if (input == GameEngine.Input.RIGHT) {
+            return column[0] < 9 && column[0]++ < 9;
+        }
+        return true;
+    }
+
+    private static String describe(long[] input) {
+        return input == null ? "nothing" : String.format("%s at %.3f ms", GameEngine.Input.values()[(int) input[0]],
+                input[1] / 1e6);
+    }
+
+    private static final int EVALUATE_BOARDS_PER_SEED = 1;
+
+    // The bot's evaluation, column heights worked out incrementally from the piece, against the same
+    // features taken from the board with the piece placed on it. Random stacks full of overhangs, and every
+    // resting position of every piece on them, tucked under overhangs included; aggregate height and
+    // bumpiness are compared on their own (one weight set at a time), for placements that clear nothing.
+    private static String checkEvaluate(int seeds) {
+        HeuristicBot.Weights[] features = {new HeuristicBot.Weights(1, 0, 0, 0), new HeuristicBot.Weights(0, 0, 0, 1)};
+        String[] names = {"aggregate height", "bumpiness"};
+        Board placed = new Board(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+        long tucked = 0;
+        for (int seed = 0; seed < seeds * EVALUATE_BOARDS_PER_SEED; seed++) {
+            Random random = new Random(seed);
+            Board board = new Board(Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT);
+            int width = board.getWidth();
+            int height = board.getHeight();
+            int stack = 4 + random.nextInt(10);
+            for (int row = height - stack; row < height; row++) {
+                int gap = random.nextInt(width);
+                for (int col = 0; col < width; col++) {
+                    if (col != gap && random.nextInt(3) != 0) {
+                        board.setCell(col, row, GameEngine.GARBAGE_COLOR);
+                    }
+                }
+            }
+
+            for (Tetromino piece : Tetromino.TYPES) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    for (int x = -3; x < width; x++) {
+                        for (int y = -2; y < height; y++) {
+                            if (!board.canPlace(piece, rotation, x, y) || board.canPlace(piece, rotation, x, y + 1)) {
+                                continue;
+                            }
+                            placed.copyFrom(board);
+                            placed.place(piece, rotation, x, y);
+                            if (placed.clearLines() > 0) {
+                                continue;
+                            }
+                            if (tuckedUnder(board, piece, rotation, x, y)) {
+                                tucked++;
+                            }
+                            for (int f = 0; f < features.length; f++) {
+                                HeuristicBot bot = new HeuristicBot(features[f]);
+                                bot.load(board);
+                                double score = bot.evaluate(board, piece, rotation, x, y);
+                                HeuristicBot reference = new HeuristicBot(features[f]);
+                                reference.load(placed);
+                                if (Math.abs(score - reference.boardScore()) > 1e-9) {
+                                    return "seed " + seed + ", " + piece + " r" + rotation + " at (" + x + "," + y
+                                            + "): " + names[f] + " " + score + ", expected " + reference.boardScore();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return tucked > 0 ? null : "no placement under an overhang was tried";
+    }
+
+    // Whether some column the piece covers already has a block above the piece's cells in it
+    private static boolean tuckedUnder(Board board, Tetromino piece, int rotation, int x, int y) {
+        for (int j = 0; j < 4; j++) {
+            int top = piece.columnTop(rotation, j);
+            if (top >= 0 && board.getColumnTop(x + j) < y + top) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Board sizes the env check alternates between: the classic one, and one tall enough for the piece's
+    // y to pass what a byte holds
+    private static final int[][] ENV_SIZES = {{10, 20}, {6, 260}};
+    private static final int ENV_GAMES = 4;
+    private static final int ENV_THREADS = 3;
+    private static final int ENV_STEPS = 200;
+    // Each seed hands hundreds of steps to worker threads, so the check takes one seed in this many
+    private static final int ENV_SEED_STRIDE = 4;
+
+    // VectorEnv on one thread and on several, each into a byte[] and into a direct ByteBuffer, against
+    // GameEngines stepped one by one from the same seeds and actions, with observations built cell by cell
+    // from their getters. Hard drops are rare, so pieces fall far on the tall board. A bad action is
+    // refused without stranding the workers.
+    private static String checkEnv(int seeds) {
+        GameEngine.Input[] inputs = GameEngine.Input.values();
+        int[] threads = {1, ENV_THREADS, 1, ENV_THREADS};
+        for (int seed = 0; seed < seeds; seed += ENV_SEED_STRIDE) {
+            Random random = new Random(seed);
+            int[] size = ENV_SIZES[seed / ENV_SEED_STRIDE % ENV_SIZES.length];
+            int preview = 1 + random.nextInt(GameEngine.DEFAULT_PREVIEW);
+            // The first two write into arrays, the others into buffers
+            VectorEnv[] envs = new VectorEnv[threads.length];
+            GameEngine[] engines = new GameEngine[ENV_GAMES];
+            for (int i = 0; i < ENV_GAMES; i++) {
+                engines[i] = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, seed + i), preview,
+                        size[0], size[1]);
+                // As reset() does to the env's games
+                engines[i].reset();
+            }
+            int deepest = 0;
+
+            try {
+                for (int e = 0; e < envs.length; e++) {
+                    envs[e] = new VectorEnv(ENV_GAMES, seed, size[0], size[1], preview, threads[e]);
+                }
+                int observationSize = envs[0].getObservationSize();
+                byte[][] arrays = new byte[envs.length][ENV_GAMES * observationSize];
+                ByteBuffer[] buffers = new ByteBuffer[envs.length];
+                float[][] rewards = new float[envs.length][ENV_GAMES];
+                boolean[][] dones = new boolean[envs.length][ENV_GAMES];
+                for (int e = 0; e < envs.length; e++) {
+                    if (e < 2) {
+                        envs[e].reset(arrays[e]);
+                    } else {
+                        buffers[e] = ByteBuffer.allocateDirect(ENV_GAMES * observationSize);
+                        envs[e].reset(buffers[e]);
+                    }
+                }
+                byte[] expected = new byte[ENV_GAMES * observationSize];
+                float[] expectedRewards = new float[ENV_GAMES];
+                boolean[] expectedDones = new boolean[ENV_GAMES];
+                int[] actions = new int[ENV_GAMES];
+
+                for (int step = 0; step < ENV_STEPS; step++) {
+                    for (int i = 0; i < ENV_GAMES; i++) {
+                        int action = random.nextInt(inputs.length);
+                        actions[i] = inputs[action] == GameEngine.Input.DROP && random.nextInt(50) != 0
+                                ? GameEngine.Input.DOWN.ordinal() : action;
+                    }
+                    for (int e = 0; e < envs.length; e++) {
+                        if (e < 2) {
+                            envs[e].step(actions, arrays[e], rewards[e], dones[e]);
+                        } else {
+                            envs[e].step(actions, buffers[e], rewards[e], dones[e]);
+                            buffers[e].get(0, arrays[e]);
+                        }
+                    }
+                    for (int i = 0; i < ENV_GAMES; i++) {
+                        GameEngine engine = engines[i];
+                        GameEngine.Input action = inputs[actions[i]];
+                        int before = engine.getScore();
+                        engine.apply(action);
+                        if (action != GameEngine.Input.DROP) {
+                            engine.step();
+                        }
+                        expectedRewards[i] = engine.getScore() - before;
+                        expectedDones[i] = engine.isGameOver();
+                        if (expectedDones[i]) {
+                            engine.reset();
+                        }
+                        deepest = Math.max(deepest, engine.getPieceY());
+                        observe(engine, preview, expected, i * observationSize);
+                    }
+                    for (int e = 0; e < envs.length; e++) {
+                        String differs = envDiffers(expected, expectedRewards, expectedDones, arrays[e], rewards[e],
+                                dones[e], observationSize);
+                        if (differs != null) {
+                            return "seed " + seed + " step " + step + " (" + threads[e] + " threads, "
+                                    + (e < 2 ? "byte[]" : "ByteBuffer") + "): " + differs;
+                        }
+                    }
+                }
+
+                // A bad action is refused up front, and the workers are still there for the next step
+                actions[ENV_GAMES - 1] = inputs.length;
+                try {
+                    envs[1].step(actions, arrays[1], rewards[1], dones[1]);
+                    return "seed " + seed + ": action " + inputs.length + " was accepted";
+                } catch (IllegalArgumentException refused) {
+                    actions[ENV_GAMES - 1] = 0;
+                    envs[1].step(actions, arrays[1], rewards[1], dones[1]);
+                }
+            } finally {
+                for (VectorEnv env : envs) {
+                    if (env != null) {
+                        env.close();
+                    }
+                }
+            }
+            if (size[1] > 2 * Byte.MAX_VALUE && deepest <= Byte.MAX_VALUE) {
+                return "seed " + seed + ": no piece fell below row " + Byte.MAX_VALUE;
+            }
+        }
+        return null;
+    }
+
+    // A game's observation as VectorEnv lays it out, cell by cell from the engine's getters
+    private static void observe(GameEngine engine, int preview, byte[] out, int offset) {
+        Board board = engine.getBoard();
+        ByteBuffer buffer = ByteBuffer.wrap(out, offset, out.length - offset);
+        for (int row = 0; row < board.getHeight(); row++) {
+            for (int col = 0; col < board.getWidth(); col++) {
+                buffer.put((byte) (board.isFilled(col, row) ? 1 : 0));
+            }
+        }
+        buffer.put((byte) (engine.getCurrentPiece().ordinal() + 1));
+        buffer.put((byte) engine.getRotation());
+        buffer.putShort((short) engine.getPieceX());
+        buffer.putShort((short) engine.getPieceY());
+        buffer.put((byte) (engine.getHeldPiece() == null ? 0 : engine.getHeldPiece().ordinal() + 1));
+        buffer.put((byte) (engine.isHoldAvailable() ? 1 : 0));
+        for (int p = 0; p < preview; p++) {
+            buffer.put((byte) (engine.getPreview(p).ordinal() + 1));
+        }
+    }
+
+    private static String envDiffers(byte[] expected, float[] expectedRewards, boolean[] expectedDones,
+                                     byte[] observations, float[] rewards, boolean[] dones, int observationSize) {
+        for (int i = 0; i < expectedRewards.length; i++) {
+            if (rewards[i] != expectedRewards[i]) {
+                return "game " + i + ": reward " + rewards[i] + ", expected " + expectedRewards[i];
+            }
+            if (dones[i] != expectedDones[i]) {
+                return "game " + i + ": done " + dones[i] + ", expected " + expectedDones[i];
+            }
+        }
+        for (int k = 0; k < expected.length; k++) {
+            if (observations[k] != expected[k]) {
+                return "game " + k / observationSize + ": observation byte " + k % observationSize + " is "
+                        + observations[k] + ", expected " + expected[k];
+            }
+        }
+        return null;
+    }
+
+    private static byte[] state(GameEngine engine) {
+        Board board = engine.getBoard();
+        ByteBuffer out = ByteBuffer.allocate(64 + engine.getPreviewDepth() + 6 * board.getWidth() * board.getHeight());
+        engine.writeState(out);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    // The reference board: a grid of colours, one array per row, with nothing cached
+    private static final class GridBoard {
+        final int width;
+        final int height;
+        byte[][] cells;
+
+        GridBoard(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.cells = new byte[height][width];
+        }
+
+        void clear() {
+            cells = new byte[height][width];
+        }
+
+        GridBoard copy() {
+            GridBoard copy = new GridBoard(width, height);
+            for (int row = 0; row < height; row++) {
+                copy.cells[row] = cells[row].clone();
+            }
+            return copy;
+        }
+
+        boolean fits(Tetromino piece, int rotation, int x, int y) {
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    if (piece.isFilled(rotation, i, j)) {
+                        int col = x + j;
+                        int row = y + i;
+                        if (col < 0 || col >= width || row >= height || row >= 0 && cells[row][col] != 0) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        int drop(Tetromino piece, int rotation, int x, int y) {
+            while (fits(piece, rotation, x, y + 1)) {
+                y++;
+            }
+            return y;
+        }
+
+        void place(Tetromino piece, int rotation, int x, int y) {
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    if (piece.isFilled(rotation, i, j)) {
+                        cells[y + i][x + j] = piece.colorId;
+                    }
+                }
+            }
+        }
+
+        void fillRow(int row, int hole, byte color) {
+            for (int col = 0; col < width; col++) {
+                cells[row][col] = col == hole ? 0 : color;
+            }
+        }
+
+        // Drop every full row and let everything above fall into its place
+        int clearLines() {
+            byte[][] kept = new byte[height][];
+            int write = height;
+            for (int row = height - 1; row >= 0; row--) {
+                boolean full = true;
+                for (byte cell : cells[row]) {
+                    full &= cell != 0;
+                }
+                if (!full) {
+                    kept[--write] = cells[row];
+                }
+            }
+            int cleared = write;
+            while (write > 0) {
+                kept[--write] = new byte[width];
+            }
+            cells = kept;
+            return cleared;
+        }
+
+        // Lift every row by one and fill the bottom one except the hole; false if the top row had blocks
+        boolean addGarbage(int hole, byte color) {
+            boolean overflow = false;
+            for (byte cell : cells[0]) {
+                overflow |= cell != 0;
+            }
+            System.arraycopy(cells, 1, cells, 0, height - 1);
+            cells[height - 1] = new byte[width];
+            fillRow(height - 1, hole, color);
+            return !overflow;
+        }
+    }
+}
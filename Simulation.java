@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+// Headless batch mode: plays N seeded games as fast as the CPU allows, with a random placement policy
+// or a bot (whose games are cut off after --max-pieces, since a good bot rarely tops out). --depth 1
+// is the greedy bot; deeper searches look ahead through hold and the preview queue and report their
+// search rate and transposition table hit rate.
+// Usage: java Tetris --headless [--games N] [--seed S] [--threads T] [--generator bag|uniform]
+//        [--width W] [--height H] [--bot] [--depth D] [--weights H,L,HOLES,BUMPINESS] [--max-pieces N]
+public final class Simulation {
+
+    private Simulation() {}
+
+    public static void run(String[] args) throws Exception {
+        int games = 1000;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        PieceGenerator.Mode mode = PieceGenerator.Mode.BAG;
+        int width = Board.DEFAULT_WIDTH;
+        int height = Board.DEFAULT_HEIGHT;
+        boolean bot = false;
+        int depth = 1;
+        HeuristicBot.Weights weights = HeuristicBot.Weights.DEFAULT;
+        long maxPieces = 10_000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--games":
+                    games = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--generator":
+                    mode = PieceGenerator.Mode.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--bot":
+                    bot = true;
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "--weights":
+                    weights = HeuristicBot.Weights.parse(args[++i]);
+                    break;
+                case "--max-pieces":
+                    maxPieces = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Lookahead bots share one transposition table, since positions recur across games too
+        TranspositionTable table = bot && depth > 1 ? new TranspositionTable(1 << 20, 256) : null;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            // Each worker plays every threads-th game so results don't depend on scheduling
+            List<Future<long[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                final int stride = threads;
+                final int total = games;
+                final long baseSeed = seed;
+                final PieceGenerator.Mode generator = mode;
+                final int boardWidth = width;
+                final int boardHeight = height;
+                final boolean useBot = bot;
+                final int searchDepth = depth;
+                final HeuristicBot.Weights botWeights = weights;
+                final long pieceLimit = maxPieces;
+                results.add(pool.submit(() -> {
+                    Bot player = useBot ? createBot(botWeights, searchDepth, table) : null;
+                    long pieces = 0;
+                    long scores = 0;
+                    for (int g = first; g < total; g += stride) {
+                        GameEngine engine = player != null
+                                ? playBotGame(player, generator, baseSeed + g, boardWidth, boardHeight, pieceLimit)
+                                : playGame(generator, baseSeed + g, boardWidth, boardHeight);
+                        pieces += engine.getPiecesPlaced();
+                        scores += engine.getScore();
+                    }
+                    long nodes = player instanceof LookaheadBot ? ((LookaheadBot) player).getNodes() : 0;
+                    return new long[] {pieces, scores, nodes};
+                }));
+            }
+
+            long pieces = 0;
+            long scores = 0;
+            long nodes = 0;
+            for (Future<long[]> result : results) {
+                long[] totals = result.get();
+                pieces += totals[0];
+                scores += totals[1];
+                nodes += totals[2];
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("games=%d board=%dx%d pieces=%d totalScore=%d time=%.3fs pieces/s=%.0f%n",
+                    games, width, height, pieces, scores, seconds, pieces / seconds);
+            if (table != null) {
+                System.out.printf("depth=%d nodes=%d nodes/s=%.0f ttHitRate=%.3f ttEvictions=%d%n",
+                        depth, nodes, nodes / seconds, table.getHitRate(), table.getEvictions());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Play one game to the end with a seeded random placement policy
+    static GameEngine playGame(PieceGenerator.Mode mode, long seed, int width, int height) {
+        SplittableRandom policy = new SplittableRandom(seed).split();
+        GameEngine engine = new GameEngine(PieceGenerator.create(mode, seed), GameEngine.DEFAULT_PREVIEW,
+                width, height);
+
+        while (!engine.isGameOver()) {
+            int turns = policy.nextInt(4);
+            for (int r = 0; r < turns; r++) {
+                engine.apply(GameEngine.Input.ROTATE);
+            }
+
+            int targetX = policy.nextInt(width) - 1;
+            GameEngine.Input direction = targetX < engine.getPieceX()
+                    ? GameEngine.Input.LEFT : GameEngine.Input.RIGHT;
+            while (engine.getPieceX() != targetX && engine.apply(direction)) {
+                // Keep sliding until the target column or a wall is reached
+            }
+
+            engine.apply(GameEngine.Input.DROP);
+        }
+        return engine;
+    }
+
+    // The greedy bot for depth 1, else a lookahead bot searching that many placements deep on the
+    // common fork-join pool (with a table of its own if none is given)
+    static Bot createBot(HeuristicBot.Weights weights, int depth, TranspositionTable table) {
+        if (depth <= 1) {
+            return new HeuristicBot(weights);
+        }
+        return new LookaheadBot(weights, depth, ForkJoinPool.commonPool(),
+                table != null ? table : new TranspositionTable(1 << 18, 64));
+    }
+
+    // Play one game with the bot until it tops out or reaches the piece limit
+    static GameEngine playBotGame(Bot bot, PieceGenerator.Mode mode, long seed,
+                                  int width, int height, long maxPieces) {
+        GameEngine engine = new GameEngine(PieceGenerator.create(mode, seed), GameEngine.DEFAULT_PREVIEW,
+                width, height);
+        while (engine.getPiecesPlaced() < maxPieces && bot.play(engine)) {
+            // One placement per call
+        }
+        return engine;
+    }
+}
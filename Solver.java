@@ -0,0 +1,562 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Puzzle solver: from a board, a known piece queue and the piece in hold, finds a sequence of placements
+// that reaches a target, either a perfect clear (an empty board) or a number of cleared lines with no
+// holes left. Pieces move by the engine's rules (PlacementGenerator), and hold works as in the game: the
+// current piece is swapped with the held one, or with the next in the queue when hold is empty.
+//
+// A perfect clear is searched for one height at a time, lowest first: every placement has to stay within
+// that many bottom rows, and a position is dropped as soon as an enclosed empty region within them can't
+// be filled by whole pieces (its size isn't a multiple of 4). Positions proven to fail are remembered in
+// a bounded TranspositionTable. The placements of the first piece are searched in parallel, and the
+// solution whose first placement comes first in generation order wins, so the answer doesn't depend on
+// timing.
+// Usage: java Tetris --solve [--board FILE] [--queue PIECES] [--hold P] [--target pc|lines:N]
+//        [--width W] [--height H] [--cache N]
+public final class Solver {
+
+    // One placement of a solution: the piece, where it locked, whether hold was used to get it, and the
+    // lines it cleared
+    public static final class Step {
+        final Tetromino piece;
+        final int rotation, x, y;
+        final boolean hold;
+        final int lines;
+
+        Step(Tetromino piece, int rotation, int x, int y, boolean hold, int lines) {
+            this.piece = piece;
+            this.rotation = rotation;
+            this.x = x;
+            this.y = y;
+            this.hold = hold;
+            this.lines = lines;
+        }
+
+        @Override
+        public String toString() {
+            return (hold ? "hold " : "") + piece + " rotation=" + rotation + " x=" + x + " y=" + y
+                    + (lines > 0 ? " lines=" + lines : "");
+        }
+    }
+
+    // Bits of a position key given to the lines cleared and to the limit; boards, targets and queues are
+    // held to what fits
+    private static final int ROW_BITS = 20;
+
+    private final Tetromino[] queue;
+    private final Tetromino hold;
+    // Lines to clear with no holes left, or 0 for a perfect clear
+    private final int targetLines;
+    private final ForkJoinPool pool;
+    private final TranspositionTable failures;
+    private final ThreadLocal<Scratch> scratch;
+
+    // Lowest index of a root task that has found a solution; tasks after it stop searching
+    private final AtomicInteger found = new AtomicInteger();
+    private final LongAdder nodes = new LongAdder();
+
+    public Solver(Tetromino[] queue, Tetromino hold, int targetLines, ForkJoinPool pool, TranspositionTable failures) {
+        if (queue.length == 0) {
+            throw new IllegalArgumentException("the queue needs at least one piece");
+        }
+        if (queue.length >= 1 << (61 - 2 * ROW_BITS)) {
+            throw new IllegalArgumentException("the queue can hold at most " + ((1 << (61 - 2 * ROW_BITS)) - 1)
+                    + " pieces");
+        }
+        this.queue = queue;
+        this.hold = hold;
+        this.targetLines = targetLines;
+        this.pool = pool;
+        this.failures = failures;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(queue.length + 1));
+    }
+
+    public static void run(String[] args) throws IOException {
+        String boardFile = null;
+        String pieces = "IOLJTSZ";
+        String held = null;
+        String target = "pc";
+        // 0: the default, or a board file's own width
+        int width = 0;
+        int height = Board.DEFAULT_HEIGHT;
+        int cache = 1 << 20;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--board":
+                    boardFile = args[++i];
+                    break;
+                case "--queue":
+                    pieces = args[++i];
+                    break;
+                case "--hold":
+                    held = args[++i];
+                    break;
+                case "--target":
+                    target = args[++i];
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--cache":
+                    cache = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Tetromino[] queue = new Tetromino[pieces.length()];
+        for (int i = 0; i < queue.length; i++) {
+            queue[i] = piece(pieces.charAt(i));
+        }
+        int targetLines = target.startsWith("lines:") ? Integer.parseInt(target.substring("lines:".length())) : 0;
+        Board board = boardFile != null ? Perft.readBoard(boardFile, width, height)
+                : new Board(width > 0 ? width : Board.DEFAULT_WIDTH, height);
+
+        Solver solver = new Solver(queue, held == null ? null : piece(held.charAt(0)), targetLines,
+                ForkJoinPool.commonPool(), new TranspositionTable(cache, 64));
+        long start = System.nanoTime();
+        List<Step> solution = solver.solve(board);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        if (solution == null) {
+            System.out.println("no solution");
+        } else {
+            print(board, solution);
+        }
+        System.out.printf("time=%.3fs nodes=%d nodes/s=%.0f cacheHitRate=%.3f cacheEvictions=%d%n", seconds,
+                solver.getNodes(), solver.getNodes() / seconds, solver.failures.getHitRate(),
+                solver.failures.getEvictions());
+    }
+
+    private static Tetromino piece(char letter) {
+        return Tetromino.valueOf(String.valueOf(Character.toUpperCase(letter)));
+    }
+
+    // The placements reaching the target from the board, or null if the queue can't reach it
+    public List<Step> solve(Board board) {
+        if (board.getHeight() >= 1 << ROW_BITS || targetLines >= 1 << ROW_BITS) {
+            throw new IllegalArgumentException("the solver handles boards and targets of under " + (1 << ROW_BITS)
+                    + " rows");
+        }
+        if (targetLines > 0) {
+            return solve(board, board.getHeight());
+        }
+
+        // Try each height a perfect clear could fill, lowest first: it has to cover the stack, leave a
+        // multiple of 4 empty cells, and need no more pieces than there are
+        int width = board.getWidth();
+        int stack = 0;
+        int filled = 0;
+        for (int col = 0; col < width; col++) {
+            stack = Math.max(stack, board.getColumnHeight(col));
+        }
+        for (int row = 0; row < board.getHeight(); row++) {
+            filled += board.getRowCount(row);
+        }
+        int pieces = queue.length + (hold != null ? 1 : 0);
+        for (int limit = Math.max(stack, 1); limit <= board.getHeight(); limit++) {
+            int empty = limit * width - filled;
+            if (empty > 4 * pieces) {
+                break;
+            }
+            if (empty % 4 == 0) {
+                List<Step> solution = solve(board, limit);
+                if (solution != null) {
+                    return solution;
+                }
+            }
+        }
+        return null;
+    }
+
+    // One search with every placement kept within the bottom limit rows
+    private List<Step> solve(Board board, int limit) {
+        Scratch s = scratch.get();
+        PlacementGenerator generator = s.generator(board);
+        if (targetLines == 0 && !regionsFit(s, board, limit)) {
+            return null;
+        }
+
+        // One task per placement of the first piece, or of the piece hold would give
+        Tetromino piece = queue[0];
+        Tetromino alternative = hold != null ? hold : queue.length > 1 ? queue[1] : null;
+        List<RootTask> tasks = new ArrayList<>();
+        for (int option = 0; option < 2; option++) {
+            Tetromino played = option == 0 ? piece : alternative;
+            if (played == null || (option == 1 && played == piece)) {
+                continue;
+            }
+            int next = option == 1 && hold == null ? 2 : 1;
+            Tetromino held = option == 0 ? hold : piece;
+            int positions = generator.generate(board, played);
+            for (int p = 0; p < positions; p++) {
+                tasks.add(new RootTask(tasks.size(), board, played, generator.locks[p], option == 1, next, held,
+                        limit));
+            }
+        }
+
+        found.set(Integer.MAX_VALUE);
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        int first = found.get();
+        return first == Integer.MAX_VALUE ? null : tasks.get(first).solution;
+    }
+
+    // Whether some placements reach the target from a position: queue[next] is the piece to play, held the
+    // piece in hold, cleared the lines cleared so far and limit the rows a perfect clear still has to fill.
+    // A successful path is left in the scratch steps from ply on.
+    private boolean search(Scratch s, Board board, int next, Tetromino held, int cleared, int limit, int ply) {
+        if (reached(s, board, cleared)) {
+            s.length = ply;
+            return true;
+        }
+        if (found.get() < s.task) {
+            s.aborted = true;
+            return false;
+        }
+        if (next >= queue.length) {
+            return false;
+        }
+        if (cellsNeeded(s, board, cleared, limit) > 4 * (queue.length - next + (held != null ? 1 : 0))) {
+            return false;
+        }
+
+        // Toward a line target the limit plays no part, and lines beyond the target count the same as the target
+        long key = board.getHash() ^ (targetLines == 0 ? positionKey(next, held, cleared, limit)
+                : positionKey(next, held, Math.min(cleared, targetLines), 0));
+        if (!Double.isNaN(failures.get(key))) {
+            return false;
+        }
+
+        Tetromino piece = queue[next];
+        Tetromino alternative = held != null ? held : next + 1 < queue.length ? queue[next + 1] : null;
+        if (expand(s, board, piece, false, next + 1, held, cleared, limit, ply)) {
+            return true;
+        }
+        if (!s.aborted && alternative != null && alternative != piece
+                && expand(s, board, alternative, true, held != null ? next + 1 : next + 2, piece, cleared, limit, ply)) {
+            return true;
+        }
+        // An aborted search proved nothing about this position
+        if (!s.aborted) {
+            failures.put(key, 0);
+        }
+        return false;
+    }
+
+    // Search below every placement of one piece, building children in the generator's board for the ply
+    private boolean expand(Scratch s, Board board, Tetromino piece, boolean hold, int next, Tetromino held,
+                           int cleared, int limit, int ply) {
+        PlacementGenerator generator = s.generator(board);
+        int positions = generator.generate(board, piece);
+        int[] states = generator.states(ply, positions);
+        Board child = generator.board(ply, board);
+        for (int p = 0; p < positions; p++) {
+            int state = states[p];
+            int rotation = PlacementGenerator.rotationOf(state);
+            int y = PlacementGenerator.yOf(state);
+            if (targetLines == 0 && y + topRow(piece, rotation) < board.getHeight() - limit) {
+                continue;
+            }
+            child.copyFrom(board);
+            child.place(piece, rotation, PlacementGenerator.xOf(state), y);
+            int lines = child.clearLines();
+            s.nodes++;
+            if (targetLines == 0 && !regionsFit(s, child, limit - lines)) {
+                continue;
+            }
+            s.record(ply, piece, state, hold, lines);
+            if (search(s, child, next, held, cleared + lines, limit - lines, ply + 1)) {
+                return true;
+            }
+            if (s.aborted) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Fewest cells still to fill: for a perfect clear every empty cell within the limit, otherwise the
+    // empty cells of the fullest rows that would make up the missing lines
+    private int cellsNeeded(Scratch s, Board board, int cleared, int limit) {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        if (targetLines == 0) {
+            int empty = limit * width;
+            for (int row = height - limit; row < height; row++) {
+                empty -= board.getRowCount(row);
+            }
+            return empty;
+        }
+
+        // Counting sort of the rows by how full they are
+        int[] rows = s.rowsByCount;
+        if (rows.length < width + 1) {
+            rows = new int[width + 1];
+            s.rowsByCount = rows;
+        }
+        Arrays.fill(rows, 0);
+        for (int row = 0; row < height; row++) {
+            rows[board.getRowCount(row)]++;
+        }
+        int missing = targetLines - cleared;
+        int needed = 0;
+        for (int count = width; count >= 0 && missing > 0; count--) {
+            int take = Math.min(missing, rows[count]);
+            needed += take * (width - count);
+            missing -= take;
+        }
+        return needed;
+    }
+
+    private boolean reached(Scratch s, Board board, int cleared) {
+        if (targetLines == 0) {
+            for (int col = 0; col < board.getWidth(); col++) {
+                if (board.getColumnHeight(col) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (cleared < targetLines) {
+            return false;
+        }
+        for (int col = 0; col < board.getWidth(); col++) {
+            if (board.getHoles(col) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parity and hole check for a perfect clear: every empty region within the bottom limit rows has to
+    // be filled by whole pieces, so its size must be a multiple of 4
+    private static boolean regionsFit(Scratch s, Board board, int limit) {
+        int width = board.getWidth();
+        int height = board.getHeight();
+        int top = height - limit;
+        int cells = width * height;
+        if (s.marks.length < cells) {
+            s.marks = new int[cells];
+            s.stack = new int[cells];
+        }
+        int[] marks = s.marks;
+        int[] stack = s.stack;
+        int mark = ++s.mark;
+
+        for (int start = top * width; start < cells; start++) {
+            if (marks[start] == mark || board.isFilled(start % width, start / width)) {
+                continue;
+            }
+            int size = 0;
+            int depth = 0;
+            marks[start] = mark;
+            stack[depth++] = start;
+            while (depth > 0) {
+                int cell = stack[--depth];
+                size++;
+                int col = cell % width;
+                int row = cell / width;
+                if (col > 0 && marks[cell - 1] != mark && !board.isFilled(col - 1, row)) {
+                    marks[cell - 1] = mark;
+                    stack[depth++] = cell - 1;
+                }
+                if (col + 1 < width && marks[cell + 1] != mark && !board.isFilled(col + 1, row)) {
+                    marks[cell + 1] = mark;
+                    stack[depth++] = cell + 1;
+                }
+                if (row > top && marks[cell - width] != mark && !board.isFilled(col, row - 1)) {
+                    marks[cell - width] = mark;
+                    stack[depth++] = cell - width;
+                }
+                if (row + 1 < height && marks[cell + width] != mark && !board.isFilled(col, row + 1)) {
+                    marks[cell + width] = mark;
+                    stack[depth++] = cell + width;
+                }
+            }
+            if (size % 4 != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // First row of the piece's 4x4 grid that has a cell
+    private static int topRow(Tetromino piece, int rotation) {
+        for (int i = 0; i < 4; i++) {
+            if (piece.rowBits(rotation, i) != 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    // Key of everything besides the board that the outcome depends on; the pieces still to come follow
+    // from next, since the queue is fixed
+    private static long positionKey(int next, Tetromino held, int cleared, int limit) {
+        long key = (long) next * 8 + (held == null ? 0 : held.ordinal() + 1);
+        key = (key << ROW_BITS | cleared) << ROW_BITS | limit;
+        return Board.mix(key);
+    }
+
+    // Positions built so far, over every search
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    public TranspositionTable getFailures() {
+        return failures;
+    }
+
+    // Each step drawn on the board it locked on, the new piece by its letter, before its lines clear
+    private static void print(Board start, List<Step> solution) {
+        Board board = new Board(start.getWidth(), start.getHeight());
+        board.copyFrom(start);
+        int first = board.getHeight();
+        for (int col = 0; col < board.getWidth(); col++) {
+            first = Math.min(first, board.getColumnTop(col));
+        }
+        for (Step step : solution) {
+            first = Math.min(first, step.y + topRow(step.piece, step.rotation));
+        }
+
+        System.out.println("solution in " + solution.size() + " placements");
+        for (Step step : solution) {
+            System.out.println(step);
+            for (int row = first; row < board.getHeight(); row++) {
+                StringBuilder line = new StringBuilder();
+                for (int col = 0; col < board.getWidth(); col++) {
+                    int i = row - step.y;
+                    int j = col - step.x;
+                    boolean piece = i >= 0 && i < 4 && j >= 0 && j < 4 && step.piece.isFilled(step.rotation, i, j);
+                    line.append(piece ? step.piece.name().charAt(0) : board.isFilled(col, row) ? '#' : '.');
+                }
+                System.out.println(line);
+            }
+            board.place(step.piece, step.rotation, step.x, step.y);
+            board.clearLines();
+        }
+    }
+
+    // One placement of the first piece (or the hold piece) and everything searched below it
+    private final class RootTask extends RecursiveAction {
+        private final int index;
+        private final Board board;
+        private final Tetromino piece;
+        private final int state;
+        private final boolean hold;
+        private final int next;
+        private final Tetromino held;
+        private final int limit;
+        List<Step> solution;
+
+        RootTask(int index, Board board, Tetromino piece, int state, boolean hold, int next, Tetromino held,
+                 int limit) {
+            this.index = index;
+            this.board = board;
+            this.piece = piece;
+            this.state = state;
+            this.hold = hold;
+            this.next = next;
+            this.held = held;
+            this.limit = limit;
+        }
+
+        @Override
+        protected void compute() {
+            if (found.get() < index) {
+                return;
+            }
+            Scratch s = scratch.get();
+            s.task = index;
+            s.aborted = false;
+            int rotation = PlacementGenerator.rotationOf(state);
+            int x = PlacementGenerator.xOf(state);
+            int y = PlacementGenerator.yOf(state);
+            if (targetLines == 0 && y + topRow(piece, rotation) < board.getHeight() - limit) {
+                return;
+            }
+
+            Board child = s.generator(board).board(0, board);
+            child.copyFrom(board);
+            child.place(piece, rotation, x, y);
+            int lines = child.clearLines();
+            s.nodes++;
+            if ((targetLines != 0 || regionsFit(s, child, limit - lines))
+                    && search(s, child, next, held, lines, limit - lines, 1)) {
+                s.record(0, piece, state, hold, lines);
+                solution = new ArrayList<>(s.length);
+                for (int ply = 0; ply < s.length; ply++) {
+                    int step = s.states[ply];
+                    solution.add(new Step(s.pieces[ply], PlacementGenerator.rotationOf(step),
+                            PlacementGenerator.xOf(step), PlacementGenerator.yOf(step), s.holds[ply], s.lines[ply]));
+                }
+                found.accumulateAndGet(index, Math::min);
+            }
+            nodes.add(s.nodes);
+            s.nodes = 0;
+        }
+    }
+
+    // Search state owned by one thread: the move generator with its per-ply boards, the path being
+    // searched, and the marks of the region check
+    private static final class Scratch {
+        private PlacementGenerator generator;
+        private int width, height;
+
+        // The path searched so far, one placement per ply, and its length once it reaches the target
+        final Tetromino[] pieces;
+        final int[] states;
+        final boolean[] holds;
+        final int[] lines;
+        int length;
+
+        int task;
+        boolean aborted;
+        long nodes;
+        int[] marks = new int[0];
+        int[] stack = new int[0];
+        int mark;
+        int[] rowsByCount = new int[0];
+
+        Scratch(int plies) {
+            pieces = new Tetromino[plies];
+            states = new int[plies];
+            holds = new boolean[plies];
+            lines = new int[plies];
+        }
+
+        // The move generator, sized for the given board
+        PlacementGenerator generator(Board like) {
+            if (generator == null || width != like.getWidth() || height != like.getHeight()) {
+                width = like.getWidth();
+                height = like.getHeight();
+                generator = new PlacementGenerator(width, height);
+            }
+            return generator;
+        }
+
+        void record(int ply, Tetromino piece, int state, boolean hold, int cleared) {
+            pieces[ply] = piece;
+            states[ply] = state;
+            holds[ply] = hold;
+            lines[ply] = cleared;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import javax.swing.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Window for watching a game someone is broadcasting (see Broadcaster), drawn with the game's own board,
+// hold and next panels. A reader thread decodes the stream and publishes a snapshot after each batch of
+// frames; the EDT shows the latest, at most one refresh pending at a time.
+// Usage: java Tetris --spectate HOST [--port P]
+public class Spectator extends JFrame {
+
+    // The game as a broadcast stream describes it, frame by frame. Frames before the first keyframe
+    // (and after one that skipped ahead) make sense only on top of it, so they wait for it.
+    static final class Stream {
+        private int width;
+        private int height;
+        private byte[] colors = new byte[0];
+        private long version;
+        private boolean synced;
+        private Tetromino piece;
+        private int rotation, x, y, ghostY;
+        private Tetromino held;
+        private Tetromino[] preview = new Tetromino[0];
+        private int score, lines, level;
+        private boolean gameOver;
+        private long keyframes;
+        private GameSnapshot snapshot;
+
+        // Apply every whole frame in the buffer (in read mode), leaving a partial one where it is
+        void read(ByteBuffer in) {
+            while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+                int length = in.getShort() & 0xFFFF;
+                int end = in.position() + length;
+                frame(in);
+                in.position(end);
+            }
+        }
+
+        private void frame(ByteBuffer in) {
+            byte type = in.get();
+            if (type == Broadcaster.KEYFRAME) {
+                width = in.getShort();
+                height = in.getShort();
+                if (colors.length != width * height) {
+                    colors = new byte[width * height];
+                } else {
+                    Arrays.fill(colors, (byte) 0);
+                }
+                synced = true;
+                keyframes++;
+            } else if (type != Broadcaster.DELTA || !synced) {
+                return;
+            }
+            score = in.getInt();
+            lines = in.getInt();
+            level = in.getShort();
+            piece = Tetromino.TYPES[in.get()];
+            rotation = in.get();
+            x = in.getShort();
+            y = in.getShort();
+            ghostY = in.getShort();
+            int heldId = in.get();
+            held = heldId == 0 ? null : Tetromino.TYPES[heldId - 1];
+            gameOver = (in.get() & 1) != 0;
+            int depth = in.get();
+            if (preview.length != depth) {
+                preview = new Tetromino[depth];
+            }
+            for (int i = 0; i < depth; i++) {
+                preview[i] = Tetromino.TYPES[in.get()];
+            }
+            if (type == Broadcaster.KEYFRAME || in.getShort(in.position()) != 0) {
+                StackDelta.read(in, colors, width);
+                version++;
+            }
+        }
+
+        // Whether this is the game as the snapshot has it, stack and all
+        boolean matches(GameSnapshot s, byte[] plane) {
+            if (!synced || s.getWidth() != width || s.getHeight() != height || s.getScore() != score
+                    || s.getLinesCleared() != lines || s.getLevel() != level || s.getCurrentPiece() != piece
+                    || s.getRotation() != rotation || s.getPieceX() != x || s.getPieceY() != y
+                    || s.getHeldPiece() != held || s.isGameOver() != gameOver) {
+                return false;
+            }
+            s.copyColorsTo(plane);
+            return Arrays.equals(plane, colors);
+        }
+
+        boolean isSynced() {
+            return synced;
+        }
+
+        long getKeyframes() {
+            return keyframes;
+        }
+
+        // The game as of the last frame read, or null before the first keyframe
+        GameSnapshot snapshot() {
+            if (!synced) {
+                return null;
+            }
+            snapshot = GameSnapshot.of(width, height, colors, version, piece, rotation, x, y, ghostY, held, preview,
+                    score, level, lines, gameOver, snapshot);
+            return snapshot;
+        }
+    }
+
+    private final Tetris.GamePanel gamePanel;
+    private final Tetris.HoldPanel holdPanel;
+    private final Tetris.NextPanel nextPanel;
+    private final JLabel scoreLabel;
+    private final JLabel levelLabel;
+    private final JLabel linesLabel;
+    private final AtomicReference<GameSnapshot> latest = new AtomicReference<>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private GameSnapshot shown;
+
+    public static void run(String[] args) throws IOException {
+        String host = args.length > 1 && !args[1].startsWith("--") ? args[1] : "127.0.0.1";
+        int port = Broadcaster.DEFAULT_PORT;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            }
+        }
+
+        // Read up to the first keyframe here, so the window knows the board's size
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        Stream stream = new Stream();
+        while (!stream.isSynced()) {
+            read(channel, in, stream);
+        }
+        GameSnapshot first = stream.snapshot();
+        SwingUtilities.invokeLater(() -> {
+            Spectator window = new Spectator(first);
+            window.setVisible(true);
+            Thread reader = new Thread(() -> window.follow(channel, in, stream), "spectator");
+            reader.setDaemon(true);
+            reader.start();
+        });
+    }
+
+    private static void read(SocketChannel channel, ByteBuffer in, Stream stream) throws IOException {
+        if (channel.read(in) < 0) {
+            throw new IOException("the broadcast has ended");
+        }
+        in.flip();
+        stream.read(in);
+        in.compact();
+    }
+
+    public Spectator(GameSnapshot first) {
+        setTitle("Tetris - spectating");
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setResizable(false);
+
+        int[] fitted = Tetris.fitBoard(first.getWidth(), first.getHeight(), 0, 0);
+        gamePanel = new Tetris.GamePanel(first.getWidth(), fitted[1], fitted[0]);
+        holdPanel = new Tetris.HoldPanel(fitted[0]);
+        nextPanel = new Tetris.NextPanel(fitted[0]);
+
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        mainPanel.setBackground(new Color(40, 40, 40));
+
+        scoreLabel = new JLabel("Score: 0");
+        levelLabel = new JLabel("Level: 1");
+        linesLabel = new JLabel("Lines: 0");
+        JPanel statsPanel = new JPanel(new GridLayout(3, 1));
+        statsPanel.setBackground(new Color(60, 60, 60));
+        statsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        for (JLabel label : new JLabel[] {scoreLabel, levelLabel, linesLabel}) {
+            label.setForeground(Color.WHITE);
+            statsPanel.add(label);
+        }
+
+        JPanel topPanel = new JPanel(new GridLayout(2, 1, 0, 10));
+        topPanel.setBackground(new Color(40, 40, 40));
+        topPanel.add(holdPanel);
+        topPanel.add(statsPanel);
+        JPanel sidePanel = new JPanel(new BorderLayout(0, 10));
+        sidePanel.setBackground(new Color(40, 40, 40));
+        sidePanel.add(topPanel, BorderLayout.NORTH);
+        sidePanel.add(nextPanel, BorderLayout.CENTER);
+
+        mainPanel.add(gamePanel, BorderLayout.CENTER);
+        mainPanel.add(sidePanel, BorderLayout.EAST);
+        setContentPane(mainPanel);
+        pack();
+        setLocationRelativeTo(null);
+        show(first);
+    }
+
+    // Reader thread: decode the stream as it arrives until it ends
+    private void follow(SocketChannel channel, ByteBuffer in, Stream stream) {
+        try {
+            while (true) {
+                read(channel, in, stream);
+                latest.set(stream.snapshot());
+                if (refreshPending.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(() -> {
+                        refreshPending.set(false);
+                        show(latest.get());
+                    });
+                }
+            }
+        } catch (IOException e) {
+            SwingUtilities.invokeLater(() -> setTitle("Tetris - " + e.getMessage()));
+        }
+    }
+
+    private void show(GameSnapshot snapshot) {
+        gamePanel.show(snapshot);
+        if (shown == null || snapshot.getHeldPiece() != shown.getHeldPiece()) {
+            holdPanel.setHeldPiece(snapshot.getHeldPiece());
+        }
+        if (snapshot.previewDiffers(shown)) {
+            nextPanel.show(snapshot);
+        }
+        scoreLabel.setText("Score: " + snapshot.getScore());
+        levelLabel.setText("Level: " + snapshot.getLevel());
+        linesLabel.setText("Lines: " + snapshot.getLinesCleared());
+        shown = snapshot;
+    }
+}
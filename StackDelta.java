@@ -0,0 +1,75 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Sends a board's stack over the wire as the rows that changed since it was last sent. The sending side
+// keeps a copy of what the receiver has; write() adds every row that differs from it and brings the copy
+// up to date. A locked piece touches a few rows; a line clear shifts the rows above it, which then go too.
+// Layout: row count, then per row its index and one colour byte per column.
+final class StackDelta {
+
+    private final int width;
+    private final int height;
+    // The stack as last written, and the live stack copied out for comparison
+    private final byte[] sent;
+    private final byte[] current;
+
+    StackDelta(int width, int height) {
+        this.width = width;
+        this.height = height;
+        sent = new byte[width * height];
+        current = new byte[width * height];
+    }
+
+    // Bytes write() can take at most
+    int maxBytes() {
+        return 2 + height * (2 + width);
+    }
+
+    // The receiver has lost track (a new game, or a fresh connection): the next write sends every row
+    // that isn't empty
+    void forget() {
+        Arrays.fill(sent, (byte) 0);
+    }
+
+    // Add the rows of the board that changed since the last write; returns how many went
+    int write(Board board, ByteBuffer out) {
+        board.copyColorsTo(current);
+        return write(current, out);
+    }
+
+    // The same for a stack given as its colour plane, e.g. one kept from an earlier moment
+    int write(byte[] colors, ByteBuffer out) {
+        int countAt = out.position();
+        out.putShort((short) 0);
+        int rows = 0;
+        for (int row = 0; row < height; row++) {
+            int from = row * width;
+            if (!rangeEquals(colors, sent, from, width)) {
+                out.putShort((short) row);
+                out.put(colors, from, width);
+                System.arraycopy(colors, from, sent, from, width);
+                rows++;
+            }
+        }
+        out.putShort(countAt, (short) rows);
+        return rows;
+    }
+
+    // Apply rows written by write() to a receiver's copy of the stack, colour bytes row by row
+    static void read(ByteBuffer in, byte[] colors, int width) {
+        int rows = in.getShort();
+        for (int i = 0; i < rows; i++) {
+            int row = in.getShort();
+            in.get(colors, row * width, width);
+        }
+    }
+
+    private static boolean rangeEquals(byte[] a, byte[] b, int from, int length) {
+        for (int i = from, end = from + length; i < end; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+// Hands the engine's state from the logic thread to renderers. The logic thread captures an
+// immutable snapshot and publishes it with one atomic reference swap; renderers read whichever
+// snapshot is current. Neither side ever waits for the other.
+public final class StatePublisher implements Supplier<GameSnapshot> {
+    private final GameEngine engine;
+    private final AtomicReference<GameSnapshot> current = new AtomicReference<>();
+
+    public StatePublisher(GameEngine engine) {
+        this.engine = engine;
+        publish();
+    }
+
+    // Capture and publish the engine's state; call only from the thread driving the engine
+    public GameSnapshot publish() {
+        GameSnapshot snapshot = GameSnapshot.capture(engine, current.get());
+        current.set(snapshot);
+        return snapshot;
+    }
+
+    // The latest published snapshot; safe from any thread
+    @Override
+    public GameSnapshot get() {
+        return current.get();
+    }
+}
@@ -3,41 +3,240 @@ import javax.swing.border.TitledBorder;
 
 import java.awt.*;
 import java.awt.event.*;
-import java.util.Random;
+import java.awt.image.BufferStrategy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Tetris extends JFrame {
     
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--headless")) {
+            Simulation.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench")) {
+            Benchmarks.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--tune")) {
+            Tuner.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--perft")) {
+            Perft.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--solve")) {
+            Solver.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--selftest")) {
+            SelfTest.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--verify-replay")) {
+            Replay.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            GameServer.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--load")) {
+            LoadGenerator.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--versus")) {
+            Versus.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--spectate")) {
+            Spectator.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--fanout")) {
+            FanOutBenchmark.run(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--replay")) {
+            ReplayViewer.run(args);
+            return;
+        }
+        
+        // Optional settings for the windowed game:
+        // --seed S --generator bag|uniform --preview N --loop --width W --height H --cell PX --autopilot [--depth D] [--weights H,L,HOLES,BUMPINESS]
+        // --gravity classic|guideline|20g --das MS --arr MS (0 = instant)
+        // --record FILE | --no-record (every session is recorded under replays/ unless told otherwise)
+        // --broadcast PORT (spectators watch with --spectate HOST --port PORT)
+        long seed = System.nanoTime();
+        PieceGenerator.Mode mode = PieceGenerator.Mode.BAG;
+        int preview = GameEngine.DEFAULT_PREVIEW;
+        int width = Board.DEFAULT_WIDTH;
+        int height = Board.DEFAULT_HEIGHT;
+        // Cell size in pixels, or 0 to fit the board to the screen
+        int cell = 0;
+        boolean activeRendering = false;
+        boolean autopilot = false;
+        int depth = 1;
+        HeuristicBot.Weights weights = HeuristicBot.Weights.DEFAULT;
+        GameEngine.Gravity gravity = GameEngine.Gravity.CLASSIC;
+        int das = AutoShift.DEFAULT_DAS_MILLIS;
+        int arr = AutoShift.DEFAULT_ARR_MILLIS;
+        int broadcastPort = -1;
+        String recordFile = "replays/tetris-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".replay";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--generator":
+                    mode = PieceGenerator.Mode.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--preview":
+                    preview = Integer.parseInt(args[++i]);
+                    break;
+                case "--loop":
+                    activeRendering = true;
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--cell":
+                    cell = Integer.parseInt(args[++i]);
+                    break;
+                case "--autopilot":
+                    autopilot = true;
+                    break;
+                case "--depth":
+                    depth = Integer.parseInt(args[++i]);
+                    break;
+                case "--weights":
+                    weights = HeuristicBot.Weights.parse(args[++i]);
+                    break;
+                case "--gravity":
+                    gravity = parseGravity(args[++i]);
+                    break;
+                case "--das":
+                    das = Integer.parseInt(args[++i]);
+                    break;
+                case "--arr":
+                    arr = Integer.parseInt(args[++i]);
+                    break;
+                case "--record":
+                    recordFile = args[++i];
+                    break;
+                case "--no-record":
+                    recordFile = null;
+                    break;
+                case "--broadcast":
+                    broadcastPort = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        GameEngine engine = new GameEngine(PieceGenerator.create(mode, seed), preview, width, height);
+        engine.setGravity(gravity);
+        boolean useLoop = activeRendering;
+        Bot bot = autopilot ? Simulation.createBot(weights, depth, null) : null;
+        
+        // The recording is finished off (final score and all) however the session ends
+        ReplayRecorder recorder = recordFile == null ? null
+                : new ReplayRecorder(Paths.get(recordFile), engine, seed, mode);
+        if (recorder != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    System.err.println("replay not saved: " + e);
+                }
+            }));
+        }
+        
+        Broadcaster broadcaster = null;
+        if (broadcastPort >= 0) {
+            broadcaster = new Broadcaster(broadcastPort);
+            broadcaster.start();
+            System.out.println("broadcasting on port " + broadcaster.getPort());
+        }
+        
+        int dasMillis = das;
+        int arrMillis = arr;
+        int cellSize = cell;
+        Broadcaster hub = broadcaster;
         SwingUtilities.invokeLater(() -> {
-            Tetris game = new Tetris();
+            Tetris game = new Tetris(engine, useLoop, bot, recorder, dasMillis, arrMillis, cellSize);
+            game.broadcaster = hub;
+            if (hub != null) {
+                hub.publish(game.publisher.get());
+            }
             game.setVisible(true);
+            if (game.loop != null) {
+                game.loop.start();
+            }
         });
     }
     
+    // "20g" for TWENTY_G, else the mode's name in any case
+    static GameEngine.Gravity parseGravity(String name) {
+        return name.equalsIgnoreCase("20g") ? GameEngine.Gravity.TWENTY_G
+                : GameEngine.Gravity.valueOf(name.toUpperCase());
+    }
+    
     // Removed duplicate constructor
     
-    private static final int BOARD_WIDTH = 10;
-    private static final int BOARD_HEIGHT = 20;
-    private static final int BLOCK_SIZE = 30;
-    private static final int BORDER_WIDTH = 5;
+    static final int BLOCK_SIZE = 30;
+    // Smallest cell the board shrinks to before it scrolls instead
+    private static final int MIN_BLOCK_SIZE = 12;
+    static final int BORDER_WIDTH = 5;
     private static final int HOLD_SIZE = 4;
+    private static final Color BORDER_COLOR = new Color(100, 100, 100);
+    // Time between the bot's placements in autopilot mode
+    static final int AUTOPILOT_DELAY = 100;
+    // Gravity timer period on the Timer path, about one frame at 60 Hz
+    private static final int FRAME_MILLIS = 16;
     
-    private final GamePanel gamePanel;
+    private final GameEngine engine;
+    private final StatePublisher publisher;
     private final HoldPanel holdPanel;
     private final NextPanel nextPanel;
     private final JLabel scoreLabel;
     private final JLabel levelLabel;
     private final JLabel linesLabel;
     
+    // Exactly one of these drives the game: the Swing Timer path (default) or the active-rendering loop
+    private final GamePanel gamePanel;
+    private final GameLoop loop;
+    
     private Timer timer;
-    private int delay = 500; // milliseconds
+    // Held keys and their repeats on the Timer path (the loop keeps its own)
+    private AutoShift keys;
+    // When the timer last let time pass in the engine
+    private long lastAdvance;
     private boolean isPaused = false;
     
-    private int score = 0;
-    private int level = 1;
-    private int linesCleared = 0;
+    // Plays the game instead of the keyboard when autopilot is on, else null
+    private final Bot bot;
+    private Timer autopilotTimer;
+    
+    // Records the session for replay, else null
+    private final ReplayRecorder recorder;
     
-    public Tetris() {
+    // Streams every published snapshot to spectators, else null; set before the game starts
+    private Broadcaster broadcaster;
+    
+    // Snapshot the side panels and labels currently show, and whether a newer one is on its way to the EDT
+    private GameSnapshot shown;
+    private final AtomicBoolean sideRefreshPending = new AtomicBoolean();
+    
+    public Tetris(GameEngine engine, boolean activeRendering, Bot bot, ReplayRecorder recorder, int dasMillis,
+            int arrMillis, int cellSize) {
         setTitle("Tetris");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setResizable(false);
@@ -46,12 +245,45 @@ public class Tetris extends JFrame {
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         mainPanel.setBackground(new Color(40, 40, 40));
         
-        gamePanel = new GamePanel();
-        holdPanel = new HoldPanel();
-        nextPanel = new NextPanel();
+        this.engine = engine;
+        this.bot = bot;
+        this.recorder = recorder;
+        publisher = new StatePublisher(engine);
+        
+        int columns = engine.getBoard().getWidth();
+        int[] fitted = fitBoard(columns, engine.getBoard().getHeight(), 0, cellSize);
+        int blockSize = fitted[0];
+        int viewRows = fitted[1];
+        holdPanel = new HoldPanel(blockSize);
+        nextPanel = new NextPanel(blockSize);
+        
+        Component boardView;
+        if (activeRendering) {
+            GameCanvas canvas = new GameCanvas(columns, viewRows, blockSize);
+            loop = new GameLoop(engine, publisher, canvas);
+            loop.setAutoShift(dasMillis, arrMillis);
+            if (bot != null) {
+                loop.setAutopilot(bot, AUTOPILOT_DELAY);
+            }
+            gamePanel = null;
+            boardView = canvas;
+        } else {
+            gamePanel = new GamePanel(columns, viewRows, blockSize);
+            keys = new AutoShift(input -> {
+                if (engine.apply(input)) {
+                    publish();
+                    return true;
+                }
+                return false;
+            }, dasMillis, arrMillis);
+            loop = null;
+            boardView = gamePanel;
+        }
         
-        JPanel sidePanel = new JPanel(new GridLayout(4, 1, 0, 10));
+        JPanel sidePanel = new JPanel(new BorderLayout(0, 10));
         sidePanel.setBackground(new Color(40, 40, 40));
+        JPanel topPanel = new JPanel(new GridLayout(2, 1, 0, 10));
+        topPanel.setBackground(new Color(40, 40, 40));
         
         scoreLabel = new JLabel("Score: 0");
         levelLabel = new JLabel("Level: 1");
@@ -68,86 +300,192 @@ public class Tetris extends JFrame {
         statsPanel.add(levelLabel);
         statsPanel.add(linesLabel);
         
-        sidePanel.add(holdPanel);
-        sidePanel.add(statsPanel);
-        sidePanel.add(nextPanel);
-        sidePanel.add(new JLabel()); // Empty space
+        // The preview queue takes the rest of the column below hold and stats
+        topPanel.add(holdPanel);
+        topPanel.add(statsPanel);
+        sidePanel.add(topPanel, BorderLayout.NORTH);
+        sidePanel.add(nextPanel, BorderLayout.CENTER);
         
-        mainPanel.add(gamePanel, BorderLayout.CENTER);
+        mainPanel.add(boardView, BorderLayout.CENTER);
         mainPanel.add(sidePanel, BorderLayout.EAST);
         
         setContentPane(mainPanel);
         pack();
         setLocationRelativeTo(null);
         
-        timer = new Timer(delay, e -> gamePanel.moveDown());
-        timer.start();
-        
-        // Set up key bindings
-        setupKeyBindings();
+        if (loop != null) {
+            setupLoop();
+        } else {
+            setupTimer();
+        }
     }
     
-    private void setupKeyBindings() {
-        KeyStroke leftKey = KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0);
-        KeyStroke rightKey = KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0);
-        KeyStroke downKey = KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0);
-        KeyStroke rotateKey = KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0);
-        KeyStroke dropKey = KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0);
-        KeyStroke holdKey = KeyStroke.getKeyStroke(KeyEvent.VK_C, 0);
-        KeyStroke pauseKey = KeyStroke.getKeyStroke(KeyEvent.VK_P, 0);
-        
-        // Set up input map and action map
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(leftKey, "left");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(rightKey, "right");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(downKey, "down");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(rotateKey, "rotate");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(dropKey, "drop");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(holdKey, "hold");
-        gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(pauseKey, "pause");
-        
-        gamePanel.getActionMap().put("left", new AbstractAction() {
+    // Cell size and visible rows for a board: the given cell size, or with 0 cells that shrink until the
+    // board fits the screen (less the given height for other controls), but not below MIN_BLOCK_SIZE; a
+    // board still too tall at its cell size shows as many rows as fit and scrolls
+    static int[] fitBoard(int columns, int rows, int reservedHeight, int cellSize) {
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        int availableHeight = screen.height - 4 * BORDER_WIDTH - 60 - reservedHeight;
+        int blockSize = cellSize;
+        if (blockSize <= 0) {
+            int availableWidth = screen.width - HOLD_SIZE * BLOCK_SIZE - 8 * BORDER_WIDTH - 40;
+            int widthFit = Math.max(4, availableWidth / columns);
+            int fit = Math.min(widthFit, availableHeight / rows);
+            blockSize = Math.min(Math.min(BLOCK_SIZE, widthFit), Math.max(MIN_BLOCK_SIZE, fit));
+        }
+        int viewRows = Math.max(4, Math.min(rows, availableHeight / blockSize));
+        return new int[] {blockSize, viewRows};
+    }
+    
+    // Timer path: the engine runs on the EDT, driven by a Swing Timer and key bindings.
+    // Every input, and every frame in which gravity moved the piece, is followed by a publish, and the
+    // views follow the new snapshot. The timer runs once a frame and hands the engine the real time that
+    // passed, so the drop rate doesn't depend on how evenly Swing fires it.
+    private void setupTimer() {
+        engine.setListener(recorded(new GameEngine.Listener() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.moveLeft();
+            public void gameOver() {
+                publish();
+                Tetris.this.gameOver();
+            }
+        }));
+        publish();
+        
+        timer = new Timer(FRAME_MILLIS, e -> {
+            long now = System.nanoTime();
+            long elapsed = now - lastAdvance;
+            // Taken before the engine runs: a game over inside it restarts the game, and that restart's
+            // startTimer() must be the one that counts, not a time from before its dialog
+            lastAdvance = now;
+            int y = engine.getPieceY();
+            long placed = engine.getPiecesPlaced();
+            keys.poll(now);
+            engine.advance(elapsed);
+            if (!engine.isGameOver() && (engine.getPieceY() != y || engine.getPiecesPlaced() != placed)) {
+                publish();
             }
         });
+        startTimer();
         
-        gamePanel.getActionMap().put("right", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.moveRight();
-            }
-        });
+        // The bot places a piece per tick of its own timer, sharing the EDT with the keys and gravity
+        if (bot != null) {
+            autopilotTimer = new Timer(AUTOPILOT_DELAY, e -> {
+                if (!isPaused && bot.play(engine)) {
+                    publish();
+                }
+            });
+            autopilotTimer.start();
+        }
         
-        gamePanel.getActionMap().put("down", new AbstractAction() {
+        // Set up key bindings
+        setupKeyBindings();
+    }
+    
+    private void startTimer() {
+        lastAdvance = System.nanoTime();
+        timer.start();
+    }
+    
+    private void publish() {
+        GameSnapshot snapshot = publisher.publish();
+        if (broadcaster != null) {
+            broadcaster.publish(snapshot);
+        }
+        gamePanel.show(snapshot);
+        showSidePanels(snapshot);
+    }
+    
+    // Loop path: the engine runs on the loop thread and publishes snapshots; the EDT only reads them
+    private void setupLoop() {
+        engine.setListener(recorded(new GameEngine.Listener() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.moveDown();
+            public void gameOver() {
+                loop.setPaused(true);
+                SwingUtilities.invokeLater(Tetris.this::gameOver);
             }
-        });
+        }));
         
-        gamePanel.getActionMap().put("rotate", new AbstractAction() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.rotate();
+        // Coalesce publishes into at most one pending side panel refresh on the EDT
+        loop.setOnPublish(() -> {
+            if (broadcaster != null) {
+                broadcaster.publish(publisher.get());
+            }
+            if (sideRefreshPending.compareAndSet(false, true)) {
+                SwingUtilities.invokeLater(() -> {
+                    sideRefreshPending.set(false);
+                    showSidePanels(publisher.get());
+                });
             }
         });
+        showSidePanels(publisher.get());
         
-        gamePanel.getActionMap().put("drop", new AbstractAction() {
+        // Key presses and releases are timestamped and queued for the loop thread, which does the repeating
+        loop.getCanvas().addKeyListener(new KeyAdapter() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.hardDrop();
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_P) {
+                    togglePause();
+                    return;
+                }
+                GameEngine.Input input = inputFor(e.getKeyCode());
+                if (input != null && !isPaused) {
+                    loop.offer(input, true);
+                }
             }
-        });
-        
-        gamePanel.getActionMap().put("hold", new AbstractAction() {
+            
             @Override
-            public void actionPerformed(ActionEvent e) {
-                if (!isPaused) gamePanel.holdPiece();
+            public void keyReleased(KeyEvent e) {
+                GameEngine.Input input = inputFor(e.getKeyCode());
+                if (input != null) {
+                    loop.offer(input, false);
+                }
             }
         });
-        
-        gamePanel.getActionMap().put("pause", new AbstractAction() {
+    }
+    
+    // The listener, with every change of state recorded on the way when the session is being recorded
+    private GameEngine.Listener recorded(GameEngine.Listener listener) {
+        return recorder != null ? recorder.recording(listener) : listener;
+    }
+    
+    // The game input bound to a key, or null if the key isn't bound
+    static GameEngine.Input inputFor(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.VK_LEFT:
+                return GameEngine.Input.LEFT;
+            case KeyEvent.VK_RIGHT:
+                return GameEngine.Input.RIGHT;
+            case KeyEvent.VK_DOWN:
+                return GameEngine.Input.DOWN;
+            case KeyEvent.VK_UP:
+                return GameEngine.Input.ROTATE;
+            case KeyEvent.VK_SPACE:
+                return GameEngine.Input.DROP;
+            case KeyEvent.VK_C:
+                return GameEngine.Input.HOLD;
+            default:
+                return null;
+        }
+    }
+    
+    // Each game key is bound both pressed and released, and AutoShift does the repeating, so holding a key
+    // behaves the same whatever the platform's key repeat settings
+    private void setupKeyBindings() {
+        InputMap inputMap = gamePanel.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap actionMap = gamePanel.getActionMap();
+        int[] gameKeys = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_UP,
+                KeyEvent.VK_SPACE, KeyEvent.VK_C};
+        for (int keyCode : gameKeys) {
+            GameEngine.Input input = inputFor(keyCode);
+            String name = input.name().toLowerCase();
+            inputMap.put(KeyStroke.getKeyStroke(keyCode, 0, false), name);
+            inputMap.put(KeyStroke.getKeyStroke(keyCode, 0, true), name + "-released");
+            actionMap.put(name, new InputAction(input, true));
+            actionMap.put(name + "-released", new InputAction(input, false));
+        }
+        
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_P, 0), "pause");
+        actionMap.put("pause", new AbstractAction() {
             @Override
             public void actionPerformed(ActionEvent e) {
                 togglePause();
@@ -155,452 +493,257 @@ public class Tetris extends JFrame {
         });
     }
     
+    // Key binding that passes the press or release of an input's key on, stamped with when it arrived;
+    // presses are ignored while the game is paused
+    private class InputAction extends AbstractAction {
+        private final GameEngine.Input input;
+        private final boolean pressed;
+        
+        InputAction(GameEngine.Input input, boolean pressed) {
+            this.input = input;
+            this.pressed = pressed;
+        }
+        
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            long now = System.nanoTime();
+            if (!pressed) {
+                keys.release(input, now);
+            } else if (!isPaused) {
+                keys.press(input, now);
+            }
+        }
+    }
+    
     private void togglePause() {
         isPaused = !isPaused;
+        if (recorder != null) {
+            recorder.paused(isPaused);
+        }
+        if (loop != null) {
+            loop.setPaused(isPaused);
+            return;
+        }
+        gamePanel.setPaused(isPaused);
         if (isPaused) {
+            keys.releaseAll();
             timer.stop();
         } else {
-            timer.start();
+            startTimer();
         }
         gamePanel.repaint();
     }
     
-    private void updateScore(int linesCleared) {
-        int points;
-        switch (linesCleared) {
-            case 1:
-                points = 100 * level;
-                break;
-            case 2:
-                points = 300 * level;
-                break;
-            case 3:
-                points = 500 * level;
-                break;
-            case 4:
-                points = 800 * level;
-                break;
-            default:
-                points = 0;
-        }
-        
-        score += points;
-        this.linesCleared += linesCleared;
-        
-        // Update level every 10 lines
-        level = (this.linesCleared / 10) + 1;
-        
-        // Update delay based on level
-        delay = Math.max(100, 500 - ((level - 1) * 50));
-        timer.setDelay(delay);
-        
-        // Update labels
-        scoreLabel.setText("Score: " + score);
-        levelLabel.setText("Level: " + level);
-        linesLabel.setText("Lines: " + this.linesCleared);
+    // Bring hold, next and the stats labels up to date with one snapshot, touching only what changed
+    private void showSidePanels(GameSnapshot snapshot) {
+        if (shown == null || snapshot.getHeldPiece() != shown.getHeldPiece()) {
+            holdPanel.setHeldPiece(snapshot.getHeldPiece());
+        }
+        if (snapshot.previewDiffers(shown)) {
+            nextPanel.show(snapshot);
+        }
+        if (shown == null || snapshot.getScore() != shown.getScore() || snapshot.getLevel() != shown.getLevel()
+                || snapshot.getLinesCleared() != shown.getLinesCleared()) {
+            // Update labels
+            scoreLabel.setText("Score: " + snapshot.getScore());
+            levelLabel.setText("Level: " + snapshot.getLevel());
+            linesLabel.setText("Lines: " + snapshot.getLinesCleared());
+        }
+        shown = snapshot;
     }
     
     private void gameOver() {
-        timer.stop();
+        if (timer != null) {
+            timer.stop();
+            // The dialog takes focus, so keys let go while it is up never report their release
+            keys.releaseAll();
+        }
+        GameSnapshot last = publisher.get();
         JOptionPane.showMessageDialog(this, 
-                "Game Over!\nScore: " + score + "\nLevel: " + level + "\nLines: " + linesCleared, 
+                "Game Over!\nScore: " + last.getScore() + "\nLevel: " + last.getLevel()
+                        + "\nLines: " + last.getLinesCleared(), 
                 "Game Over", JOptionPane.INFORMATION_MESSAGE);
         resetGame();
     }
     
     private void resetGame() {
-        score = 0;
-        level = 1;
-        linesCleared = 0;
-        delay = 500;
-        
-        scoreLabel.setText("Score: 0");
-        levelLabel.setText("Level: 1");
-        linesLabel.setText("Lines: 0");
-        
-        gamePanel.resetGame();
-        holdPanel.reset();
-        nextPanel.setNextPiece(gamePanel.getNextPiece());
+        // The loop resets the engine on its own thread and publishes the fresh state
+        if (loop != null) {
+            isPaused = false;
+            loop.requestReset();
+            return;
+        }
         
-        timer.setDelay(delay);
-        timer.start();
+        engine.reset();
+        publish();
+        startTimer();
     }
     
-    // Inner class for the main game board
-    private class GamePanel extends JPanel {
-        private Color[][] board;
-        private Tetromino currentPiece;
-        private Tetromino nextPiece;
-        private Tetromino heldPiece;
-        private boolean canHold;
-        
-        public GamePanel() {
+    // Nested class for the main game board; static so it can render without a window.
+    // Moves repaint just the old and new footprints of the piece and its ghost.
+    static class GamePanel extends JPanel {
+        final BoardRenderer renderer;
+        private final int blockSize;
+        private GameSnapshot snapshot;
+        private int viewTop;
+        private boolean isPaused;
+        
+        // Last repainted piece and ghost footprints: x, y, width, height in pixels
+        private final int[] pieceArea = new int[4];
+        private final int[] ghostArea = new int[4];
+        
+        // Shows columns x viewRows cells of blockSize pixels; taller boards scroll
+        public GamePanel(int columns, int viewRows, int blockSize) {
+            this.blockSize = blockSize;
+            this.renderer = new BoardRenderer(blockSize, viewRows);
             setPreferredSize(new Dimension(
-                    BOARD_WIDTH * BLOCK_SIZE + 2 * BORDER_WIDTH, 
-                    BOARD_HEIGHT * BLOCK_SIZE + 2 * BORDER_WIDTH));
+                    columns * blockSize + 2 * BORDER_WIDTH, 
+                    viewRows * blockSize + 2 * BORDER_WIDTH));
             setBackground(Color.BLACK);
-            setBorder(BorderFactory.createLineBorder(new Color(100, 100, 100), BORDER_WIDTH));
-            
-            board = new Color[BOARD_HEIGHT][BOARD_WIDTH];
-            new Random();
-            resetGame();
+            setBorder(BorderFactory.createLineBorder(BORDER_COLOR, BORDER_WIDTH));
         }
         
-        public void resetGame() {
-            // Clear the board
-            for (int row = 0; row < BOARD_HEIGHT; row++) {
-                for (int col = 0; col < BOARD_WIDTH; col++) {
-                    board[row][col] = null;
-                }
-            }
-            
-            currentPiece = createRandomPiece();
-            nextPiece = createRandomPiece();
-            heldPiece = null;
-            canHold = true;
-            
-            if (nextPanel != null) {
-                nextPanel.setNextPiece(nextPiece);
-            }
-            
-            repaint(); // Ensure this is inside a properly defined method with a return type and body
-        }
-        
-        public Tetromino getNextPiece() {
-            return nextPiece;
+        public void setPaused(boolean paused) {
+            isPaused = paused;
         }
         
-        public void holdPiece() {
-            if (!canHold) {
-                return;
-            }
+        // Switch to a newer snapshot, repainting the stack rows and piece areas that changed
+        public void show(GameSnapshot next) {
+            GameSnapshot previous = snapshot;
+            snapshot = next;
             
-            if (heldPiece == null) {
-                heldPiece = currentPiece.getType();
-                currentPiece = nextPiece;
-                nextPiece = createRandomPiece();
-                nextPanel.setNextPiece(nextPiece);
-            } else {
-                Tetromino temp = currentPiece.getType();
-                currentPiece = heldPiece;
-                heldPiece = temp;
-                
-                // Reset position of the new current piece
-                currentPiece.x = BOARD_WIDTH / 2 - 2;
-                currentPiece.y = 0;
-            }
-            
-            holdPanel.setHeldPiece(heldPiece);
-            canHold = false;
-            repaint();
-        }
-        
-        public void moveLeft() {
-            if (canMove(currentPiece, currentPiece.x - 1, currentPiece.y)) {
-                currentPiece.x--;
+            // A scrolled viewport moves everything
+            int top = renderer.viewTop(next);
+            if (top != viewTop) {
+                viewTop = top;
+                // The full repaint draws the piece and ghost here, so the next move must clear these areas
+                Tetromino piece = next.getCurrentPiece();
+                footprint(piece, next.getRotation(), next.getPieceX(), next.getPieceY(), pieceArea);
+                footprint(piece, next.getRotation(), next.getPieceX(), next.getGhostY(), ghostArea);
                 repaint();
+                return;
             }
-        }
-        
-        public void moveRight() {
-            if (canMove(currentPiece, currentPiece.x + 1, currentPiece.y)) {
-                currentPiece.x++;
-                repaint();
-            }
-        }
-        
-        public void moveDown() {
-            if (canMove(currentPiece, currentPiece.x, currentPiece.y + 1)) {
-                currentPiece.y++;
-                repaint();
-            } else {
-                placePiece();
-            }
-        }
-        
-        public void hardDrop() {
-            // Move down as far as possible
-            int dropDistance = 0;
-            while (canMove(currentPiece, currentPiece.x, currentPiece.y + 1)) {
-                currentPiece.y++;
-                dropDistance++;
-            }
-            
-            // Add points for hard drop
-            score += dropDistance * 2;
-            scoreLabel.setText("Score: " + score);
             
-            placePiece();
-            repaint();
-        }
-        
-        public void rotate() {
-            Tetromino rotated = currentPiece.getRotated();
-            
-            // Try standard rotation
-            if (canMove(rotated, currentPiece.x, currentPiece.y)) {
-                currentPiece = rotated;
-                repaint();
-                return;
+            // Bring the back buffer up to date after a lock or line clear
+            int dirty = renderer.syncStack(next);
+            if (dirty >= 0) {
+                int first = dirty >>> 16;
+                int last = dirty & 0xFFFF;
+                repaint(BORDER_WIDTH, BORDER_WIDTH + first * blockSize, 
+                        next.getWidth() * blockSize, (last - first + 1) * blockSize);
             }
             
-            // Wall kick tests - try nearby positions
-            int[] testX = {-1, 1, -2, 2};
-            for (int i = 0; i < testX.length; i++) {
-                if (canMove(rotated, currentPiece.x + testX[i], currentPiece.y)) {
-                    currentPiece = rotated;
-                    currentPiece.x += testX[i];
-                    repaint();
-                    return;
-                }
+            // Repaint where the piece and its ghost were and where they are now
+            if (next.pieceDiffers(previous)) {
+                repaintArea(pieceArea);
+                repaintArea(ghostArea);
                 
-                // Try one row up (for floor kicks)
-                if (canMove(rotated, currentPiece.x + testX[i], currentPiece.y - 1)) {
-                    currentPiece = rotated;
-                    currentPiece.x += testX[i];
-                    currentPiece.y -= 1;
-                    repaint();
-                    return;
-                }
-            }
-        }
-        
-        private boolean canMove(Tetromino piece, int x, int y) {
-            for (int i = 0; i < 4; i++) {
-                for (int j = 0; j < 4; j++) {
-                    if (piece.shape[i][j]) {
-                        int newX = x + j;
-                        int newY = y + i;
-                        
-                        // Check bounds
-                        if (newX < 0 || newX >= BOARD_WIDTH || newY >= BOARD_HEIGHT) {
-                            return false;
-                        }
-                        
-                        // Check collision with placed pieces (only if inside the board)
-                        if (newY >= 0 && board[newY][newX] != null) {
-                            return false;
-                        }
-                    }
-                }
+                Tetromino piece = next.getCurrentPiece();
+                footprint(piece, next.getRotation(), next.getPieceX(), next.getPieceY(), pieceArea);
+                footprint(piece, next.getRotation(), next.getPieceX(), next.getGhostY(), ghostArea);
+                repaintArea(pieceArea);
+                repaintArea(ghostArea);
             }
-            return true;
         }
         
-        private void placePiece() {
-            // Place the current piece on the board
+        // Pixel bounds of a piece's filled cells at the given position
+        private void footprint(Tetromino piece, int rotation, int x, int y, int[] area) {
+            int minRow = 4, maxRow = -1, minCol = 4, maxCol = -1;
             for (int i = 0; i < 4; i++) {
                 for (int j = 0; j < 4; j++) {
-                    if (currentPiece.shape[i][j]) {
-                        int boardY = currentPiece.y + i;
-                        int boardX = currentPiece.x + j;
-                        
-                        // Check if we've reached the top of the board
-                        if (boardY < 0) {
-                            gameOver();
-                            return;
-                        }
-                        
-                        board[boardY][boardX] = currentPiece.color;
+                    if (piece.isFilled(rotation, i, j)) {
+                        minRow = Math.min(minRow, i);
+                        maxRow = Math.max(maxRow, i);
+                        minCol = Math.min(minCol, j);
+                        maxCol = Math.max(maxCol, j);
                     }
                 }
             }
-            
-            // Check for completed lines
-            int linesCleared = clearLines();
-            if (linesCleared > 0) {
-                updateScore(linesCleared);
-            }
-            
-            // Reset for next piece
-            currentPiece = nextPiece;
-            nextPiece = createRandomPiece();
-            nextPanel.setNextPiece(nextPiece);
-            canHold = true;
-            
-            // Check if the new piece can be placed at the starting position
-            if (!canMove(currentPiece, currentPiece.x, currentPiece.y)) {
-                gameOver();
-                return;
-            }
-            
-            repaint();
+            area[0] = BORDER_WIDTH + (x + minCol) * blockSize;
+            area[1] = BORDER_WIDTH + (y + minRow - viewTop) * blockSize;
+            area[2] = (maxCol - minCol + 1) * blockSize;
+            area[3] = (maxRow - minRow + 1) * blockSize;
         }
         
-        private Tetromino createRandomPiece() {
-            Random random = new Random();
-            int type = random.nextInt(7);
-            
-            switch (type) {
-                case 0:
-                    return new TetrominoI();
-                case 1:
-                    return new TetrominoJ();
-                case 2:
-                    return new TetrominoL();
-                case 3:
-                    return new TetrominoO();
-                case 4:
-                    return new TetrominoS();
-                case 5:
-                    return new TetrominoT();
-                case 6:
-                    return new TetrominoZ();
-                default:
-                    return new TetrominoI();
+        private void repaintArea(int[] area) {
+            if (area[2] > 0) {
+                repaint(area[0], area[1], area[2], area[3]);
             }
         }
-
-        private int clearLines() {
-            int linesCleared = 0;
-            
-            for (int row = BOARD_HEIGHT - 1; row >= 0; row--) {
-                boolean isLineFull = true;
-                
-                // Check if the line is full
-                for (int col = 0; col < BOARD_WIDTH; col++) {
-                    if (board[row][col] == null) {
-                        isLineFull = false;
-                        break;
-                    }
-                }
-                
-                if (isLineFull) {
-                    linesCleared++;
-                    
-                    // Move all lines above this one down
-                    for (int r = row; r > 0; r--) {
-                        for (int col = 0; col < BOARD_WIDTH; col++) {
-                            board[r][col] = board[r - 1][col];
-                        }
-                    }
-                    
-                    // Clear the top line
-                    for (int col = 0; col < BOARD_WIDTH; col++) {
-                        board[0][col] = null;
-                    }
-                    
-                    // Since we've moved lines down, we need to check this row again
-                    row++;
-                }
-            }
-            
-            return linesCleared;
-        }
         
         @Override
         protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            // Draw the board
-            for (int row = 0; row < BOARD_HEIGHT; row++) {
-                for (int col = 0; col < BOARD_WIDTH; col++) {
-                    if (board[row][col] != null) {
-                        drawBlock(g2d, col, row, board[row][col]);
-                    }
-                }
-            }
-            
-            // Draw the current piece
-            if (currentPiece != null) {
-                for (int i = 0; i < 4; i++) {
-                    for (int j = 0; j < 4; j++) {
-                        if (currentPiece.shape[i][j]) {
-                            int x = currentPiece.x + j;
-                            int y = currentPiece.y + i;
-                            if (y >= 0) { // Only draw visible blocks
-                                drawBlock(g2d, x, y, currentPiece.color);
-                            }
-                        }
-                    }
-                }
-                
-                // Draw ghost piece (preview of where the piece will land)
-                drawGhostPiece(g2d);
+            if (snapshot == null) {
+                super.paintComponent(g);
+                return;
             }
+            Graphics2D g2d = (Graphics2D) g;
+            renderer.paint(g2d, snapshot, BORDER_WIDTH, BORDER_WIDTH);
             
             // Draw pause overlay
             if (isPaused) {
-                g2d.setColor(new Color(0, 0, 0, 150));
-                g2d.fillRect(0, 0, getWidth(), getHeight());
-                
-                g2d.setColor(Color.WHITE);
-                g2d.setFont(new Font("Arial", Font.BOLD, 24));
-                String pauseText = "PAUSED";
-                FontMetrics fm = g2d.getFontMetrics();
-                g2d.drawString(pauseText, 
-                        (getWidth() - fm.stringWidth(pauseText)) / 2, 
-                        getHeight() / 2);
+                BoardRenderer.paintPauseOverlay(g2d, getWidth(), getHeight());
             }
         }
+    }
+    
+    // Heavyweight board view for the game loop, which renders it through a BufferStrategy
+    static class GameCanvas extends Canvas {
+        private final BoardRenderer renderer;
         
-        private void drawBlock(Graphics2D g2d, int x, int y, Color color) {
-            int px = BORDER_WIDTH + x * BLOCK_SIZE;
-            int py = BORDER_WIDTH + y * BLOCK_SIZE;
-            
-            // Main block color
-            g2d.setColor(color);
-            g2d.fillRect(px, py, BLOCK_SIZE, BLOCK_SIZE);
-            
-            // Highlight (top and left edges)
-            g2d.setColor(color.brighter());
-            g2d.drawLine(px, py, px + BLOCK_SIZE - 1, py); // Top
-            g2d.drawLine(px, py, px, py + BLOCK_SIZE - 1); // Left
-            
-            // Shadow (bottom and right edges)
-            g2d.setColor(color.darker());
-            g2d.drawLine(px + BLOCK_SIZE - 1, py, px + BLOCK_SIZE - 1, py + BLOCK_SIZE - 1); // Right
-            g2d.drawLine(px, py + BLOCK_SIZE - 1, px + BLOCK_SIZE - 1, py + BLOCK_SIZE - 1); // Bottom
-            
-            // Grid border
-            g2d.setColor(Color.BLACK);
-            g2d.drawRect(px, py, BLOCK_SIZE - 1, BLOCK_SIZE - 1);
+        public GameCanvas(int columns, int viewRows, int blockSize) {
+            this.renderer = new BoardRenderer(blockSize, viewRows);
+            setPreferredSize(new Dimension(
+                    columns * blockSize + 2 * BORDER_WIDTH, 
+                    viewRows * blockSize + 2 * BORDER_WIDTH));
+            setBackground(Color.BLACK);
+            setIgnoreRepaint(true);
         }
         
-        private void drawGhostPiece(Graphics2D g2d) {
-            Tetromino ghost = currentPiece.copy();
-            
-            // Move the ghost piece down as far as it will go
-            while (canMove(ghost, ghost.x, ghost.y + 1)) {
-                ghost.y++;
+        @Override
+        public void addNotify() {
+            super.addNotify();
+            createBufferStrategy(2);
+        }
+        
+        // Draw one full frame of a snapshot and flip it to the screen; called from the loop thread only
+        public void render(GameSnapshot snapshot, boolean paused) {
+            BufferStrategy strategy = getBufferStrategy();
+            if (strategy == null) {
+                return;
             }
-            
-            // Draw ghost piece (semi-transparent outline)
-            for (int i = 0; i < 4; i++) {
-                for (int j = 0; j < 4; j++) {
-                    if (ghost.shape[i][j]) {
-                        int x = ghost.x + j;
-                        int y = ghost.y + i;
-                        
-                        if (y >= 0) { // Only draw visible blocks
-                            int px = BORDER_WIDTH + x * BLOCK_SIZE;
-                            int py = BORDER_WIDTH + y * BLOCK_SIZE;
-                            
-                            g2d.setColor(new Color(ghost.color.getRed(), 
-                                                  ghost.color.getGreen(),
-                                                  ghost.color.getBlue(), 80));
-                            g2d.fillRect(px, py, BLOCK_SIZE, BLOCK_SIZE);
-                            g2d.setColor(ghost.color);
-                            g2d.drawRect(px, py, BLOCK_SIZE - 1, BLOCK_SIZE - 1);
+            do {
+                do {
+                    Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        g2d.setColor(BORDER_COLOR);
+                        g2d.fillRect(0, 0, getWidth(), getHeight());
+                        renderer.paint(g2d, snapshot, BORDER_WIDTH, BORDER_WIDTH);
+                        if (paused) {
+                            BoardRenderer.paintPauseOverlay(g2d, getWidth(), getHeight());
                         }
+                    } finally {
+                        g2d.dispose();
                     }
-                }
-            }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
         }
     }
     
-    // Inner class for the hold panel
-    class HoldPanel extends JPanel {
+    // Nested class for the hold panel, drawn with the board's cell size
+    static class HoldPanel extends JPanel {
+        private final int blockSize;
         private Tetromino heldPiece;
         
-        public HoldPanel() {
-            setPreferredSize(new Dimension(HOLD_SIZE * BLOCK_SIZE + 2 * BORDER_WIDTH, 
-                                         HOLD_SIZE * BLOCK_SIZE + 2 * BORDER_WIDTH));
+        public HoldPanel(int blockSize) {
+            this.blockSize = blockSize;
+            setPreferredSize(new Dimension(HOLD_SIZE * blockSize + 2 * BORDER_WIDTH, 
+                                         HOLD_SIZE * blockSize + 2 * BORDER_WIDTH));
             setBackground(new Color(60, 60, 60));
             setBorder(BorderFactory.createTitledBorder(
-                    BorderFactory.createLineBorder(new Color(100, 100, 100), BORDER_WIDTH),
+                    BorderFactory.createLineBorder(BORDER_COLOR, BORDER_WIDTH),
                     "HOLD", 
                     TitledBorder.CENTER, 
                     TitledBorder.TOP,
@@ -613,11 +756,6 @@ public class Tetris extends JFrame {
             repaint();
         }
         
-        public void reset() {
-            heldPiece = null;
-            repaint();
-        }
-        
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
@@ -625,27 +763,18 @@ public class Tetris extends JFrame {
             g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             
             if (heldPiece != null) {
+                TileAtlas tiles = TileAtlas.get(g2d.getDeviceConfiguration(), blockSize);
+                
                 // Center the piece in the panel
-                int offsetX = (getWidth() - 4 * BLOCK_SIZE) / 2;
-                int offsetY = (getHeight() - 4 * BLOCK_SIZE) / 2;
+                int offsetX = (getWidth() - 4 * blockSize) / 2;
+                int offsetY = (getHeight() - 4 * blockSize) / 2;
                 
                 // Draw the held piece
                 for (int i = 0; i < 4; i++) {
                     for (int j = 0; j < 4; j++) {
-                        if (heldPiece.shape[i][j]) {
-                            int px = offsetX + j * BLOCK_SIZE;
-                            int py = offsetY + i * BLOCK_SIZE;
-                            
-                            g2d.setColor(heldPiece.color);
-                            g2d.fillRect(px, py, BLOCK_SIZE - 1, BLOCK_SIZE - 1);
-                            
-                            g2d.setColor(heldPiece.color.brighter());
-                            g2d.drawLine(px, py, px + BLOCK_SIZE - 2, py);
-                            g2d.drawLine(px, py, px, py + BLOCK_SIZE - 2);
-                            
-                            g2d.setColor(heldPiece.color.darker());
-                            g2d.drawLine(px + BLOCK_SIZE - 2, py, px + BLOCK_SIZE - 2, py + BLOCK_SIZE - 2);
-                            g2d.drawLine(px, py + BLOCK_SIZE - 2, px + BLOCK_SIZE - 2, py + BLOCK_SIZE - 2);
+                        if (heldPiece.isFilled(0, i, j)) {
+                            tiles.draw(g2d, TileAtlas.Style.PREVIEW, heldPiece.colorId, 
+                                    offsetX + j * blockSize, offsetY + i * blockSize);
                         }
                     }
                 }
@@ -653,16 +782,18 @@ public class Tetris extends JFrame {
         }
     }
     
-    // Inner class for the next piece panel
-    class NextPanel extends JPanel {
-        private Tetromino nextPiece;
-        
-        public NextPanel() {
-            setPreferredSize(new Dimension(HOLD_SIZE * BLOCK_SIZE + 2 * BORDER_WIDTH, 
-                                         HOLD_SIZE * BLOCK_SIZE + 2 * BORDER_WIDTH));
+    // Nested class for the preview queue: the next piece at the board's cell size, the rest below it at half
+    static class NextPanel extends JPanel {
+        private final int blockSize;
+        private GameSnapshot snapshot;
+        
+        public NextPanel(int blockSize) {
+            this.blockSize = blockSize;
+            setPreferredSize(new Dimension(HOLD_SIZE * blockSize + 2 * BORDER_WIDTH, 
+                                         HOLD_SIZE * blockSize + 2 * BORDER_WIDTH));
             setBackground(new Color(60, 60, 60));
             setBorder(BorderFactory.createTitledBorder(
-                    BorderFactory.createLineBorder(new Color(100, 100, 100), BORDER_WIDTH),
+                    BorderFactory.createLineBorder(BORDER_COLOR, BORDER_WIDTH),
                     "NEXT", 
                     TitledBorder.CENTER, 
                     TitledBorder.TOP,
@@ -670,223 +801,61 @@ public class Tetris extends JFrame {
                     Color.WHITE));
         }
         
-        public void setNextPiece(Tetromino piece) {
-            this.nextPiece = piece;
+        public void show(GameSnapshot snapshot) {
+            this.snapshot = snapshot;
             repaint();
         }
         
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
+            if (snapshot == null) {
+                return;
+            }
             Graphics2D g2d = (Graphics2D) g;
             g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
             
-            if (nextPiece != null) {
-                // Center the piece in the panel
-                int offsetX = (getWidth() - 4 * BLOCK_SIZE) / 2;
-                int offsetY = (getHeight() - 4 * BLOCK_SIZE) / 2;
-                
-                // Draw the next piece
-                for (int i = 0; i < 4; i++) {
-                    for (int j = 0; j < 4; j++) {
-                        if (nextPiece.shape[i][j]) {
-                            int px = offsetX + j * BLOCK_SIZE;
-                            int py = offsetY + i * BLOCK_SIZE;
-                            
-                            g2d.setColor(nextPiece.color);
-                            g2d.fillRect(px, py, BLOCK_SIZE - 1, BLOCK_SIZE - 1);
-                            
-                            g2d.setColor(nextPiece.color.brighter());
-                            g2d.drawLine(px, py, px + BLOCK_SIZE - 2, py);
-                            g2d.drawLine(px, py, px, py + BLOCK_SIZE - 2);
-                            
-                            g2d.setColor(nextPiece.color.darker());
-                            g2d.drawLine(px + BLOCK_SIZE - 2, py, px + BLOCK_SIZE - 2, py + BLOCK_SIZE - 2);
-                            g2d.drawLine(px, py + BLOCK_SIZE - 2, px + BLOCK_SIZE - 2, py + BLOCK_SIZE - 2);
-                        }
-                    }
+            Insets insets = getInsets();
+            int py = insets.top + blockSize / 2;
+            int bottom = getHeight() - insets.bottom;
+            
+            // Stack the queue top to bottom while it still fits
+            for (int n = 0; n < snapshot.getPreviewDepth(); n++) {
+                int size = n == 0 ? blockSize : blockSize / 2;
+                Tetromino piece = snapshot.getPreview(n);
+                if (py + 2 * size > bottom) {
+                    break;
                 }
+                drawPiece(g2d, piece, py, size);
+                py += 2 * size + blockSize / 2;
             }
         }
-    }
-    
-    // Abstract Tetromino class
-    abstract class Tetromino {
-        protected boolean[][] shape;
-        protected Color color;
-        protected int x, y;
-        
-        public Tetromino() {
-            shape = new boolean[4][4];
-            x = BOARD_WIDTH / 2 - 2;
-            y = 0;
-        }
-        
-        // Get a new instance of the same type of piece
-        public abstract Tetromino getType();
-        
-        // Get a rotated copy
-        public Tetromino getRotated() {
-            Tetromino rotated = getType();
-            rotated.x = this.x;
-            rotated.y = this.y;
-            
-            // Rotate the shape (90 degrees clockwise)
+        
+        // Draw a piece in its spawn rotation, centred horizontally with its top at y
+        private void drawPiece(Graphics2D g2d, Tetromino piece, int y, int size) {
+            // Bounding box of the filled cells
+            int minRow = 4, minCol = 4, maxCol = -1;
             for (int i = 0; i < 4; i++) {
                 for (int j = 0; j < 4; j++) {
-                    rotated.shape[j][3 - i] = this.shape[i][j];
+                    if (piece.isFilled(0, i, j)) {
+                        minRow = Math.min(minRow, i);
+                        minCol = Math.min(minCol, j);
+                        maxCol = Math.max(maxCol, j);
+                    }
                 }
             }
+            int offsetX = (getWidth() - (maxCol - minCol + 1) * size) / 2 - minCol * size;
+            int offsetY = y - minRow * size;
             
-            return rotated;
-        }
-        
-        // Create a copy of this piece
-        public Tetromino copy() {
-            Tetromino copy = getType();
-            copy.x = this.x;
-            copy.y = this.y;
-            
+            TileAtlas tiles = TileAtlas.get(g2d.getDeviceConfiguration(), size);
             for (int i = 0; i < 4; i++) {
                 for (int j = 0; j < 4; j++) {
-                    copy.shape[i][j] = this.shape[i][j];
+                    if (piece.isFilled(0, i, j)) {
+                        tiles.draw(g2d, TileAtlas.Style.PREVIEW, piece.colorId, 
+                                offsetX + j * size, offsetY + i * size);
+                    }
                 }
             }
-            
-            return copy;
-        }
-    }
-    
-    // Tetromino implementations for each shape
-    private class TetrominoI extends Tetromino {
-        public TetrominoI() {
-            super();
-            color = new Color(0, 240, 240); // Cyan
-            
-            // ****
-            shape[1][0] = true;
-            shape[1][1] = true;
-            shape[1][2] = true;
-            shape[1][3] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoI();
-        }
-    }
-    
-    private class TetrominoJ extends Tetromino {
-        public TetrominoJ() {
-            super();
-            color = new Color(0, 0, 240); // Blue
-            
-            // *
-            // ***
-            shape[0][0] = true;
-            shape[1][0] = true;
-            shape[1][1] = true;
-            shape[1][2] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoJ();
-        }
-    }
-    
-    private class TetrominoL extends Tetromino {
-        public TetrominoL() {
-            super();
-            color = new Color(240, 160, 0); // Orange
-            
-            //   *
-            // ***
-            shape[0][2] = true;
-            shape[1][0] = true;
-            shape[1][1] = true;
-            shape[1][2] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoL();
-        }
-    }
-    
-    private class TetrominoO extends Tetromino {
-        public TetrominoO() {
-            super();
-            color = new Color(240, 240, 0); // Yellow
-            
-            // **
-            // **
-            shape[0][0] = true;
-            shape[0][1] = true;
-            shape[1][0] = true;
-            shape[1][1] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoO();
-        }
-    }
-    
-    private class TetrominoS extends Tetromino {
-        public TetrominoS() {
-            super();
-            color = new Color(0, 240, 0); // Green
-            
-            //  **
-            // **
-            shape[0][1] = true;
-            shape[0][2] = true;
-            shape[1][0] = true;
-            shape[1][1] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoS();
-        }
-    }
-    
-    private class TetrominoT extends Tetromino {
-        public TetrominoT() {
-            super();
-            color = new Color(160, 0, 240); // Purple
-            
-            //  *
-            // ***
-            shape[0][1] = true;
-            shape[1][0] = true;
-            shape[1][1] = true;
-            shape[1][2] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoT();
-        }
-    }
-    
-    private class TetrominoZ extends Tetromino {
-        public TetrominoZ() {
-            super();
-            color = new Color(240, 0, 0); // Red
-            
-            // **
-            //  **
-            shape[0][0] = true;
-            shape[0][1] = true;
-            shape[1][1] = true;
-            shape[1][2] = true;
-        }
-        
-        @Override
-        public Tetromino getType() {
-            return new TetrominoZ();
         }
     }
 }
\ No newline at end of file
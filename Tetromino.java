@@ -0,0 +1,97 @@
+// Tetromino types as flyweights, with all four rotation states precomputed
+public enum Tetromino {
+    // ****
+    I(1, 1, 0, 1, 1, 1, 2, 1, 3),
+
+    // *
+    // ***
+    J(2, 0, 0, 1, 0, 1, 1, 1, 2),
+
+    //   *
+    // ***
+    L(3, 0, 2, 1, 0, 1, 1, 1, 2),
+
+    // **
+    // **
+    O(4, 0, 0, 0, 1, 1, 0, 1, 1),
+
+    //  **
+    // **
+    S(5, 0, 1, 0, 2, 1, 0, 1, 1),
+
+    //  *
+    // ***
+    T(6, 0, 1, 1, 0, 1, 1, 1, 2),
+
+    // **
+    //  **
+    Z(7, 0, 0, 0, 1, 1, 1, 1, 2);
+
+    // Shared copy of values(), which would otherwise allocate on every call
+    static final Tetromino[] TYPES = values();
+
+    // Colour id stored in the board's colour plane (0 = empty)
+    final byte colorId;
+
+    // 4x4 shape of each rotation as a 16-bit mask (bit i * 4 + j = row i, column j)
+    private final short[] masks = new short[4];
+
+    // Highest and lowest filled shape rows in each column of each rotation (index rotation * 4 + j),
+    // -1 if the column is empty
+    private final byte[] tops = new byte[16];
+    private final byte[] bottoms = new byte[16];
+
+    Tetromino(int colorId, int... cells) {
+        this.colorId = (byte) colorId;
+
+        int mask = 0;
+        for (int c = 0; c < cells.length; c += 2) {
+            mask |= 1 << (cells[c] * 4 + cells[c + 1]);
+        }
+
+        // Rotate the shape (90 degrees clockwise) for each following state
+        for (int r = 0; r < 4; r++) {
+            masks[r] = (short) mask;
+            for (int j = 0; j < 4; j++) {
+                tops[r * 4 + j] = -1;
+                bottoms[r * 4 + j] = -1;
+                for (int i = 3; i >= 0; i--) {
+                    if ((mask & (1 << (i * 4 + j))) != 0) {
+                        tops[r * 4 + j] = (byte) i;
+                        if (bottoms[r * 4 + j] < 0) {
+                            bottoms[r * 4 + j] = (byte) i;
+                        }
+                    }
+                }
+            }
+            int rotated = 0;
+            for (int i = 0; i < 4; i++) {
+                for (int j = 0; j < 4; j++) {
+                    if ((mask & (1 << (i * 4 + j))) != 0) {
+                        rotated |= 1 << (j * 4 + (3 - i));
+                    }
+                }
+            }
+            mask = rotated;
+        }
+    }
+
+    // Occupancy bits of one shape row (bit j = column j)
+    public int rowBits(int rotation, int i) {
+        return (masks[rotation] >>> (i * 4)) & 0xF;
+    }
+
+    // Highest filled shape row in column j, or -1 if the column is empty
+    public int columnTop(int rotation, int j) {
+        return tops[rotation * 4 + j];
+    }
+
+    // Lowest filled shape row in column j, or -1 if the column is empty
+    public int columnBottom(int rotation, int j) {
+        return bottoms[rotation * 4 + j];
+    }
+
+    public boolean isFilled(int rotation, int i, int j) {
+        return (masks[rotation] & (1 << (i * 4 + j))) != 0;
+    }
+}
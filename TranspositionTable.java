@@ -0,0 +1,135 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded, thread-safe map from 64-bit position keys to search values, so a position reached by
+// different move orders is searched once. A key maps to one set of WAYS slots; sets are spread over
+// independently locked stripes so searching threads rarely wait on each other. A full set evicts by
+// the clock algorithm: a hit marks its slot referenced, and the set's hand passes over (and clears)
+// referenced slots until it finds one to replace.
+public final class TranspositionTable {
+    private static final int WAYS = 4;
+
+    private final long[] keys;
+    private final double[] values;
+    private final boolean[] referenced;
+    private final byte[] hands;
+    private final int setMask;
+
+    private final Object[] locks;
+    private final int stripeMask;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Room for at least the given number of entries, locked in the given number of stripes
+    // (both rounded up to powers of two)
+    public TranspositionTable(int capacity, int stripes) {
+        int sets = powerOfTwo((capacity + WAYS - 1) / WAYS);
+        keys = new long[sets * WAYS];
+        values = new double[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new byte[sets];
+        setMask = sets - 1;
+
+        int lockCount = Math.min(sets, powerOfTwo(stripes));
+        locks = new Object[lockCount];
+        for (int i = 0; i < lockCount; i++) {
+            locks[i] = new Object();
+        }
+        stripeMask = lockCount - 1;
+    }
+
+    // Value stored for the key, or NaN if there is none
+    public double get(long key) {
+        key = nonZero(key);
+        int set = setOf(key);
+        synchronized (locks[set & stripeMask]) {
+            for (int slot = set * WAYS; slot < (set + 1) * WAYS; slot++) {
+                if (keys[slot] == key) {
+                    referenced[slot] = true;
+                    hits.increment();
+                    return values[slot];
+                }
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    public void put(long key, double value) {
+        key = nonZero(key);
+        int set = setOf(key);
+        synchronized (locks[set & stripeMask]) {
+            int base = set * WAYS;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (keys[slot] == key || keys[slot] == 0) {
+                    keys[slot] = key;
+                    values[slot] = value;
+                    return;
+                }
+            }
+
+            // Full set: advance the clock hand to the first slot not used since it last passed
+            int hand = hands[set];
+            while (referenced[base + hand]) {
+                referenced[base + hand] = false;
+                hand = (hand + 1) & (WAYS - 1);
+            }
+            keys[base + hand] = key;
+            values[base + hand] = value;
+            hands[set] = (byte) ((hand + 1) & (WAYS - 1));
+            evictions.increment();
+        }
+    }
+
+    // Drop every entry and reset the counters
+    public void clear() {
+        for (int set = 0; set <= setMask; set++) {
+            synchronized (locks[set & stripeMask]) {
+                Arrays.fill(keys, set * WAYS, (set + 1) * WAYS, 0);
+                Arrays.fill(referenced, set * WAYS, (set + 1) * WAYS, false);
+            }
+        }
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    // Share of lookups that found an entry, 0 before the first lookup
+    public double getHitRate() {
+        long found = hits.sum();
+        long total = found + misses.sum();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    private int setOf(long key) {
+        return (int) (key ^ (key >>> 32)) & setMask;
+    }
+
+    // Smallest power of two at least n (and at least 1)
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    // Key 0 marks an empty slot
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Genetic tuner for the bot's evaluation weights, headless. Every individual plays the same fixed set of
+// seeded games, so fitness (mean lines cleared) is comparable across individuals and generations. Games
+// run in parallel across cores. Each evaluated generation is checkpointed to disk, and a run started
+// with an existing checkpoint resumes after the generation it holds.
+// Usage: java Tetris --tune [--population P] [--generations G] [--games N] [--max-pieces M] [--seed S]
+//        [--threads T] [--width W] [--height H] [--checkpoint FILE]
+public final class Tuner {
+
+    private Tuner() {}
+
+    // One set of weights and the fitness it earned (NaN until its games have been played)
+    static final class Individual {
+        final double[] genes;
+        double fitness = Double.NaN;
+
+        Individual(double[] genes) {
+            this.genes = genes;
+        }
+
+        HeuristicBot.Weights weights() {
+            return new HeuristicBot.Weights(genes[0], genes[1], genes[2], genes[3]);
+        }
+    }
+
+    public static void run(String[] args) throws Exception {
+        int populationSize = 100;
+        int generations = 20;
+        int games = 10;
+        long maxPieces = 500;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int width = Board.DEFAULT_WIDTH;
+        int height = Board.DEFAULT_HEIGHT;
+        String checkpointFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--population":
+                    populationSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--generations":
+                    generations = Integer.parseInt(args[++i]);
+                    break;
+                case "--games":
+                    games = Integer.parseInt(args[++i]);
+                    break;
+                case "--max-pieces":
+                    maxPieces = Long.parseLong(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--width":
+                    width = Integer.parseInt(args[++i]);
+                    break;
+                case "--height":
+                    height = Integer.parseInt(args[++i]);
+                    break;
+                case "--checkpoint":
+                    checkpointFile = args[++i];
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // Fitness is only comparable between runs with the same games, so a checkpoint records them
+        String settings = "population=" + populationSize + " games=" + games + " maxPieces=" + maxPieces
+                + " seed=" + seed + " board=" + width + "x" + height;
+        Path checkpoint = checkpointFile == null ? null : Paths.get(checkpointFile);
+
+        List<Individual> population;
+        int generation;
+        if (checkpoint != null && Files.exists(checkpoint)) {
+            population = new ArrayList<>();
+            int saved = readCheckpoint(checkpoint, settings, population);
+            System.out.printf("resumed from %s after generation %d%n", checkpoint, saved);
+            if (saved + 1 < generations) {
+                population = breed(population, new SplittableRandom(seed + saved * 0x9E3779B97F4A7C15L));
+            }
+            generation = saved + 1;
+        } else {
+            population = randomPopulation(populationSize, new SplittableRandom(seed));
+            generation = 0;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (; generation < generations; generation++) {
+                long start = System.nanoTime();
+                long[] played = evaluate(pool, population, seed, games, maxPieces, width, height);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                population.sort(Comparator.comparingDouble((Individual individual) -> individual.fitness).reversed());
+                if (checkpoint != null) {
+                    writeCheckpoint(checkpoint, settings, generation, population);
+                }
+
+                double mean = population.stream().mapToDouble(individual -> individual.fitness).average().orElse(0);
+                Individual best = population.get(0);
+                System.out.printf("generation=%d games=%d time=%.3fs games/s=%.0f pieces/s=%.0f best=%.2f mean=%.2f "
+                                + "weights=%s%n",
+                        generation, played[0], seconds, played[0] / seconds, played[1] / seconds, best.fitness, mean,
+                        best.weights());
+
+                if (generation + 1 < generations) {
+                    population = breed(population, new SplittableRandom(seed + generation * 0x9E3779B97F4A7C15L));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Random weights, each individual scaled to unit length
+    private static List<Individual> randomPopulation(int size, SplittableRandom random) {
+        List<Individual> population = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            double[] genes = new double[4];
+            for (int g = 0; g < genes.length; g++) {
+                genes[g] = random.nextDouble() * 2 - 1;
+            }
+            population.add(new Individual(normalize(genes)));
+        }
+        return population;
+    }
+
+    // Play the fixed games for every individual not yet scored; returns the games played and pieces placed
+    private static long[] evaluate(ExecutorService pool, List<Individual> population, long seed, int games,
+                                 long maxPieces, int width, int height) throws Exception {
+        List<Future<long[]>> results = new ArrayList<>();
+        List<Individual> pending = new ArrayList<>();
+        for (Individual individual : population) {
+            if (!Double.isNaN(individual.fitness)) {
+                continue;
+            }
+            HeuristicBot.Weights weights = individual.weights();
+            pending.add(individual);
+            results.add(pool.submit(() -> {
+                HeuristicBot bot = new HeuristicBot(weights);
+                long lines = 0;
+                long pieces = 0;
+                for (int g = 0; g < games; g++) {
+                    GameEngine engine = Simulation.playBotGame(bot, PieceGenerator.Mode.BAG, seed + g,
+                            width, height, maxPieces);
+                    lines += engine.getLinesCleared();
+                    pieces += engine.getPiecesPlaced();
+                }
+                return new long[] {lines, pieces};
+            }));
+        }
+
+        long pieces = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            long[] totals = results.get(i).get();
+            pending.get(i).fitness = (double) totals[0] / games;
+            pieces += totals[1];
+        }
+        return new long[] {(long) pending.size() * games, pieces};
+    }
+
+    // Next generation from a scored one, sorted best first: the top tenth survives unchanged (keeping its
+    // fitness, since it would play the same games again), and the rest are children of tournament
+    // winners, crossed by fitness-weighted average and occasionally mutated
+    private static List<Individual> breed(List<Individual> population, SplittableRandom random) {
+        int size = population.size();
+        int elite = Math.max(1, size / 10);
+        int tournament = Math.max(2, size / 10);
+
+        List<Individual> next = new ArrayList<>(population.subList(0, elite));
+        while (next.size() < size) {
+            Individual a = select(population, tournament, random);
+            Individual b = select(population, tournament, random);
+            double total = a.fitness + b.fitness;
+            double share = total > 0 ? a.fitness / total : 0.5;
+
+            double[] genes = new double[4];
+            for (int g = 0; g < genes.length; g++) {
+                genes[g] = a.genes[g] * share + b.genes[g] * (1 - share);
+            }
+            if (random.nextDouble() < 0.1) {
+                genes[random.nextInt(genes.length)] += random.nextDouble() * 0.4 - 0.2;
+            }
+            next.add(new Individual(normalize(genes)));
+        }
+        return next;
+    }
+
+    // Best of a few individuals drawn at random
+    private static Individual select(List<Individual> population, int tournament, SplittableRandom random) {
+        Individual best = null;
+        for (int i = 0; i < tournament; i++) {
+            Individual candidate = population.get(random.nextInt(population.size()));
+            if (best == null || candidate.fitness > best.fitness) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    // Only the direction of the weights matters to the bot, so keep them at unit length
+    private static double[] normalize(double[] genes) {
+        double length = 0;
+        for (double gene : genes) {
+            length += gene * gene;
+        }
+        length = Math.sqrt(length);
+        if (length == 0) {
+            return genes;
+        }
+        for (int g = 0; g < genes.length; g++) {
+            genes[g] /= length;
+        }
+        return genes;
+    }
+
+    // Write a scored generation, replacing the previous checkpoint only once the new one is complete
+    private static void writeCheckpoint(Path checkpoint, String settings, int generation,
+                                        List<Individual> population) throws IOException {
+        StringBuilder out = new StringBuilder();
+        out.append("settings ").append(settings).append('\n');
+        out.append("generation ").append(generation).append('\n');
+        for (Individual individual : population) {
+            out.append("individual");
+            for (double gene : individual.genes) {
+                out.append(' ').append(gene);
+            }
+            out.append(' ').append(individual.fitness).append('\n');
+        }
+
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        Files.write(temp, out.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Load a checkpoint into the population and return its generation; it must have been written with
+    // the same settings, or its fitness values would mean something else
+    private static int readCheckpoint(Path checkpoint, String settings, List<Individual> population)
+            throws IOException {
+        int generation = -1;
+        for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+            String[] parts = line.trim().split(" ");
+            switch (parts[0]) {
+                case "settings":
+                    String saved = line.trim().substring("settings ".length());
+                    if (!saved.equals(settings)) {
+                        throw new IllegalStateException("checkpoint " + checkpoint + " was made with " + saved
+                                + ", not " + settings);
+                    }
+                    break;
+                case "generation":
+                    generation = Integer.parseInt(parts[1]);
+                    break;
+                case "individual":
+                    double[] genes = new double[4];
+                    for (int g = 0; g < genes.length; g++) {
+                        genes[g] = Double.parseDouble(parts[1 + g]);
+                    }
+                    Individual individual = new Individual(genes);
+                    individual.fitness = Double.parseDouble(parts[5]);
+                    population.add(individual);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (generation < 0 || population.isEmpty()) {
+            throw new IllegalStateException("checkpoint " + checkpoint + " holds no generation");
+        }
+        return generation;
+    }
+}
@@ -0,0 +1,268 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Gym-style batch of independent games for training loops. One step() call applies an action to every
+// game and writes observations, rewards and done flags into arrays the caller owns, so stepping
+// allocates nothing. The games are split into contiguous shards, one per thread; the calling thread
+// steps the first shard while persistent workers step the others.
+//
+// An action is a GameEngine.Input ordinal. Each step applies it and then one row of gravity, except
+// after a hard drop. The reward is the score gained. A game that ends reports done and restarts at once,
+// so the observation written with done already shows the new game.
+//
+// Each game's observation is getObservationSize() bytes: width * height occupancy cells (1 = filled,
+// row by row from the top), then the current piece (Tetromino ordinal + 1), its rotation, x and y
+// (signed 16-bit, big-endian, so any board size fits), the held piece (0 = none), whether hold is
+// available, and the preview queue.
+public final class VectorEnv implements AutoCloseable {
+
+    private static final GameEngine.Input[] ACTIONS = GameEngine.Input.values();
+
+    private final GameEngine[] engines;
+    private final int width;
+    private final int height;
+    private final int previewDepth;
+    private final int observationSize;
+
+    // Shard s covers games [bounds[s], bounds[s + 1])
+    private final int[] bounds;
+    private final Thread[] workers;
+
+    // Per shard: a game's observation is staged here, then copied into its own view of the caller's
+    // buffer in one bulk put. The views are remade only when the caller passes a different buffer.
+    private final byte[][] staging;
+    private final ByteBuffer[] views;
+    private ByteBuffer viewed;
+
+    // Arguments of the step in progress, read by the workers after they see a new generation
+    private int[] actions;
+    private byte[] observationArray;
+    private ByteBuffer observationBuffer;
+    private float[] rewards;
+    private boolean[] dones;
+    private volatile long generation;
+    private volatile boolean running = true;
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile Thread caller;
+    // What a worker threw during the step in progress, rethrown on the caller once every shard is done
+    private volatile Throwable failure;
+
+    public VectorEnv(int count, long seed, int width, int height, int previewDepth, int threads) {
+        this.engines = new GameEngine[count];
+        for (int i = 0; i < count; i++) {
+            engines[i] = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, seed + i),
+                    previewDepth, width, height);
+        }
+        this.width = width;
+        this.height = height;
+        this.previewDepth = previewDepth;
+        this.observationSize = width * height + 8 + previewDepth;
+
+        int shards = Math.max(1, Math.min(threads, count));
+        bounds = new int[shards + 1];
+        for (int s = 0; s <= shards; s++) {
+            bounds[s] = (int) ((long) count * s / shards);
+        }
+        staging = new byte[shards][observationSize];
+        views = new ByteBuffer[shards];
+        workers = new Thread[shards - 1];
+        for (int s = 1; s < shards; s++) {
+            int shard = s;
+            Thread worker = new Thread(() -> work(shard), "env-worker-" + s);
+            worker.setDaemon(true);
+            workers[s - 1] = worker;
+            worker.start();
+        }
+    }
+
+    public VectorEnv(int count, long seed) {
+        this(count, seed, Board.DEFAULT_WIDTH, Board.DEFAULT_HEIGHT, GameEngine.DEFAULT_PREVIEW,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public int getCount() {
+        return engines.length;
+    }
+
+    public int getObservationSize() {
+        return observationSize;
+    }
+
+    public int getActionCount() {
+        return ACTIONS.length;
+    }
+
+    // The engine behind one game, e.g. to render it; don't touch it while a step is running
+    public GameEngine getEngine(int i) {
+        return engines[i];
+    }
+
+    // Restart every game and write the first observations
+    public void reset(byte[] observations) {
+        for (int i = 0; i < engines.length; i++) {
+            engines[i].reset();
+            observe(i, observations, i * observationSize);
+        }
+    }
+
+    public void reset(ByteBuffer observations) {
+        prepareViews(observations);
+        for (int i = 0; i < engines.length; i++) {
+            engines[i].reset();
+            observe(i, staging[0], 0);
+            copy(0, i);
+        }
+    }
+
+    // Apply actions[i] to game i for every game
+    public void step(int[] actions, byte[] observations, float[] rewards, boolean[] dones) {
+        run(actions, observations, null, rewards, dones);
+    }
+
+    // The same, writing observations into a (typically direct) buffer at absolute positions
+    public void step(int[] actions, ByteBuffer observations, float[] rewards, boolean[] dones) {
+        run(actions, null, observations, rewards, dones);
+    }
+
+    private void run(int[] actions, byte[] observationArray, ByteBuffer observationBuffer,
+                     float[] rewards, boolean[] dones) {
+        // Checked here, since a bad action inside a shard would leave the other shards to finish alone
+        for (int i = 0; i < engines.length; i++) {
+            if (actions[i] < 0 || actions[i] >= ACTIONS.length) {
+                throw new IllegalArgumentException("game " + i + ": action " + actions[i] + " is not in [0, "
+                        + ACTIONS.length + ")");
+            }
+        }
+        this.actions = actions;
+        this.observationArray = observationArray;
+        this.observationBuffer = observationBuffer;
+        this.rewards = rewards;
+        this.dones = dones;
+        if (observationBuffer != null) {
+            prepareViews(observationBuffer);
+        }
+        if (workers.length == 0) {
+            stepShard(0);
+            return;
+        }
+
+        // Release the workers (the volatile write publishes the arguments), step shard 0 here,
+        // then wait for the others
+        caller = Thread.currentThread();
+        remaining.set(workers.length);
+        generation++;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        try {
+            stepShard(0);
+        } finally {
+            while (remaining.get() != 0) {
+                LockSupport.park(this);
+            }
+        }
+        Throwable failed = failure;
+        if (failed != null) {
+            failure = null;
+            if (failed instanceof RuntimeException) {
+                throw (RuntimeException) failed;
+            }
+            if (failed instanceof Error) {
+                throw (Error) failed;
+            }
+            throw new IllegalStateException(failed);
+        }
+    }
+
+    private void work(int shard) {
+        long seen = 0;
+        while (true) {
+            while (generation == seen && running) {
+                LockSupport.park(this);
+            }
+            if (!running) {
+                return;
+            }
+            seen = generation;
+            try {
+                stepShard(shard);
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+    }
+
+    private void stepShard(int shard) {
+        for (int i = bounds[shard]; i < bounds[shard + 1]; i++) {
+            GameEngine engine = engines[i];
+            int before = engine.getScore();
+            GameEngine.Input action = ACTIONS[actions[i]];
+            engine.apply(action);
+            if (action != GameEngine.Input.DROP) {
+                engine.step();
+            }
+            rewards[i] = engine.getScore() - before;
+            dones[i] = engine.isGameOver();
+            if (dones[i]) {
+                engine.reset();
+            }
+            if (observationArray != null) {
+                observe(i, observationArray, i * observationSize);
+            } else {
+                observe(i, staging[shard], 0);
+                copy(shard, i);
+            }
+        }
+    }
+
+    // Write game i's observation into an array at the given offset
+    private void observe(int i, byte[] out, int offset) {
+        GameEngine engine = engines[i];
+        engine.getBoard().copyOccupancyTo(out, offset);
+        int index = offset + width * height;
+        out[index++] = (byte) (engine.getCurrentPiece().ordinal() + 1);
+        out[index++] = (byte) engine.getRotation();
+        int x = engine.getPieceX();
+        int y = engine.getPieceY();
+        out[index++] = (byte) (x >> 8);
+        out[index++] = (byte) x;
+        out[index++] = (byte) (y >> 8);
+        out[index++] = (byte) y;
+        out[index++] = (byte) (engine.getHeldPiece() == null ? 0 : engine.getHeldPiece().ordinal() + 1);
+        out[index++] = (byte) (engine.isHoldAvailable() ? 1 : 0);
+        for (int p = 0; p < previewDepth; p++) {
+            out[index++] = (byte) (engine.getPreview(p).ordinal() + 1);
+        }
+    }
+
+    // Give every shard its own view of the caller's buffer, unless it already has one
+    private void prepareViews(ByteBuffer buffer) {
+        if (buffer != viewed) {
+            for (int s = 0; s < views.length; s++) {
+                views[s] = buffer.duplicate();
+            }
+            viewed = buffer;
+        }
+    }
+
+    // Copy a shard's staged observation of game i into the caller's buffer
+    private void copy(int shard, int i) {
+        ByteBuffer view = views[shard];
+        view.position(i * observationSize);
+        view.put(staging[shard], 0, observationSize);
+    }
+
+    // Stop the worker threads; the environment can't be stepped afterwards
+    @Override
+    public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+}
@@ -0,0 +1,698 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.CRC32;
+import javax.swing.SwingUtilities;
+
+// Two-player versus over TCP. Both sides run both games in deterministic lockstep: the host picks the
+// seed, both games deal the same pieces, and time moves in fixed 60 Hz frames. Only inputs cross the wire,
+// one message per frame, so each side plays its own game at once and the opponent's from its inputs.
+// Those arrive late; until they do, a frame is played as if the opponent did nothing, and when inputs
+// turn up for a frame already played that way, both games roll back to the state saved at its start
+// and play forward again (rollback). A side that gets more than MAX_ROLLBACK frames ahead of what it
+// has heard waits, and a side that runs ahead of the other skips a frame now and then to even out.
+// Garbage: a lock clearing 2, 3 or 4 lines sends 1, 2 or 4 rows, first taking back as many rows waiting
+// for the sender; they cross at the end of the frame and rise under the opponent's stack at its next
+// lock that clears nothing, all with a hole in one column picked from the seed.
+// Every CHECK_FRAMES frames, once a frame's inputs are known to both sides, each side sends a checksum
+// of both games at that frame and the rows of its own stack that changed since its last check
+// (StackDelta), so the other side can tell if the two have drifted apart (a desync).
+// Everything runs on one thread: a selector for the socket, and the frames between selects.
+//
+// Protocol: messages framed as (length of the rest: u16, type: u8, payload), big-endian.
+//   host HELLO:    seed (i64), gravity (u8, a GameEngine.Gravity ordinal); the match starts
+//   either INPUTS: frame (i32), lead (i16, frames played beyond the last heard from the other side),
+//                  count (u8), then that many inputs (u8, GameEngine.Input ordinals), in order
+//   either CHECK:  frame (i32), CRC-32 of both games at the start of that frame (i32), the sender's
+//                  changed stack rows at that frame (see StackDelta)
+// Usage: java Tetris --versus [--connect HOST] [--port P] [--seed S] [--gravity classic|guideline|20g]
+//        [--das MS] [--arr MS] [--autopilot] [--bot-delay MS] [--lag MS] [--headless] [--seconds S]
+// Without --connect it waits for an opponent on the port. --lag holds back everything this side sends
+// for that long, to try the match over a slow link on loopback. --headless plays without a window
+// (with --autopilot, bot against bot) and prints how the match went.
+public final class Versus implements Runnable {
+
+    // What a window needs to hear from the match; called on the match thread
+    public interface Observer {
+        default void started() {}
+        default void changed() {}
+        default void ended(String result) {}
+    }
+
+    static final int DEFAULT_PORT = GameServer.DEFAULT_PORT + 1;
+
+    static final byte HELLO = 1;
+    static final byte INPUTS = 2;
+    static final byte CHECK = 3;
+
+    static final long FRAME_NANOS = 1_000_000_000L / 60;
+    // Frames whose start state, inputs and checksum are kept, in rings indexed by frame & (RING - 1)
+    private static final int RING = 128;
+    // Furthest the match plays beyond the opponent's last inputs before waiting for more
+    private static final int MAX_ROLLBACK = 40;
+    // A side that has fallen this far behind its frame clock picks up from now rather than rushing
+    private static final long MAX_CATCH_UP_NANOS = 250_000_000L;
+    private static final int CHECK_FRAMES = 60;
+    private static final int MAX_INPUTS = 255;
+    // Garbage rows sent for clearing 0 to 4 lines with one lock
+    private static final int[] ATTACK = {0, 0, 1, 2, 4};
+    private static final GameEngine.Input[] INPUT_VALUES = GameEngine.Input.values();
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocate(8192);
+    private final ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+    // Messages on their way out, each after the time it may go (i64), held back by the artificial lag
+    private final ByteBuffer delayed = ByteBuffer.allocate(64 * 1024);
+    private final long lagNanos;
+
+    // Player 0 is the host, 1 the one who connected
+    private final int local;
+    private final int remote;
+    private long seed;
+    private GameEngine.Gravity gravity;
+    private final GameEngine[] engines = new GameEngine[2];
+    private final StatePublisher[] publishers = new StatePublisher[2];
+
+    // Local play: key events from the window, held keys, or a bot placing a piece every botFrames frames
+    private final InputQueue keyEvents = new InputQueue(64);
+    private final AutoShift keys;
+    private final Bot bot;
+    private final int botFrames;
+    private volatile Observer observer = new Observer() {};
+
+    // Rings: both games at the start of each frame, its checksum and both stacks, and each player's inputs
+    private final ByteBuffer[] states = new ByteBuffer[RING];
+    private final int[] crcs = new int[RING];
+    private final byte[][][] stacks = new byte[RING][2][];
+    private final byte[][][] inputs = new byte[2][RING][MAX_INPUTS];
+    private final int[][] inputCounts = new int[2][RING];
+    private final CRC32 crc = new CRC32();
+
+    // The next frame to play, frames the opponent's inputs have arrived for, and the earliest frame
+    // played on a wrong guess of them, waiting to be rolled back (Integer.MAX_VALUE if none)
+    private int frame;
+    private int received;
+    private int rollbackFrom = Integer.MAX_VALUE;
+    private int remoteLead;
+    private int skippedAt = -1;
+    private long nextFrame;
+    // Garbage each player has earned in the frame being played, and the frame each game ended in (or -1)
+    private final int[] attack = new int[2];
+    private final int[] overFrame = {-1, -1};
+    // Set while frames are played again, when the local inputs come from the ring instead of the player
+    private boolean replaying;
+    // Whether the games changed since they were last published
+    private boolean changed;
+
+    // Stack deltas: what the opponent has been sent of ours, and its stack as its checks described it
+    private StackDelta sentStack;
+    private byte[] mirror;
+    private int nextCheck = CHECK_FRAMES;
+
+    private boolean started;
+    private String result;
+    private long deadline = Long.MAX_VALUE;
+
+    private int rollbacks;
+    private long replayedFrames;
+    private int deepest;
+    private int stalls;
+    private int checks;
+    private int desyncs;
+    private int firstDesync = -1;
+    private int lastChecked = -1;
+    private int lastCheckedCrc;
+
+    private Versus(String host, int port, long seed, GameEngine.Gravity gravity, int dasMillis, int arrMillis,
+            Bot bot, int botMillis, int lagMillis) throws IOException {
+        this.selector = Selector.open();
+        this.local = host == null ? 0 : 1;
+        this.remote = 1 - local;
+        this.seed = seed;
+        this.gravity = gravity;
+        this.keys = new AutoShift(this::applyLocal, dasMillis, arrMillis);
+        this.bot = bot;
+        this.botFrames = Math.max(1, (int) (botMillis * 1_000_000L / FRAME_NANOS));
+        this.lagNanos = lagMillis * 1_000_000L;
+        out.limit(0);
+        for (int i = 0; i < RING; i++) {
+            states[i] = ByteBuffer.allocate(2048);
+        }
+
+        if (host == null) {
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } else {
+            server = null;
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(new InetSocketAddress(host, port))) {
+                channel.register(selector, SelectionKey.OP_READ);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT);
+            }
+        }
+    }
+
+    public static void run(String[] args) throws IOException {
+        String host = null;
+        int port = DEFAULT_PORT;
+        long seed = System.nanoTime();
+        GameEngine.Gravity gravity = GameEngine.Gravity.GUIDELINE;
+        int das = AutoShift.DEFAULT_DAS_MILLIS;
+        int arr = AutoShift.DEFAULT_ARR_MILLIS;
+        boolean autopilot = false;
+        int botMillis = Tetris.AUTOPILOT_DELAY;
+        int lag = 0;
+        boolean headless = false;
+        int seconds = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--connect":
+                    host = args[++i];
+                    break;
+                case "--port":
+                    port = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--gravity":
+                    gravity = Tetris.parseGravity(args[++i]);
+                    break;
+                case "--das":
+                    das = Integer.parseInt(args[++i]);
+                    break;
+                case "--arr":
+                    arr = Integer.parseInt(args[++i]);
+                    break;
+                case "--autopilot":
+                    autopilot = true;
+                    break;
+                case "--bot-delay":
+                    botMillis = Integer.parseInt(args[++i]);
+                    break;
+                case "--lag":
+                    lag = Integer.parseInt(args[++i]);
+                    break;
+                case "--headless":
+                    headless = true;
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Bot bot = autopilot ? Simulation.createBot(HeuristicBot.Weights.DEFAULT, 1, null) : null;
+        Versus match = new Versus(host, port, seed, gravity, das, arr, bot, botMillis, lag);
+        if (seconds > 0) {
+            match.deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        }
+        System.out.println(host == null ? "Waiting for an opponent on port " + port
+                : "Connecting to " + host + ":" + port);
+        if (headless) {
+            match.run();
+            match.report();
+            return;
+        }
+        match.observer = new Observer() {
+            @Override
+            public void started() {
+                SwingUtilities.invokeLater(() -> new VersusWindow(match).setVisible(true));
+            }
+        };
+        Thread thread = new Thread(match, "versus");
+        thread.start();
+    }
+
+    // Called by the window once it is listening
+    void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+
+    // Queue the press or release of a local player's key, stamped now; safe from any thread
+    public boolean offer(GameEngine.Input input, boolean pressed) {
+        return keyEvents.offer(input, pressed, System.nanoTime());
+    }
+
+    // Snapshots of the local player's game and the opponent's, as last played
+    public StatePublisher getLocal() {
+        return publishers[local];
+    }
+
+    public StatePublisher getRemote() {
+        return publishers[remote];
+    }
+
+    public GameEngine getLocalEngine() {
+        return engines[local];
+    }
+
+    public boolean isHost() {
+        return local == 0;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (result == null) {
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    result = "Time is up";
+                    break;
+                }
+                if (started) {
+                    playFrames(now);
+                    sendChecks();
+                    checkOver();
+                }
+                flush(now);
+                if (changed) {
+                    changed = false;
+                    publishers[0].publish();
+                    publishers[1].publish();
+                    observer.changed();
+                }
+                if (result != null) {
+                    break;
+                }
+
+                long wake = started ? nextFrame : now + 100_000_000L;
+                if (delayed.position() > 0) {
+                    wake = Math.min(wake, delayed.getLong(0));
+                }
+                long millis = (wake - System.nanoTime()) / 1_000_000;
+                if (millis > 0) {
+                    selector.select(millis);
+                } else {
+                    selector.selectNow();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isConnectable()) {
+                        channel.finishConnect();
+                        key.interestOps(SelectionKey.OP_READ);
+                    } else if (key.isReadable() && receive()) {
+                        break;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+            // Let what is still held back go out, so the opponent can confirm the end as well
+            long drain = System.nanoTime() + lagNanos + 1_000_000_000L;
+            while (channel != null && channel.isOpen() && (delayed.position() > 0 || out.hasRemaining())
+                    && System.nanoTime() - drain < 0) {
+                flush(System.nanoTime());
+                selector.select(5);
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            if (result == null) {
+                result = "Connection lost: " + e.getMessage();
+            }
+        } finally {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                if (server != null) {
+                    server.close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            observer.ended(result);
+        }
+    }
+
+    // The host's side: take the first opponent, stop listening, and start the match
+    private void accept() throws IOException {
+        channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        server.close();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ);
+        int start = startMessage(HELLO);
+        delayed.putLong(seed).put((byte) gravity.ordinal());
+        endMessage(start);
+        start();
+    }
+
+    private void start() {
+        for (int p = 0; p < 2; p++) {
+            engines[p] = new GameEngine(PieceGenerator.create(PieceGenerator.Mode.BAG, seed), GameEngine.DEFAULT_PREVIEW);
+            engines[p].setGravity(gravity);
+        }
+        Board board = engines[0].getBoard();
+        int cells = board.getWidth() * board.getHeight();
+        for (int i = 0; i < RING; i++) {
+            stacks[i][0] = new byte[cells];
+            stacks[i][1] = new byte[cells];
+        }
+        sentStack = new StackDelta(board.getWidth(), board.getHeight());
+        mirror = new byte[cells];
+        // Inputs that take effect on the local game are what the opponent needs to play it too
+        engines[local].setListener(new GameEngine.Listener() {
+            @Override
+            public void inputApplied(GameEngine.Input input) {
+                if (!replaying) {
+                    int slot = frame & (RING - 1);
+                    inputs[local][slot][inputCounts[local][slot]++] = (byte) input.ordinal();
+                }
+            }
+        });
+        publishers[0] = new StatePublisher(engines[0]);
+        publishers[1] = new StatePublisher(engines[1]);
+        save(0);
+        started = true;
+        nextFrame = System.nanoTime();
+        System.out.println("Playing as " + (local == 0 ? "host" : "guest") + ", seed " + seed);
+        observer.started();
+    }
+
+    // Play the frames that are due, unless the match has to wait for the opponent or let it catch up
+    private void playFrames(long now) throws IOException {
+        if (now - nextFrame > MAX_CATCH_UP_NANOS) {
+            nextFrame = now;
+        }
+        while (now - nextFrame >= 0 && result == null) {
+            nextFrame += FRAME_NANOS;
+            int lead = frame - received;
+            if (lead >= MAX_ROLLBACK || (frame % 8 == 0 && skippedAt != frame && lead - remoteLead >= 2)) {
+                skippedAt = frame;
+                stalls++;
+                continue;
+            }
+            inputCounts[local][frame & (RING - 1)] = 0;
+            play(frame, now);
+            frame++;
+            changed = true;
+
+            int slot = (frame - 1) & (RING - 1);
+            int count = inputCounts[local][slot];
+            int start = startMessage(INPUTS);
+            delayed.putInt(frame - 1).putShort((short) (frame - received)).put((byte) count);
+            delayed.put(inputs[local][slot], 0, count);
+            endMessage(start);
+        }
+    }
+
+    // Play one frame: each player's inputs, then gravity, then the garbage earned crosses over. Played
+    // live, the local inputs come from the keys (stamped up to now) or the bot; replayed, from the ring.
+    private void play(int f, long now) {
+        int slot = f & (RING - 1);
+        attack[0] = 0;
+        attack[1] = 0;
+        for (int p = 0; p < 2; p++) {
+            if (p == local && !replaying) {
+                drainKeys(now);
+                if (bot != null && f % botFrames == 0) {
+                    int lines = engines[p].getLinesCleared();
+                    bot.play(engines[p]);
+                    attacked(p, lines);
+                }
+            } else if (p == local || f < received) {
+                // The opponent's inputs for a frame not heard of yet are guessed to be none
+                for (int i = 0; i < inputCounts[p][slot]; i++) {
+                    apply(p, INPUT_VALUES[inputs[p][slot][i]]);
+                }
+            }
+        }
+        for (int p = 0; p < 2; p++) {
+            int lines = engines[p].getLinesCleared();
+            engines[p].advance(FRAME_NANOS);
+            attacked(p, lines);
+        }
+
+        // Both players' garbage first cancels their own incoming rows, then goes across
+        int[] sent = {attack[0] - engines[0].cancelGarbage(attack[0]), attack[1] - engines[1].cancelGarbage(attack[1])};
+        for (int p = 0; p < 2; p++) {
+            if (sent[p] > 0) {
+                int hole = new SplittableRandom(seed ^ (engines[p].getPiecesPlaced() << 1 | p))
+                        .nextInt(engines[p].getBoard().getWidth());
+                engines[1 - p].addGarbage(sent[p], hole);
+            }
+            if (overFrame[p] < 0 && engines[p].isGameOver()) {
+                overFrame[p] = f;
+            }
+        }
+        save(f + 1);
+    }
+
+    // Key presses and releases stamped up to now, in order, and the repeats of held keys
+    private void drainKeys(long now) {
+        while (!keyEvents.isEmpty() && keyEvents.peekTime() - now <= 0) {
+            GameEngine.Input input = keyEvents.peekInput();
+            long time = keyEvents.peekTime();
+            boolean pressed = keyEvents.peekPressed();
+            keyEvents.advance();
+            if (pressed) {
+                keys.press(input, time);
+            } else {
+                keys.release(input, time);
+            }
+        }
+        keys.poll(now);
+    }
+
+    private boolean applyLocal(GameEngine.Input input) {
+        if (inputCounts[local][frame & (RING - 1)] == MAX_INPUTS) {
+            return false;
+        }
+        return apply(local, input);
+    }
+
+    private boolean apply(int p, GameEngine.Input input) {
+        int lines = engines[p].getLinesCleared();
+        boolean applied = engines[p].apply(input);
+        attacked(p, lines);
+        return applied;
+    }
+
+    // Garbage earned by a lock that cleared lines since the count was taken
+    private void attacked(int p, int linesBefore) {
+        attack[p] += ATTACK[engines[p].getLinesCleared() - linesBefore];
+    }
+
+    // Keep both games as they stand at the start of a frame
+    private void save(int f) {
+        int slot = f & (RING - 1);
+        ByteBuffer state = states[slot];
+        state.clear();
+        engines[0].writeSnapshot(state);
+        engines[1].writeSnapshot(state);
+        state.flip();
+        crc.reset();
+        crc.update(state.duplicate());
+        crcs[slot] = (int) crc.getValue();
+        engines[0].getBoard().copyColorsTo(stacks[slot][0]);
+        engines[1].getBoard().copyColorsTo(stacks[slot][1]);
+    }
+
+    // Put both games back to the start of the earliest frame played on a wrong guess, and play up to now
+    private void rollBack() {
+        int from = rollbackFrom;
+        rollbackFrom = Integer.MAX_VALUE;
+        if (from >= frame) {
+            return;
+        }
+        ByteBuffer state = states[from & (RING - 1)].duplicate();
+        for (int p = 0; p < 2; p++) {
+            engines[p].readSnapshot(state);
+            if (overFrame[p] >= from) {
+                overFrame[p] = -1;
+            }
+        }
+        replaying = true;
+        for (int f = from; f < frame; f++) {
+            play(f, 0);
+        }
+        replaying = false;
+        changed = true;
+        rollbacks++;
+        replayedFrames += frame - from;
+        deepest = Math.max(deepest, frame - from);
+    }
+
+    // Once a frame's inputs are known to both sides its state is final: send a check for it every
+    // CHECK_FRAMES frames
+    private void sendChecks() throws IOException {
+        int confirmed = Math.min(frame, received);
+        while (nextCheck <= confirmed) {
+            int slot = nextCheck & (RING - 1);
+            int start = startMessage(CHECK);
+            delayed.putInt(nextCheck).putInt(crcs[slot]);
+            sentStack.write(stacks[slot][local], delayed);
+            endMessage(start);
+            nextCheck += CHECK_FRAMES;
+        }
+    }
+
+    // The match is over once a game has ended in a frame both sides know all the inputs of
+    private void checkOver() {
+        int confirmed = Math.min(frame, received);
+        boolean localOver = overFrame[local] >= 0 && overFrame[local] < confirmed;
+        boolean remoteOver = overFrame[remote] >= 0 && overFrame[remote] < confirmed;
+        if (localOver && remoteOver && overFrame[local] == overFrame[remote]) {
+            result = "Draw";
+        } else if (localOver && (!remoteOver || overFrame[local] < overFrame[remote])) {
+            result = "You lose";
+        } else if (remoteOver) {
+            result = "You win";
+        } else {
+            return;
+        }
+        // End on the frame the match was decided in, which both sides played alike
+        int end = 1 + (localOver && remoteOver ? Math.min(overFrame[local], overFrame[remote])
+                : localOver ? overFrame[local] : overFrame[remote]);
+        ByteBuffer state = states[end & (RING - 1)].duplicate();
+        for (int p = 0; p < 2; p++) {
+            engines[p].readSnapshot(state);
+        }
+        frame = end;
+        changed = true;
+    }
+
+    // Read and handle what has arrived; true if the opponent has gone
+    private boolean receive() throws IOException {
+        if (channel.read(in) < 0) {
+            if (result == null) {
+                result = "The opponent left";
+            }
+            return true;
+        }
+        in.flip();
+        while (in.remaining() >= 2 && in.remaining() >= 2 + (in.getShort(in.position()) & 0xFFFF)) {
+            int length = in.getShort() & 0xFFFF;
+            int end = in.position() + length;
+            handle(in.get());
+            in.position(end);
+        }
+        in.compact();
+        rollBack();
+        return false;
+    }
+
+    private void handle(byte type) throws IOException {
+        if (type == HELLO && !started) {
+            seed = in.getLong();
+            gravity = GameEngine.Gravity.values()[in.get()];
+            start();
+        } else if (type == INPUTS && started) {
+            int f = in.getInt();
+            if (f != received || f - frame >= RING - MAX_ROLLBACK) {
+                throw new IOException("inputs out of step: frame " + f);
+            }
+            remoteLead = in.getShort();
+            int count = in.get() & 0xFF;
+            int slot = f & (RING - 1);
+            in.get(inputs[remote][slot], 0, count);
+            inputCounts[remote][slot] = count;
+            received = f + 1;
+            if (count > 0 && f < frame) {
+                rollbackFrom = Math.min(rollbackFrom, f);
+            }
+        } else if (type == CHECK && started) {
+            // The frame is final here too by now, as its inputs came first; but roll back to it before comparing
+            rollBack();
+            int f = in.getInt();
+            int theirs = in.getInt();
+            StackDelta.read(in, mirror, engines[0].getBoard().getWidth());
+            int slot = f & (RING - 1);
+            if (f <= Math.min(frame, received) && frame - f < RING) {
+                checks++;
+                lastChecked = f;
+                lastCheckedCrc = crcs[slot];
+                if (theirs != crcs[slot] || !Arrays.equals(mirror, stacks[slot][remote])) {
+                    desyncs++;
+                    if (firstDesync < 0) {
+                        firstDesync = f;
+                    }
+                }
+            }
+        }
+    }
+
+    // Begin a message in the held-back queue, due after the lag; returns where it starts
+    private int startMessage(byte type) throws IOException {
+        if (delayed.remaining() < 1024) {
+            throw new IOException("the opponent has stopped reading");
+        }
+        delayed.putLong(System.nanoTime() + lagNanos);
+        int start = delayed.position();
+        delayed.putShort((short) 0);
+        delayed.put(type);
+        return start;
+    }
+
+    private void endMessage(int start) {
+        delayed.putShort(start, (short) (delayed.position() - start - 2));
+    }
+
+    // Move the messages that are due to the socket buffer and write what the socket takes
+    private void flush(long now) throws IOException {
+        if (channel == null || !channel.isConnected()) {
+            return;
+        }
+        delayed.flip();
+        out.compact();
+        while (delayed.remaining() >= 10 && delayed.getLong(delayed.position()) - now <= 0) {
+            int length = 2 + (delayed.getShort(delayed.position() + 8) & 0xFFFF);
+            if (out.remaining() < length) {
+                break;
+            }
+            delayed.position(delayed.position() + 8);
+            int limit = delayed.limit();
+            delayed.limit(delayed.position() + length);
+            out.put(delayed);
+            delayed.limit(limit);
+        }
+        delayed.compact();
+        out.flip();
+        if (out.hasRemaining()) {
+            channel.write(out);
+        }
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | (out.hasRemaining() ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    private void report() {
+        System.out.printf("%s after %d frames: rollbacks=%d (%d frames replayed, deepest %d) stalls=%d%n",
+                result, frame, rollbacks, replayedFrames, deepest, stalls);
+        System.out.printf("checks=%d desyncs=%d%s, last checked frame %d crc=%08x%n", checks, desyncs,
+                firstDesync >= 0 ? " (first at frame " + firstDesync + ")" : "",
+                lastChecked, lastCheckedCrc);
+        if (started) {
+            for (int p : new int[] {local, remote}) {
+                GameEngine engine = engines[p];
+                System.out.printf("%s: score=%d lines=%d pieces=%d garbage waiting=%d%s%n",
+                        p == local ? "you" : "opponent", engine.getScore(), engine.getLinesCleared(),
+                        engine.getPiecesPlaced(), engine.getPendingGarbage(), engine.isGameOver() ? " (topped out)" : "");
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import javax.swing.*;
+
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Window for a versus match: the local game with its hold and next panels, and the opponent's game
+// beside it as this side last played it. Keys go to the match thread stamped with when they arrived;
+// the views follow the snapshots it publishes, at most one refresh pending on the EDT at a time.
+public class VersusWindow extends JFrame {
+
+    private final Versus match;
+    private final Tetris.GamePanel localPanel;
+    private final Tetris.GamePanel remotePanel;
+    private final Tetris.HoldPanel holdPanel;
+    private final Tetris.NextPanel nextPanel;
+    private final JLabel localLabel;
+    private final JLabel remoteLabel;
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private GameSnapshot shown;
+
+    public VersusWindow(Versus match) {
+        setTitle(match.isHost() ? "Tetris versus (host)" : "Tetris versus");
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setResizable(false);
+        this.match = match;
+
+        Board board = match.getLocalEngine().getBoard();
+        int[] fitted = Tetris.fitBoard(2 * board.getWidth(), board.getHeight(), 40, 0);
+        localPanel = new Tetris.GamePanel(board.getWidth(), fitted[1], fitted[0]);
+        remotePanel = new Tetris.GamePanel(board.getWidth(), fitted[1], fitted[0]);
+        holdPanel = new Tetris.HoldPanel(fitted[0]);
+        nextPanel = new Tetris.NextPanel(fitted[0]);
+        localLabel = new JLabel("You");
+        remoteLabel = new JLabel("Opponent");
+
+        JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
+        mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        mainPanel.setBackground(new Color(40, 40, 40));
+
+        JPanel sidePanel = new JPanel(new BorderLayout(0, 10));
+        sidePanel.setBackground(new Color(40, 40, 40));
+        sidePanel.add(holdPanel, BorderLayout.NORTH);
+        sidePanel.add(nextPanel, BorderLayout.CENTER);
+
+        JPanel boards = new JPanel(new GridLayout(1, 2, 10, 0));
+        boards.setBackground(new Color(40, 40, 40));
+        boards.add(localPanel);
+        boards.add(remotePanel);
+        JPanel labels = new JPanel(new GridLayout(1, 2, 10, 0));
+        labels.setBackground(new Color(40, 40, 40));
+        for (JLabel label : new JLabel[] {localLabel, remoteLabel}) {
+            label.setForeground(Color.WHITE);
+            labels.add(label);
+        }
+
+        mainPanel.add(labels, BorderLayout.NORTH);
+        mainPanel.add(boards, BorderLayout.CENTER);
+        mainPanel.add(sidePanel, BorderLayout.EAST);
+        setContentPane(mainPanel);
+        setupKeyBindings();
+        pack();
+        setLocationRelativeTo(null);
+
+        match.setObserver(new Versus.Observer() {
+            @Override
+            public void changed() {
+                if (refreshPending.compareAndSet(false, true)) {
+                    SwingUtilities.invokeLater(() -> {
+                        refreshPending.set(false);
+                        refresh();
+                    });
+                }
+            }
+
+            @Override
+            public void ended(String result) {
+                SwingUtilities.invokeLater(() -> {
+                    refresh();
+                    JOptionPane.showMessageDialog(VersusWindow.this, result, "Match over",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    dispose();
+                    System.exit(0);
+                });
+            }
+        });
+        refresh();
+    }
+
+    // Presses and releases of the game keys go to the match, which does the repeating
+    private void setupKeyBindings() {
+        JRootPane root = getRootPane();
+        InputMap inputMap = root.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap actionMap = root.getActionMap();
+        int[] gameKeys = {KeyEvent.VK_LEFT, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_UP,
+                KeyEvent.VK_SPACE, KeyEvent.VK_C};
+        for (int keyCode : gameKeys) {
+            GameEngine.Input input = Tetris.inputFor(keyCode);
+            String name = input.name().toLowerCase();
+            inputMap.put(KeyStroke.getKeyStroke(keyCode, 0, false), name);
+            inputMap.put(KeyStroke.getKeyStroke(keyCode, 0, true), name + "-released");
+            actionMap.put(name, new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    match.offer(input, true);
+                }
+            });
+            actionMap.put(name + "-released", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    match.offer(input, false);
+                }
+            });
+        }
+    }
+
+    private void refresh() {
+        GameSnapshot snapshot = match.getLocal().get();
+        GameSnapshot opponent = match.getRemote().get();
+        localPanel.show(snapshot);
+        remotePanel.show(opponent);
+        if (shown == null || snapshot.getHeldPiece() != shown.getHeldPiece()) {
+            holdPanel.setHeldPiece(snapshot.getHeldPiece());
+        }
+        if (snapshot.previewDiffers(shown)) {
+            nextPanel.show(snapshot);
+        }
+        localLabel.setText("You: " + snapshot.getScore() + " points, " + snapshot.getLinesCleared() + " lines");
+        remoteLabel.setText("Opponent: " + opponent.getScore() + " points, " + opponent.getLinesCleared() + " lines");
+        shown = snapshot;
+    }
+}